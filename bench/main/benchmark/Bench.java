@@ -0,0 +1,300 @@
+package main.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Minimaler Mess-Rahmen für Micro-Benchmarks nach dem Vorbild von JMH (Modus "average time").
+ *
+ * Jeder Benchmark durchläuft zunächst Aufwärm-Iterationen, in denen auch ermittelt wird, wie viele Aufrufe in eine
+ * Iteration passen. Danach folgen die Mess-Iterationen. Pro Iteration wird die mittlere Zeit je Aufruf erfasst,
+ * berichtet werden Mittelwert, Standardabweichung und Minimum über alle Iterationen.
+ *
+ * Wie bei JMH läuft jeder Benchmark in mehreren eigenen JVMs (Forks, siehe {@link #fork}). So beeinflussen sich
+ * Benchmarks nicht über JIT-Profile, Heap oder Hintergrund-Threads, und Unterschiede zwischen JVM-Läufen gehen in die
+ * Streuung ein. Die Iterationen aller Forks werden gemeinsam ausgewertet.
+ *
+ * Ergebnisse eines Aufrufs werden einem Blackhole übergeben, damit die JIT-Optimierung den Aufruf nicht entfernt.
+ */
+public final class Bench {
+
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationNanos;
+    private final List<String> filters;
+    private final Map<String, Result> results = new LinkedHashMap<>();
+
+    private static volatile int blackhole;
+
+    /**
+     * @param warmupIterations Anzahl Aufwärm-Iterationen.
+     * @param iterations Anzahl Mess-Iterationen.
+     * @param iterationNanos Angestrebte Dauer einer Iteration in Nanosekunden.
+     * @param filters Nur Benchmarks, deren Name einen dieser Filter enthält, werden ausgeführt. Leer: alle. Ein
+     *                Filter "=NAME" wählt genau einen Benchmark aus.
+     */
+    public Bench(int warmupIterations, int iterations, long iterationNanos, List<String> filters) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationNanos = iterationNanos;
+        this.filters = filters;
+    }
+
+    // Prüft, ob ein Benchmark oder eine Gruppe (z.B. "aes") ausgeführt werden soll. So kann eine teure Vorbereitung
+    // übersprungen werden.
+    public boolean enabled(String name) {
+        if (filters.isEmpty()) {
+            return true;
+        }
+        for (String filter : filters) {
+            if (filter.startsWith("=")) {
+                if (filter.substring(1).equals(name) || filter.startsWith("=" + name + ".")) {
+                    return true;
+                }
+            } else if (name.contains(filter) || filter.startsWith(name + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Führt jeden ausgewählten Benchmark nacheinander in der angegebenen Anzahl eigener JVMs aus und sammelt deren
+     * Ergebnisse. Die JVMs erhalten dieselben JVM-Optionen und denselben Classpath wie die aktuelle.
+     *
+     * @param main Klasse, deren main-Methode mit "--fork DATEI =NAME" genau diesen Benchmark ausführt und seine
+     *             Ergebnisse mit {@link #writeScores} in die Datei schreibt.
+     * @param names Alle Benchmarks, die main ausführen kann.
+     * @param forks Anzahl JVMs je Benchmark.
+     * @param args Weitere Argumente für main, z.B. "--quick".
+     */
+    public void fork(Class<?> main, List<String> names, int forks, List<String> args) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        for (String name : names) {
+            if (!enabled(name)) {
+                continue;
+            }
+
+            for (int fork = 1; fork <= forks; fork++) {
+                System.out.println("# " + name + ", fork " + fork + " of " + forks);
+                Path scores = Files.createTempFile("cryptor-bench", ".scores");
+                try {
+                    List<String> command = new ArrayList<>();
+                    command.add(java);
+                    command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+                    command.add("-cp");
+                    command.add(System.getProperty("java.class.path"));
+                    command.add(main.getName());
+                    command.addAll(args);
+                    command.add("--fork");
+                    command.add(scores.toString());
+                    command.add("=" + name);
+
+                    int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+                    if (exit != 0) {
+                        throw new IOException("Benchmark " + name + " failed in fork " + fork + " with exit code " + exit + ".");
+                    }
+                    readScores(scores);
+                } finally {
+                    Files.deleteIfExists(scores);
+                }
+            }
+
+            System.out.println("# " + name + ", all forks");
+            for (Result result : results.values()) {
+                if (result.name.equals(name)) {
+                    System.out.println(result);
+                }
+            }
+        }
+    }
+
+    /**
+     * Misst die mittlere Dauer eines Aufrufs.
+     *
+     * @param name Name des Benchmarks, z.B. "aes.encrypt".
+     * @param params Parameter dieser Messung, z.B. die Größe der Eingabe.
+     * @param op Gemessener Aufruf.
+     */
+    public void measure(String name, Map<String, Object> params, Op op) throws Exception {
+        if (!enabled(name)) {
+            return;
+        }
+
+        // Aufwärmen und Anzahl Aufrufe je Iteration bestimmen.
+        long batch = 1;
+        for (int i = 0; i < warmupIterations; i++) {
+            long elapsed = run(op, batch);
+            if (elapsed < iterationNanos) {
+                batch = Math.max(1, (long) (batch * (double) iterationNanos / Math.max(1, elapsed)));
+            }
+        }
+
+        double[] scores = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            scores[i] = run(op, batch) / 1000.0 / batch;
+        }
+
+        Map<String, String> values = new TreeMap<>();
+        for (Map.Entry<String, Object> param : params.entrySet()) {
+            values.put(param.getKey(), String.valueOf(param.getValue()));
+        }
+        Result result = add(name, values, scores, batch);
+        result.forks = 1;
+        System.out.println(result);
+    }
+
+    // Fügt die Iterationen einer Messung hinzu. Messungen mit gleichem Namen und gleichen Parametern aus mehreren
+    // Forks werden zusammengefasst.
+    private Result add(String name, Map<String, String> params, double[] scores, long batch) {
+        Result result = results.computeIfAbsent(name + " " + params, key -> new Result(name, params));
+        result.add(scores, batch);
+        return result;
+    }
+
+    /**
+     * Schreibt die Iterationen aller Messungen dieser JVM, damit {@link #fork} sie einsammeln kann. Eine Zeile je
+     * Messung: Name, Parameter, Aufrufe je Iteration und Dauer je Aufruf aller Iterationen, durch Tabs getrennt.
+     */
+    public void writeScores(Path file) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (Result result : results.values()) {
+            StringBuilder params = new StringBuilder();
+            for (Map.Entry<String, String> param : result.params.entrySet()) {
+                params.append(params.length() > 0 ? ";" : "").append(param.getKey()).append('=').append(param.getValue());
+            }
+            StringBuilder scores = new StringBuilder();
+            for (double score : result.scores) {
+                scores.append(scores.length() > 0 ? "," : "").append(score);
+            }
+            lines.append(result.name).append('\t').append(params).append('\t').append(result.batch).append('\t')
+                    .append(scores).append('\n');
+        }
+        Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void readScores(Path file) throws IOException {
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t", -1);
+            Map<String, String> params = new TreeMap<>();
+            if (!fields[1].isEmpty()) {
+                for (String param : fields[1].split(";")) {
+                    int eq = param.indexOf('=');
+                    params.put(param.substring(0, eq), param.substring(eq + 1));
+                }
+            }
+            String[] values = fields[3].split(",");
+            double[] scores = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                scores[i] = Double.parseDouble(values[i]);
+            }
+            add(fields[0], params, scores, Long.parseLong(fields[2])).forks++;
+        }
+    }
+
+    private static long run(Op op, long batch) throws Exception {
+        int sink = 0;
+        long start = System.nanoTime();
+        for (long i = 0; i < batch; i++) {
+            sink ^= System.identityHashCode(op.run());
+        }
+        long elapsed = System.nanoTime() - start;
+        blackhole ^= sink;
+        return elapsed;
+    }
+
+    // Exportiert alle Ergebnisse als JSON-Array.
+    public void writeJson(Path file) throws IOException {
+        StringBuilder json = new StringBuilder("[\n");
+        int i = 0;
+        for (Result result : results.values()) {
+            json.append(result.toJson()).append(++i < results.size() ? ",\n" : "\n");
+        }
+        json.append("]\n");
+        Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Ein gemessener Aufruf. Das Ergebnis wird verworfen.
+    @FunctionalInterface
+    public interface Op {
+        Object run() throws Exception;
+    }
+
+    // Ergebnis einer Messung in Mikrosekunden je Aufruf, über alle Iterationen aller Forks.
+    private static final class Result {
+        private final String name;
+        private final Map<String, String> params;
+        private final List<Double> scores = new ArrayList<>();
+        private long batch;
+        private int forks;
+
+        private Result(String name, Map<String, String> params) {
+            this.name = name;
+            this.params = params;
+        }
+
+        private void add(double[] iterationScores, long iterationBatch) {
+            for (double score : iterationScores) {
+                scores.add(score);
+            }
+            batch = Math.max(batch, iterationBatch);
+        }
+
+        private double mean() {
+            double sum = 0;
+            for (double score : scores) {
+                sum += score;
+            }
+            return sum / scores.size();
+        }
+
+        private double error() {
+            double mean = mean();
+            double variance = 0;
+            for (double score : scores) {
+                variance += (score - mean) * (score - mean);
+            }
+            return scores.size() > 1 ? Math.sqrt(variance / (scores.size() - 1)) : 0;
+        }
+
+        private double min() {
+            double min = Double.MAX_VALUE;
+            for (double score : scores) {
+                min = Math.min(min, score);
+            }
+            return min;
+        }
+
+        private String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("  {\"benchmark\": \"").append(name).append("\", \"mode\": \"avgt\", \"params\": {");
+            int i = 0;
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                json.append(i++ > 0 ? ", " : "").append('"').append(param.getKey()).append("\": \"")
+                        .append(param.getValue()).append('"');
+            }
+            json.append("}, \"unit\": \"us/op\"")
+                    .append(String.format(Locale.ROOT, ", \"score\": %.3f, \"scoreError\": %.3f, \"min\": %.3f", mean(), error(), min()))
+                    .append(", \"forks\": ").append(forks)
+                    .append(", \"iterations\": ").append(scores.size())
+                    .append(", \"opsPerIteration\": ").append(batch).append('}');
+            return json.toString();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-28s %-40s %14.3f ± %10.3f us/op", name, params, mean(), error());
+        }
+    }
+}
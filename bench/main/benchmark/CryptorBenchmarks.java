@@ -0,0 +1,156 @@
+package main.benchmark;
+
+import main.cryptography.AES;
+import main.cryptography.DiffieHellman;
+import main.cryptography.ProgressListener;
+import main.cryptography.Steganography;
+import main.users.UserStoreBenchmark;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks für AES, Steganografie, Diffie-Hellman und die Kontaktdatei.
+ *
+ * Alle Eingaben werden synthetisch mit festem Seed erzeugt, sodass Messungen auf verschiedenen Ständen vergleichbar
+ * sind. Benötigt wird nur der Kern (main.cryptography, main.users), nicht JavaFX.
+ *
+ * Jeder Benchmark läuft in eigenen JVMs (siehe Bench#fork), standardmäßig zwei, mit --quick einer. Mit --forks 0 laufen
+ * alle Benchmarks ohne Isolation in dieser JVM, z.B. zur Fehlersuche.
+ *
+ * Aufruf: CryptorBenchmarks [--json DATEI] [--quick] [--forks N] [FILTER...]
+ * Beispiel: CryptorBenchmarks --json results.json aes steganography
+ */
+public final class CryptorBenchmarks {
+
+    private static final long SEED = 42;
+
+    private static final int[] AES_SIZES = {1 << 10, 64 << 10, 1 << 20, 8 << 20};
+    private static final int[] CARRIER_SIZES = {512, 1024, 2048};
+    private static final double[] FILL_RATIOS = {0.1, 0.5, 0.9};
+
+    private static final List<String> BENCHMARKS = List.of("aes.encrypt", "aes.decrypt", "steganography.hide",
+            "steganography.extract", "dh.alice", "dh.bob", "dh.aliceComplete", "users.snapshot", "users.load", "users.save");
+
+    private CryptorBenchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String json = null;
+        String fork = null;
+        boolean quick = false;
+        int forks = -1;
+        List<String> filters = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--json")) {
+                json = args[++i];
+            } else if (args[i].equals("--quick")) {
+                quick = true;
+            } else if (args[i].equals("--forks")) {
+                forks = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--fork")) {
+                fork = args[++i];
+            } else {
+                filters.add(args[i]);
+            }
+        }
+        if (forks < 0) {
+            forks = quick ? 1 : 2;
+        }
+
+        Bench bench = quick
+                ? new Bench(2, 3, 100_000_000L, filters)
+                : new Bench(5, 10, 1_000_000_000L, filters);
+
+        if (fork == null && forks > 0) {
+            bench.fork(CryptorBenchmarks.class, BENCHMARKS, forks, quick ? List.of("--quick") : List.of());
+        } else {
+            aes(bench);
+            steganography(bench);
+            diffieHellman(bench);
+            UserStoreBenchmark.run(bench, quick ? new int[]{10, 1000} : new int[]{10, 1000, 10000, 100000});
+        }
+
+        if (fork != null) {
+            bench.writeScores(Paths.get(fork));
+        } else if (json != null) {
+            bench.writeJson(Paths.get(json));
+        }
+    }
+
+    private static void aes(Bench bench) throws Exception {
+        byte[] secret = secret();
+
+        for (int size : AES_SIZES) {
+            byte[] clear = random(size, size);
+            byte[] cipher = AES.encrypt(clear, secret);
+
+            bench.measure("aes.encrypt", Map.of("bytes", size), () -> AES.encrypt(clear, secret));
+            bench.measure("aes.decrypt", Map.of("bytes", size), () -> AES.decrypt(cipher, secret));
+        }
+    }
+
+    // Verstecken und Extrahieren über verschiedene Auflösungen und Füllgrade des Trägerbildes.
+    private static void steganography(Bench bench) throws Exception {
+        if (!bench.enabled("steganography")) {
+            return;
+        }
+
+        byte[] secret = secret();
+
+        for (int size : CARRIER_SIZES) {
+            BufferedImage carrier = carrier(size);
+
+            for (double fill : FILL_RATIOS) {
+                // Das verschlüsselte Dokument belegt durch Padding und Flags etwas mehr Pixel als das Dokument selbst.
+                byte[] document = random((int) (size * size * fill) - 64, size);
+                BufferedImage hidden = Steganography.hide(document, "document.bin", carrier, secret, ProgressListener.NONE);
+                Map<String, Object> params = Map.of("resolution", size + "x" + size, "fill", fill);
+
+                bench.measure("steganography.hide", params,
+                        () -> Steganography.hide(document, "document.bin", carrier, secret, ProgressListener.NONE));
+                bench.measure("steganography.extract", params,
+                        () -> Steganography.extract(hidden, secret, ProgressListener.NONE));
+            }
+        }
+    }
+
+    private static void diffieHellman(Bench bench) throws Exception {
+        if (!bench.enabled("dh")) {
+            return;
+        }
+
+        byte[][] alice = DiffieHellman.alice();
+        byte[][] bob = DiffieHellman.bob(alice[1]);
+
+        bench.measure("dh.alice", Map.of(), DiffieHellman::alice);
+        bench.measure("dh.bob", Map.of(), () -> DiffieHellman.bob(alice[1]));
+        bench.measure("dh.aliceComplete", Map.of(), () -> DiffieHellman.aliceComplete(alice[0], bob[1]));
+    }
+
+    // Synthetisches Trägerbild mit zufälligen, aber reproduzierbaren Farbwerten.
+    private static BufferedImage carrier(int size) {
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(SEED + size);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                img.setRGB(x, y, random.nextInt() | 0xff000000);
+            }
+        }
+        return img;
+    }
+
+    private static byte[] secret() {
+        return random(256, 0);
+    }
+
+    private static byte[] random(int length, long salt) {
+        byte[] data = new byte[length];
+        new Random(SEED + salt).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,428 @@
+package main.benchmark;
+
+import main.cryptography.ExtractedDocument;
+import main.cryptography.ProgressListener;
+import main.cryptography.Steganography;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lasttest für Verstecken und Extrahieren unter Konkurrenz um CPU, Heap und Speicherbandbreite.
+ *
+ * Trägerbilder (verschiedene Auflösungen und Farbtypen) und Dokumente (komprimierbar und zufällig) werden synthetisch
+ * mit festem Seed erzeugt. Jeder Vorgang versteckt ein Dokument, schreibt das Bild als PNG in eine temporäre Datei,
+ * liest es wieder ein, extrahiert das Dokument und prüft das Ergebnis. Die Latenz von hide enthält das Codieren, die
+ * von extract das Decodieren des PNG-Bildes.
+ *
+ * Zwei Betriebsarten:
+ * - Feste Konkurrenz (--concurrency N): N Threads arbeiten ohne Pause (geschlossene Last).
+ * - Feste Rate (--rate R): R Vorgänge pro Sekunde werden gestartet, unabhängig davon, wie schnell sie fertig werden
+ *   (offene Last). Die Latenz wird ab dem geplanten Startzeitpunkt gemessen, sodass Rückstau in die Latenz eingeht.
+ *
+ * Berichtet werden Durchsatz, p50/p99/p999-Latenz, GC-Pausenzeit und maximaler Speicherbedarf. Unter Linux wird
+ * der Spitzenwert des Prozesses (VmHWM, einschließlich Aufwärmphase und Erzeugung der Trägerbilder) und getrennt davon
+ * der Spitzenwert der Messphase angegeben, für den VmRSS alle RSS_INTERVAL_MS gemessen wird. Sonst wird für beide der
+ * maximale Heap der Messphase angegeben.
+ *
+ * Aufruf: LoadTest [--concurrency N | --rate R] [--duration S] [--warmup S] [--resolutions 512,1024]
+ *                  [--fill 0.5] [--seed 42] [--json DATEI]
+ */
+public final class LoadTest {
+
+    private static final int[] COLOR_TYPES = {
+            BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY
+    };
+
+    // Abstand der Messungen von VmRSS während eines Laufs.
+    private static final long RSS_INTERVAL_MS = 50;
+
+    private final List<Workload> workloads = new ArrayList<>();
+    private final byte[] secret;
+
+    private LoadTest(int[] resolutions, double fill, long seed) {
+        Random random = new Random(seed);
+        secret = new byte[256];
+        random.nextBytes(secret);
+
+        for (int resolution : resolutions) {
+            for (int colorType : COLOR_TYPES) {
+                BufferedImage carrier = carrier(resolution, colorType, random);
+                int length = (int) (resolution * resolution * fill) - 64;
+                workloads.add(new Workload(resolution, colorType, true, carrier, compressible(length)));
+                workloads.add(new Workload(resolution, colorType, false, carrier, randomBytes(length, random)));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        double rate = 0;
+        int duration = 30;
+        int warmup = 5;
+        int[] resolutions = {512, 1024};
+        double fill = 0.5;
+        long seed = 42;
+        String json = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--concurrency": concurrency = Integer.parseInt(args[++i]); break;
+                case "--rate": rate = Double.parseDouble(args[++i]); break;
+                case "--duration": duration = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--resolutions": resolutions = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "--fill": fill = Double.parseDouble(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--json": json = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        LoadTest test = new LoadTest(resolutions, fill, seed);
+        System.out.println("Workloads: " + test.workloads.size() + ", mode: "
+                + (rate > 0 ? rate + " ops/s" : concurrency + " threads"));
+        for (Workload workload : test.workloads) {
+            System.out.println("  " + workload);
+        }
+
+        if (warmup > 0) {
+            test.run(concurrency, rate, warmup, seed);
+        }
+        Report report = test.run(concurrency, rate, duration, seed);
+
+        System.out.println(report);
+        if (json != null) {
+            Files.write(Paths.get(json), report.toJson().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // Führt eine Messung durch und liefert deren Ergebnis.
+    private Report run(int concurrency, double rate, int seconds, long seed) throws Exception {
+        System.gc();
+        long gcBefore = gcMillis();
+        resetPeaks();
+
+        Recorder recorder = new Recorder();
+        AtomicLong peakRss = new AtomicLong(rss());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> peakRss.accumulateAndGet(rss(), Math::max), RSS_INTERVAL_MS, RSS_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        try {
+            if (rate > 0) {
+                runAtRate(rate, start, end, recorder, concurrency);
+            } else {
+                runConcurrent(concurrency, end, recorder, seed);
+            }
+        } finally {
+            sampler.shutdownNow();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long measuredPeak = peakRss.get() > 0 ? peakRss.get() : peakHeap();
+        return new Report(concurrency, rate, elapsed, recorder, gcMillis() - gcBefore, peakMemory(), measuredPeak);
+    }
+
+    // Geschlossene Last: Jeder Thread startet den nächsten Vorgang, sobald der vorherige fertig ist.
+    private void runConcurrent(int concurrency, long end, Recorder recorder, long seed) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        List<Future<?>> threads = new ArrayList<>();
+        for (int t = 0; t < concurrency; t++) {
+            Random random = new Random(seed + t);
+            threads.add(executor.submit(() -> {
+                while (System.nanoTime() < end) {
+                    long begin = System.nanoTime();
+                    execute(workloads.get(random.nextInt(workloads.size())), begin, recorder);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> thread : threads) {
+            thread.get();
+        }
+        executor.shutdown();
+    }
+
+    // Offene Last: Vorgänge werden zu festen Zeitpunkten gestartet. Die Latenz zählt ab dem geplanten Zeitpunkt.
+    private void runAtRate(double rate, long start, long end, Recorder recorder, int concurrency) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        long interval = (long) (1e9 / rate);
+        AtomicLong sequence = new AtomicLong();
+
+        scheduler.scheduleAtFixedRate(() -> {
+            long n = sequence.getAndIncrement();
+            long intended = start + n * interval;
+            if (intended < end) {
+                workers.execute(() -> execute(workloads.get((int) (n % workloads.size())), intended, recorder));
+            }
+        }, 0, interval, TimeUnit.NANOSECONDS);
+
+        TimeUnit.NANOSECONDS.sleep(Math.max(0, end - System.nanoTime()));
+        scheduler.shutdownNow();
+        workers.shutdown();
+        workers.awaitTermination(10, TimeUnit.MINUTES);
+    }
+
+    // Ein Vorgang: Verstecken, PNG schreiben und wieder lesen, Extrahieren und Vergleich mit dem ursprünglichen
+    // Dokument.
+    private void execute(Workload workload, long begin, Recorder recorder) {
+        Path file = null;
+        try {
+            file = Files.createTempFile("cryptor-load", ".png");
+            BufferedImage hidden = Steganography.hide(workload.document, "document.bin", workload.carrier, secret, ProgressListener.NONE);
+            try {
+                if (!ImageIO.write(hidden, "png", file.toFile())) {
+                    throw new IOException("No PNG writer available.");
+                }
+            } finally {
+                Steganography.release(hidden);
+            }
+            long hiddenAt = System.nanoTime();
+
+            BufferedImage picture = ImageIO.read(file.toFile());
+            if (picture == null) {
+                throw new IOException("Could not read written picture.");
+            }
+            ExtractedDocument extracted = Steganography.extract(picture, secret, ProgressListener.NONE);
+            long done = System.nanoTime();
+
+            if (!Arrays.equals(extracted.getContent(), workload.document)) {
+                recorder.error();
+                return;
+            }
+            recorder.record(hiddenAt - begin, done - hiddenAt, done - begin, workload.document.length);
+        } catch (Exception e) {
+            recorder.error();
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // Die temporäre Datei bleibt liegen, die Messung ist davon nicht betroffen.
+                }
+            }
+        }
+    }
+
+    private static BufferedImage carrier(int size, int colorType, Random random) {
+        BufferedImage img = new BufferedImage(size, size, colorType);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                // Verlauf mit Rauschen, ähnlich einem Foto.
+                int base = (x + y) * 255 / (2 * size);
+                int noise = random.nextInt(32) - 16;
+                int v = Math.max(0, Math.min(255, base + noise));
+                img.setRGB(x, y, 0xff000000 | v << 16 | (255 - v) << 8 | (v ^ 0x55));
+            }
+        }
+        return img;
+    }
+
+    // Gut komprimierbares Dokument: wiederholter Text.
+    private static byte[] compressible(int length) {
+        byte[] pattern = "Lorem ipsum dolor sit amet, consectetur adipiscing elit. ".getBytes(StandardCharsets.US_ASCII);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = pattern[i % pattern.length];
+        }
+        return data;
+    }
+
+    private static byte[] randomBytes(int length, Random random) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static void resetPeaks() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    // Maximaler Speicherbedarf des Prozesses (VmHWM) in Bytes, ersatzweise die Summe der maximalen Heap-Bereiche.
+    private static long peakMemory() {
+        long peak = procStatus("VmHWM:");
+        return peak > 0 ? peak : peakHeap();
+    }
+
+    // Aktuell belegter Speicher des Prozesses (VmRSS) in Bytes, oder -1 ohne Linux.
+    private static long rss() {
+        return procStatus("VmRSS:");
+    }
+
+    // Liest einen Wert in kB aus /proc/self/status und liefert ihn in Bytes, oder -1, falls er nicht verfügbar ist.
+    private static long procStatus(String field) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith(field)) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Kein Linux, es wird der Heap herangezogen.
+        }
+        return -1;
+    }
+
+    // Summe der maximalen Heap-Bereiche seit dem letzten resetPeaks().
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static final class Workload {
+        private final int resolution;
+        private final int colorType;
+        private final boolean compressible;
+        private final BufferedImage carrier;
+        private final byte[] document;
+
+        private Workload(int resolution, int colorType, boolean compressible, BufferedImage carrier, byte[] document) {
+            this.resolution = resolution;
+            this.colorType = colorType;
+            this.compressible = compressible;
+            this.carrier = carrier;
+            this.document = document;
+        }
+
+        @Override
+        public String toString() {
+            String type;
+            switch (colorType) {
+                case BufferedImage.TYPE_INT_RGB: type = "INT_RGB"; break;
+                case BufferedImage.TYPE_INT_ARGB: type = "INT_ARGB"; break;
+                case BufferedImage.TYPE_3BYTE_BGR: type = "3BYTE_BGR"; break;
+                case BufferedImage.TYPE_BYTE_GRAY: type = "BYTE_GRAY"; break;
+                default: type = String.valueOf(colorType);
+            }
+            return resolution + "x" + resolution + " " + type + ", " + document.length + " bytes "
+                    + (compressible ? "text" : "random");
+        }
+    }
+
+    // Sammelt die Latenzen aller Vorgänge. Bei Lasttests im Sekundenbereich reicht eine einfache Liste.
+    private static final class Recorder {
+        private final List<long[]> samples = new ArrayList<>();
+        private long errors;
+        private long bytes;
+
+        private synchronized void record(long hide, long extract, long total, long documentBytes) {
+            samples.add(new long[]{hide, extract, total});
+            bytes += documentBytes;
+        }
+
+        private synchronized void error() {
+            errors++;
+        }
+    }
+
+    private static final class Report {
+        private final String mode;
+        private final double seconds;
+        private final long operations;
+        private final long errors;
+        private final double throughput;
+        private final double megabytesPerSecond;
+        private final long[][] percentiles;
+        private final long gcMillis;
+        private final long peakMemory;
+        private final long measuredPeakMemory;
+
+        private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+        private static final String[] NAMES = {"hide", "extract", "total"};
+
+        private Report(int concurrency, double rate, long elapsed, Recorder recorder, long gcMillis, long peakMemory,
+                       long measuredPeakMemory) {
+            this.mode = rate > 0 ? "rate=" + rate : "concurrency=" + concurrency;
+            this.seconds = elapsed / 1e9;
+            this.operations = recorder.samples.size();
+            this.errors = recorder.errors;
+            this.throughput = operations / seconds;
+            this.megabytesPerSecond = recorder.bytes / 1e6 / seconds;
+            this.gcMillis = gcMillis;
+            this.peakMemory = peakMemory;
+            this.measuredPeakMemory = measuredPeakMemory;
+
+            percentiles = new long[NAMES.length][QUANTILES.length];
+            for (int n = 0; n < NAMES.length; n++) {
+                long[] values = new long[recorder.samples.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = recorder.samples.get(i)[n];
+                }
+                Arrays.sort(values);
+                for (int q = 0; q < QUANTILES.length; q++) {
+                    percentiles[n][q] = values.length == 0 ? 0
+                            : values[Math.min(values.length - 1, (int) Math.ceil(QUANTILES[q] * values.length) - 1)];
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format(Locale.ROOT, "%s: %d ops in %.1f s (%.1f ops/s, %.2f MB/s), %d errors%n",
+                    mode, operations, seconds, throughput, megabytesPerSecond, errors));
+            for (int n = 0; n < NAMES.length; n++) {
+                report.append(String.format(Locale.ROOT, "  %-8s p50=%.2f ms  p99=%.2f ms  p999=%.2f ms%n", NAMES[n],
+                        percentiles[n][0] / 1e6, percentiles[n][1] / 1e6, percentiles[n][2] / 1e6));
+            }
+            report.append(String.format(Locale.ROOT, "  gc=%d ms (%.1f %%)  peak memory=%.1f MB (process), %.1f MB (measured)",
+                    gcMillis, gcMillis / 10.0 / seconds, peakMemory / 1e6, measuredPeakMemory / 1e6));
+            return report.toString();
+        }
+
+        private String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append(String.format(Locale.ROOT,
+                    "{\"mode\": \"%s\", \"seconds\": %.3f, \"operations\": %d, \"errors\": %d, \"opsPerSecond\": %.3f, "
+                            + "\"mbPerSecond\": %.3f, \"gcMillis\": %d, \"peakMemoryBytes\": %d, "
+                            + "\"measuredPeakMemoryBytes\": %d, \"latencyMillis\": {",
+                    mode, seconds, operations, errors, throughput, megabytesPerSecond, gcMillis, peakMemory,
+                    measuredPeakMemory));
+            for (int n = 0; n < NAMES.length; n++) {
+                json.append(n > 0 ? ", " : "").append(String.format(Locale.ROOT,
+                        "\"%s\": {\"p50\": %.3f, \"p99\": %.3f, \"p999\": %.3f}", NAMES[n],
+                        percentiles[n][0] / 1e6, percentiles[n][1] / 1e6, percentiles[n][2] / 1e6));
+            }
+            return json.append("}}\n").toString();
+        }
+    }
+}
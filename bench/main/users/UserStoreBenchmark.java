@@ -0,0 +1,137 @@
+package main.users;
+
+import main.benchmark.Bench;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks für das Speichern und Laden der Kontaktdatei.
+ *
+ * Liegt im Paket main.users, um Snapshot und Journal direkt messen zu können. Die Kontakte werden synthetisch mit
+ * festem Seed erzeugt, die Schlüssel haben die Länge echter Diffie-Hellman-Schlüssel.
+ *
+ * - users.snapshot: Schreiben der gesamten Kontaktdatei (Verdichtung).
+ * - users.load: Öffnen der Kontaktdatei und Aufbau des Registers, wie beim Programmstart.
+ * - users.save: Speichern eines geänderten Kontaktes im Journal bis zum fsync. Die Verdichtung ist dabei abgeschaltet,
+ *   damit sie nicht im Hintergrund mitgemessen wird. Ihre Kosten misst users.snapshot.
+ *
+ * Jede Messung erhält ein eigenes, leeres Verzeichnis, das danach samt Inhalt gelöscht wird. Das Journal wird nach der
+ * Messung geschlossen, sodass kein Schreib-Thread in eine spätere Messung hineinläuft.
+ */
+public final class UserStoreBenchmark {
+
+    private static final byte[] SECRET = new byte[32];
+
+    private UserStoreBenchmark() {
+    }
+
+    public static void run(Bench bench, int[] counts) throws Exception {
+        if (!bench.enabled("users")) {
+            return;
+        }
+
+        for (int count : counts) {
+            run(bench, count);
+        }
+    }
+
+    private static void run(Bench bench, int count) throws Exception {
+        List<User> users = users(count);
+        Map<String, Object> params = Map.of("contacts", count);
+
+        if (bench.enabled("users.snapshot")) {
+            Path dir = Files.createTempDirectory("cryptor-bench");
+            try {
+                Path snapshot = dir.resolve("users.cryptor");
+                bench.measure("users.snapshot", params, () -> {
+                    writeSnapshot(snapshot, users);
+                    return snapshot;
+                });
+            } finally {
+                delete(dir);
+            }
+        }
+
+        if (bench.enabled("users.load")) {
+            Path dir = Files.createTempDirectory("cryptor-bench");
+            try {
+                Path snapshot = dir.resolve("users.cryptor");
+                writeSnapshot(snapshot, users);
+                bench.measure("users.load", params, () -> {
+                    UserRegistry registry = new UserRegistry();
+                    for (User user : MappedUserStore.open(snapshot, SECRET)) {
+                        registry.put(user);
+                    }
+                    return registry;
+                });
+            } finally {
+                delete(dir);
+            }
+        }
+
+        if (bench.enabled("users.save")) {
+            Path dir = Files.createTempDirectory("cryptor-bench");
+            try {
+                Path snapshot = dir.resolve("users.cryptor");
+                writeSnapshot(snapshot, users);
+                UserJournal journal = new UserJournal(snapshot.toString(), SECRET, () -> users, users::size, Long.MAX_VALUE);
+                try {
+                    journal.load();
+
+                    Random random = new Random(count);
+                    bench.measure("users.save", params, () -> {
+                        User user = users.get(random.nextInt(users.size()));
+                        UserJournal.await(journal.put(user));
+                        return user;
+                    });
+                } finally {
+                    journal.close();
+                }
+            } finally {
+                delete(dir);
+            }
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private static void writeSnapshot(Path snapshot, List<User> users) throws IOException {
+        try (FileChannel out = FileChannel.open(snapshot, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedUserStore.write(out, users, users.size(), SECRET);
+        }
+    }
+
+    // Erzeugt Kontakte mit zufälligen Schlüsseln, jeder zweite mit abgeschlossenem Setup.
+    private static List<User> users(int count) {
+        Random random = new Random(42);
+        List<User> users = new ArrayList<>(count);
+        for (int id = 0; id < count; id++) {
+            byte[] privateKey = bytes(random, 300);
+            byte[] publicKey = bytes(random, 556);
+            byte[] sharedSecret = id % 2 == 0 ? bytes(random, 256) : new byte[0];
+            users.add(new User(id, "Contact " + id, privateKey, publicKey, sharedSecret, bytes(random, 32)));
+        }
+        return users;
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+}
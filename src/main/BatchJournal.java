@@ -0,0 +1,176 @@
+package main;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dauerhaftes Protokoll eines Batch-Laufs (siehe {@link CryptorBatch}).
+ *
+ * Für jeden abgeschlossenen Job wird eine Zeile angehängt und sofort auf die Platte geschrieben:
+ *
+ * Job-ID --> Größe --> Änderungszeit --> SHA-256 der Ausgabe --> Pfad der Ausgabe (durch Tabs getrennt)
+ *
+ * Nach einem Absturz gilt ein Job als erledigt, wenn seine Zeile vollständig ist und die Ausgabe noch mit Größe und
+ * Änderungszeit übereinstimmt. Dafür wird nur der Verzeichniseintrag gelesen, nicht die Datei selbst, sodass ein
+ * Neustart nur Aufwand für die verbleibenden Jobs verursacht. Der Hash dient der vollständigen Prüfung mit
+ * {@link #verify}. Eine beim Absturz unvollständig geschriebene letzte Zeile wird beim Öffnen abgeschnitten.
+ */
+final class BatchJournal implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    BatchJournal(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        byte[] content = Files.readAllBytes(file);
+        int end = content.length;
+        while (end > 0 && content[end - 1] != '\n') {
+            end--;
+        }
+
+        for (String line : new String(content, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            String[] fields = line.split("\t", 5);
+            if (fields.length != 5) {
+                continue;
+            }
+            try {
+                entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3], Paths.get(fields[4])));
+            } catch (RuntimeException e) {
+                System.out.println("Error while reading batch journal: " + e.toString());
+            }
+        }
+
+        // Unvollständige letzte Zeile entfernen, damit neue Einträge in einer eigenen Zeile beginnen.
+        channel.truncate(end);
+        channel.position(end);
+    }
+
+    /**
+     * Prüft, ob ein Job bereits abgeschlossen wurde und seine Ausgabe unverändert vorliegt.
+     *
+     * @return Pfad der Ausgabe oder null, falls der Job (erneut) ausgeführt werden muss.
+     */
+    synchronized Path completed(String jobId) {
+        Entry entry = entries.get(jobId);
+        if (entry == null) {
+            return null;
+        }
+
+        try {
+            if (Files.size(entry.output) == entry.size && Files.getLastModifiedTime(entry.output).toMillis() == entry.modified) {
+                return entry.output;
+            }
+        } catch (IOException e) {
+            // Ausgabe fehlt, der Job wird wiederholt.
+        }
+        return null;
+    }
+
+    /**
+     * Vermerkt einen abgeschlossenen Job. Kehrt erst zurück, wenn der Eintrag auf der Platte liegt.
+     *
+     * @param jobId Kennung des Jobs.
+     * @param output Vollständig geschriebene Ausgabe des Jobs.
+     */
+    void record(String jobId, Path output) throws IOException {
+        Entry entry = new Entry(Files.size(output), Files.getLastModifiedTime(output).toMillis(), sha256(output), output.toAbsolutePath());
+        byte[] line = (jobId + "\t" + entry.size + "\t" + entry.modified + "\t" + entry.hash + "\t" + entry.output + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+
+        synchronized (this) {
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            entries.put(jobId, entry);
+        }
+    }
+
+    /**
+     * Prüft den Inhalt aller vermerkten Ausgaben anhand ihres Hashes.
+     *
+     * @return Job-IDs, deren Ausgabe fehlt oder verändert wurde. Diese Einträge werden verworfen.
+     */
+    synchronized Map<String, Path> verify() {
+        Map<String, Path> broken = new HashMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            try {
+                if (!sha256(e.getValue().output).equals(e.getValue().hash)) {
+                    broken.put(e.getKey(), e.getValue().output);
+                }
+            } catch (IOException ex) {
+                broken.put(e.getKey(), e.getValue().output);
+            }
+        }
+        entries.keySet().removeAll(broken.keySet());
+        return broken;
+    }
+
+    // Anzahl vermerkter Jobs.
+    synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest = digest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    static String sha256(String text) {
+        return hex(digest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final long modified;
+        private final String hash;
+        private final Path output;
+
+        private Entry(long size, long modified, String hash, Path output) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.output = output;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package main;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache für decodierte Trägerbilder.
+ *
+ * Ein PNG-Bild wird pro Sitzung nur einmal in voller Auflösung decodiert und anschließend für alle Ver- und
+ * Entschlüsselungen wiederverwendet. Schlüssel ist der Pfad zusammen mit Änderungszeitpunkt und Dateigröße, sodass
+ * eine veränderte Datei automatisch neu decodiert wird.
+ *
+ * Bilder werden als TYPE_INT_ARGB gehalten, das Format, in dem die Steganografie arbeitet. Der Speicherbedarf ist damit
+ * genau 4 Bytes pro Pixel. Wird das Speicherbudget überschritten, werden die am längsten nicht verwendeten Bilder
+ * verworfen (LRU). Ein einzelnes Bild über dem Budget wird zurückgegeben, aber nicht gehalten.
+ *
+ * Gleichzeitige Anfragen für dasselbe Bild warten auf dieselbe Decodierung, anstatt es doppelt zu laden.
+ */
+final class CarrierCache {
+
+    private final long budget;
+    private final LinkedHashMap<Key, BufferedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<BufferedImage>> loading = new LinkedHashMap<>();
+    private long used;
+
+    /**
+     * @param budget Maximaler Speicherbedarf aller gehaltenen Bilder in Bytes.
+     */
+    CarrierCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Liefert das decodierte Bild einer Datei. Das Bild darf nicht verändert werden, da es geteilt wird.
+     *
+     * @param picture PNG-Bild als File.
+     * @return Decodiertes Bild im Format TYPE_INT_ARGB.
+     * @throws IOException Falls die Datei nicht gelesen oder nicht als Bild decodiert werden kann.
+     */
+    BufferedImage get(File picture) throws IOException {
+        Key key = new Key(picture);
+        CompletableFuture<BufferedImage> load;
+        boolean owner = false;
+
+        synchronized (this) {
+            BufferedImage image = images.get(key);
+            if (image != null) {
+                return image;
+            }
+
+            load = loading.get(key);
+            if (load == null) {
+                load = new CompletableFuture<>();
+                loading.put(key, load);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            try {
+                BufferedImage image = decode(picture);
+                synchronized (this) {
+                    loading.remove(key);
+                    store(key, image);
+                }
+                load.complete(image);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    loading.remove(key);
+                }
+                load.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading picture.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error while loading picture.", e.getCause());
+        }
+    }
+
+    // Verwirft alle gehaltenen Bilder.
+    synchronized void clear() {
+        images.clear();
+        used = 0;
+    }
+
+    // Nimmt ein Bild auf und verdrängt so lange die ältesten Bilder, bis das Budget wieder eingehalten wird.
+    private void store(Key key, BufferedImage image) {
+        long size = sizeOf(image);
+        if (size > budget) {
+            return;
+        }
+
+        BufferedImage old = images.put(key, image);
+        if (old != null) {
+            used -= sizeOf(old);
+        }
+        used += size;
+
+        Iterator<BufferedImage> eldest = images.values().iterator();
+        while (used > budget && eldest.hasNext()) {
+            BufferedImage evicted = eldest.next();
+            if (evicted != image) {
+                used -= sizeOf(evicted);
+                eldest.remove();
+            }
+        }
+    }
+
+    // Decodiert die Datei und wandelt sie bei Bedarf in TYPE_INT_ARGB um.
+    private static BufferedImage decode(File picture) throws IOException {
+        BufferedImage tmp = ImageIO.read(picture);
+        if (tmp == null) {
+            throw new IOException("Unsupported picture format: " + picture.getName());
+        }
+
+        if (tmp.getType() == BufferedImage.TYPE_INT_ARGB) {
+            return tmp;
+        }
+
+        // Die Pixel werden zeilenweise unverändert übernommen. Ein Zeichnen mit Graphics2D würde teiltransparente Pixel
+        // mit dem Hintergrund verrechnen und so die niedrigsten Bits verändern, in denen die versteckten Daten liegen.
+        int width = tmp.getWidth();
+        BufferedImage img = new BufferedImage(width, tmp.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        int[] row = new int[width];
+        for (int y = 0; y < tmp.getHeight(); y++) {
+            tmp.getRGB(0, y, width, 1, row, 0, width);
+            img.setRGB(0, y, width, 1, row, 0, width);
+        }
+
+        return img;
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+
+    // Identifiziert eine Datei in einem bestimmten Zustand.
+    static final class Key {
+        private final String path;
+        private final long lastModified;
+        private final long length;
+
+        Key(File file) {
+            this.path = file.getAbsolutePath();
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return path.equals(other.path) && lastModified == other.lastModified && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, lastModified, length);
+        }
+    }
+}
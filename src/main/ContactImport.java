@@ -0,0 +1,160 @@
+package main;
+
+import main.users.ImportResult;
+import main.users.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Importiert viele Kontakte auf einmal aus einem Verzeichnis oder ZIP-Archiv mit ".pubKey"-Dateien, ohne Oberfläche.
+ *
+ * Der Name eines Kontaktes ist der Dateiname ohne Endung (ein Präfix "publicKey_for_" wird entfernt). Abweichende
+ * Namen können in einer Datei "names.txt" im Verzeichnis bzw. Archiv angegeben werden, eine Zeile pro Kontakt:
+ *
+ * DATEINAME.pubKey  NAME  (durch Tab getrennt)
+ *
+ * Die eigenen Public-Keys der neuen Kontakte werden in das Ausgabeverzeichnis bzw. -archiv geschrieben, jeweils als
+ * "publicKey_for_NAME.pubKey" wie beim Anlegen über die Oberfläche. Diese Dateien gehen an die jeweilige Person zurück.
+ *
+ * Aufruf: ContactImport BUNDLE(.zip) AUSGABE(.zip)
+ */
+public final class ContactImport {
+
+    private static final String KEY_SUFFIX = ".pubKey";
+    private static final String KEY_PREFIX = "publicKey_for_";
+    private static final String NAMES_FILE = "names.txt";
+
+    private ContactImport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: ContactImport BUNDLE[.zip] OUTPUT[.zip]");
+            return;
+        }
+
+        new File(System.getProperty("user.home") + "/cryptor").mkdirs();
+        Startup.calibrate();
+
+        long start = System.nanoTime();
+        Map<String, byte[]> files = read(Paths.get(args[0]));
+        Map<String, String> names = names(files.remove(NAMES_FILE));
+
+        List<String> contactNames = new ArrayList<>();
+        List<byte[]> publicKeys = new ArrayList<>();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            if (file.getKey().endsWith(KEY_SUFFIX)) {
+                contactNames.add(names.getOrDefault(file.getKey(), defaultName(file.getKey())));
+                publicKeys.add(file.getValue());
+            }
+        }
+
+        ImportResult result = Startup.openUsers().importUsers(contactNames, publicKeys);
+        for (ImportResult.Failure failure : result.getFailures()) {
+            System.out.println("Error while importing public key of " + failure.getName() + ": " + failure.getCause().toString());
+        }
+
+        List<User> created = result.getCreated();
+        write(Paths.get(args[1]), created);
+
+        System.out.println(String.format(Locale.ROOT, "%d contacts imported, %d skipped, %d failed in %.1f s",
+                created.size(), publicKeys.size() - created.size() - result.getFailures().size(),
+                result.getFailures().size(), (System.nanoTime() - start) / 1e9));
+    }
+
+    // Liest alle Dateien eines Verzeichnisses bzw. ZIP-Archivs, Schlüssel ist der Dateiname ohne Pfad.
+    private static Map<String, byte[]> read(Path bundle) throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+
+        if (Files.isDirectory(bundle)) {
+            try (Stream<Path> entries = Files.list(bundle)) {
+                for (Path file : (Iterable<Path>) entries.sorted()::iterator) {
+                    if (Files.isRegularFile(file)) {
+                        files.put(file.getFileName().toString(), Files.readAllBytes(file));
+                    }
+                }
+            }
+            return files;
+        }
+
+        try (ZipFile zip = new ZipFile(bundle.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    files.put(Paths.get(entry.getName()).getFileName().toString(), zip.getInputStream(entry).readAllBytes());
+                }
+            }
+        }
+        return files;
+    }
+
+    private static Map<String, String> names(byte[] namesFile) {
+        Map<String, String> names = new HashMap<>();
+        if (namesFile == null) {
+            return names;
+        }
+
+        for (String line : new String(namesFile, StandardCharsets.UTF_8).split("\r?\n")) {
+            String[] fields = line.split("\t", 2);
+            if (fields.length == 2 && !fields[1].trim().isEmpty()) {
+                names.put(fields[0].trim(), fields[1].trim());
+            }
+        }
+        return names;
+    }
+
+    private static String defaultName(String fileName) {
+        String name = fileName.substring(0, fileName.length() - KEY_SUFFIX.length());
+        return name.startsWith(KEY_PREFIX) ? name.substring(KEY_PREFIX.length()) : name;
+    }
+
+    // Schreibt die eigenen Public-Keys der neuen Kontakte in ein Verzeichnis bzw. ZIP-Archiv.
+    private static void write(Path output, List<User> users) throws IOException {
+        Set<String> used = new HashSet<>();
+        boolean zip = output.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip");
+
+        if (!zip) {
+            Files.createDirectories(output);
+        }
+
+        try (ZipOutputStream out = zip ? new ZipOutputStream(Files.newOutputStream(output)) : null) {
+            for (User user : users) {
+                String fileName = KEY_PREFIX + user.getName().replaceAll("\\s+","") + KEY_SUFFIX;
+                if (!used.add(fileName)) {
+                    fileName = KEY_PREFIX + user.getName().replaceAll("\\s+","") + "_" + user.getId() + KEY_SUFFIX;
+                    used.add(fileName);
+                }
+
+                if (out != null) {
+                    out.putNextEntry(new ZipEntry(fileName));
+                    out.write(user.getMyPublicKey());
+                    out.closeEntry();
+                } else {
+                    try (OutputStream os = Files.newOutputStream(output.resolve(fileName))) {
+                        os.write(user.getMyPublicKey());
+                    }
+                }
+            }
+        }
+    }
+}
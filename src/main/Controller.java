@@ -1,29 +1,38 @@
 package main;
 
+import javafx.application.Platform;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.util.StringConverter;
+import main.cryptography.CryptoException;
+import main.cryptography.ExtractedDocument;
+import main.cryptography.HidePipeline;
+import main.cryptography.MemoryScheduler;
+import main.cryptography.ProgressListener;
 import main.cryptography.Steganography;
 import main.users.User;
 import main.users.UserAdministration;
 
-import javax.imageio.ImageIO;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.InvalidAlgorithmParameterException;
@@ -31,7 +40,12 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.text.DecimalFormat;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * JavaFx Controller Klasse als Schnittstelle zwischen GUI und Programmlogik.
@@ -41,10 +55,23 @@ public class Controller {
 
     private UserAdministration userAdministration;
 
+    // Decodierte Trägerbilder, damit jedes Bild pro Sitzung nur einmal decodiert wird.
+    private final CarrierCache carriers = new CarrierCache(Runtime.getRuntime().maxMemory() / 4);
+
+    // Verkleinerte Vorschaubilder in der Größe der ImageViews.
+    private final PreviewLoader previews = new PreviewLoader(393, 194, 32);
+
+    // Stufen zum Verstecken: Lesen, AES, Einbetten und PNG-Schreiben laufen überlappend in eigenen Threads.
+    private final HidePipeline pipeline = new HidePipeline(4);
+
+    // Hintergrund-Threads für Ver- und Entschlüsselungen. Jobs laufen nur, wenn ihr geschätzter Speicherbedarf neben
+    // dem Bild-Cache in den Heap passt, weitere Jobs warten.
+    private final MemoryScheduler jobScheduler = new MemoryScheduler(Runtime.getRuntime().maxMemory() / 2,
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+
     // Encrypt
     private File document;
     private File picture;
-    private BufferedImage pictureBuffered;
     @FXML Label label_documentFileSize;
     @FXML Label label_documentName;
     @FXML Label label_pictureFileSize;
@@ -52,6 +79,9 @@ public class Controller {
     @FXML Label label_pictureResolutionEncryption;
     @FXML ImageView imageView_encrypt;
     @FXML ChoiceBox<User> choiseBox_encryptionUser;
+    @FXML CheckBox checkBox_broadcastEncryption;
+    @FXML ListView<User> listView_broadcastRecipients;
+    @FXML CheckBox checkBox_sparseEncryption;
     @FXML Button button_encrypt;
 
     // Decrypt
@@ -63,6 +93,9 @@ public class Controller {
     @FXML ChoiceBox<User> choiseBox_decryptionUser;
     @FXML Button button_decrypt;
 
+    // Jobs
+    @FXML VBox vbox_jobs;
+
     // Contacts
     public Button button_exportPublicKey;
     public Button button_importPublicKey;
@@ -82,8 +115,71 @@ public class Controller {
     public TextField textField_UserName;
     @FXML Label label_publicKey;
 
+    // Fehler beim Laden der Kontakte. Die Kontakte stehen dann in dieser Sitzung nicht zur Verfügung.
+    private Throwable contactsError;
+
+    // Die Kontakte werden im Hintergrund geladen (siehe Startup). Abhängige Elemente werden danach befüllt.
     public Controller() {
-        userAdministration = new UserAdministration();
+        Startup.userAdministration().whenComplete((loaded, e) -> Platform.runLater(() -> {
+            if (e != null) {
+                contactsFailed(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                userAdministration = loaded;
+                contactsLoaded();
+            }
+        }));
+    }
+
+    // Wird nach dem Laden der FXML-Datei aufgerufen. Bis die Kontakte geladen sind, ist keine Auswahl möglich.
+    @FXML
+    public void initialize() {
+        choiseBox_encryptionUser.setDisable(true);
+        choiseBox_decryptionUser.setDisable(true);
+
+        // Beim Verschlüsseln für mehrere Empfänger werden diese in einer Liste mit Mehrfachauswahl gewählt.
+        listView_broadcastRecipients.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        listView_broadcastRecipients.setCellFactory(list -> new ListCell<User>() {
+            @Override
+            protected void updateItem(User user, boolean empty) {
+                super.updateItem(user, empty);
+                setText(empty || user == null ? null : user.getName());
+            }
+        });
+        listView_broadcastRecipients.getSelectionModel().getSelectedItems().addListener((ListChangeListener<User>) change -> updateEncryptButton());
+    }
+
+    // Befüllt alle Elemente, die von den Kontakten abhängen.
+    private void contactsLoaded() {
+        broadcastEncryptionState();
+        choiseBox_decryptionUser.setDisable(false);
+
+        loadEncryptionUser();
+        loadDecryptionUser();
+        loadUsers();
+    }
+
+    // Zeigt an, dass die Kontaktdatei nicht geladen werden konnte. Die Auswahl der Kontakte bleibt gesperrt.
+    private void contactsFailed(Throwable e) {
+        System.out.println("Error while loading contacts: " + e.toString());
+        contactsError = e;
+
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setContentText("Contacts could not be loaded: " + e.getMessage());
+        alert.showAndWait();
+    }
+
+    // Prüft, ob die Kontakte bereits geladen sind, und weist andernfalls den Anwender darauf hin.
+    private boolean contactsReady() {
+        if (userAdministration == null) {
+            Alert alert = new Alert(contactsError != null ? Alert.AlertType.ERROR : Alert.AlertType.INFORMATION);
+            alert.setContentText(contactsError != null
+                    ? "Contacts could not be loaded: " + contactsError.getMessage()
+                    : "Contacts are still being loaded. Please try again in a moment.");
+            alert.showAndWait();
+            return false;
+        }
+
+        return true;
     }
 
     // Hilfsfunktion, um die Größe einer Datei mit passender Einheit zu berechnen.
@@ -119,7 +215,10 @@ public class Controller {
     // Sichtbar -> Unsichtbar
     // Unsichtbar -> Sichtbar
     private void updateEncryptButton() {
-        if (document == null || picture == null || choiseBox_encryptionUser.getSelectionModel().isEmpty()) {
+        boolean noRecipient = checkBox_broadcastEncryption.isSelected()
+                ? listView_broadcastRecipients.getSelectionModel().isEmpty()
+                : choiseBox_encryptionUser.getSelectionModel().isEmpty();
+        if (document == null || picture == null || noRecipient) {
             button_encrypt.setDisable(true);
         } else {
             button_encrypt.setDisable(false);
@@ -149,9 +248,9 @@ public class Controller {
             label_pictureFileSize.setText("Size: " + getFileSizeString(picture.length()));
             label_pictureName.setText("File: " + picture.getName());
 
-            pictureBuffered = ImageIO.read(picture);
-            int imgWidth = pictureBuffered.getWidth();
-            int imgHeight = pictureBuffered.getHeight();
+            Dimension size = PreviewLoader.size(picture);
+            int imgWidth = size.width;
+            int imgHeight = size.height;
             label_pictureResolutionEncryption.setText(
                     "Information:\n\n"
                     + "Resolution of picture:\n"
@@ -160,8 +259,7 @@ public class Controller {
                     + getFileSizeString(imgWidth*imgHeight - 10)
             );
 
-            Image image = new Image(picture.toURI().toString());
-            imageView_encrypt.setImage(image);
+            showPreview(imageView_encrypt, picture);
 
             updateEncryptButton();
         }
@@ -170,10 +268,14 @@ public class Controller {
     // Lädt alle Kontakte die ein Shared-Secret generiert haben, da nur diese zur Ver- und Entschlüsselung zugelassen
     // sind. Diese werden in einer ChoiceBox zur Auswahl angezeigt.
     public void loadEncryptionUser() {
-        ObservableList<User> userList = FXCollections.observableArrayList(userAdministration.getUsers()
-                .stream().filter(user -> user.getSharedSecret().length > 1).collect(Collectors.toList()));
+        if (userAdministration == null) {
+            return;
+        }
+
+        ObservableList<User> userList = FXCollections.observableArrayList(userAdministration.getCompletedUsers());
 
         choiseBox_encryptionUser.setItems(userList);
+        listView_broadcastRecipients.setItems(userList);
         choiseBox_encryptionUser.setConverter(new StringConverter<User>() {
             @Override
             public String toString(User user) {
@@ -189,17 +291,50 @@ public class Controller {
         choiseBox_encryptionUser.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> updateEncryptButton());
     }
 
+    // Schaltet zwischen einem einzelnen Empfänger und dem Broadcast an mehrere Kontakte um. Die Liste der Empfänger
+    // wird anstelle der Bildinformationen angezeigt.
+    public void broadcastEncryptionState() {
+        boolean broadcast = checkBox_broadcastEncryption.isSelected();
+        choiseBox_encryptionUser.setDisable(userAdministration == null || broadcast);
+        listView_broadcastRecipients.setDisable(userAdministration == null);
+        listView_broadcastRecipients.setVisible(broadcast);
+        label_pictureResolutionEncryption.setVisible(!broadcast);
+        updateEncryptButton();
+    }
+
     // Verschlüsseln und Verstecken der Datei.
     public void encrypt() throws Exception {
-        if (document == null || picture == null || choiseBox_encryptionUser.getSelectionModel().isEmpty()) {
+        boolean broadcast = checkBox_broadcastEncryption.isSelected();
+        boolean sparse = checkBox_sparseEncryption.isSelected();
+        if (document == null || picture == null || (!broadcast && choiseBox_encryptionUser.getSelectionModel().isEmpty())) {
             return;
         }
 
-        User user = choiseBox_encryptionUser.getSelectionModel().getSelectedItem();
+        // Beim Broadcast wird das Dokument einmal verschlüsselt und für alle ausgewählten Kontakte freigegeben.
+        List<byte[]> sharedSecrets = new ArrayList<>();
+        if (broadcast) {
+            if (!contactsReady()) {
+                return;
+            }
+
+            for (User user : listView_broadcastRecipients.getSelectionModel().getSelectedItems()) {
+                sharedSecrets.add(user.getSharedSecret());
+            }
 
-        pictureBuffered = ImageIO.read(picture);
-        int numberOfPixels = pictureBuffered.getHeight()*pictureBuffered.getWidth();
+            if (sharedSecrets.isEmpty()) {
+                Alert alert = new Alert(Alert.AlertType.ERROR);
+                alert.setContentText("Select at least one contact.");
+                alert.showAndWait();
+                return;
+            }
+        }
+
+        Dimension size = PreviewLoader.size(picture);
+        int numberOfPixels = size.height*size.width;
         long fileSize = document.length();
+        if (broadcast) {
+            fileSize += Steganography.broadcastHeaderSize(sharedSecrets.size());
+        }
 
         if (fileSize > numberOfPixels - 10) {
             Alert alert = new Alert(Alert.AlertType.ERROR);
@@ -208,24 +343,47 @@ public class Controller {
             return;
         }
 
-        BufferedImage encryptedPicture = Steganography.hide(document, picture, user.getSharedSecret());
+        // Der Speicherort wird vorab abgefragt, sodass der Job anschließend vollständig im Hintergrund läuft.
+        FileChooser fc = new FileChooser();
+        fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("PNG (.png)", "*.png"));
+        fc.setTitle("Save encrypted picture as..");
+        fc.setInitialFileName(picture.getName().substring(0, picture.getName().lastIndexOf(".")) + "_encrypted");
+        File file = fc.showSaveDialog(new Stage());
 
-        if (encryptedPicture != null) {
-            FileChooser fc = new FileChooser();
-            fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("PNG (.png)", "*.png"));
-            fc.setTitle("Save encrypted picture as..");
-            fc.setInitialFileName(picture.getName().substring(0, picture.getName().lastIndexOf(".")) + "_encrypted");
-            File file = fc.showSaveDialog(new Stage());
+        if (file == null) {
+            return;
+        }
+
+        // Die Auswahl wird für den Job festgehalten, damit weitere Jobs unabhängig davon vorbereitet werden können.
+        File jobDocument = document;
+        File jobPicture = picture;
+        byte[] sharedSecret = broadcast ? null : choiseBox_encryptionUser.getSelectionModel().getSelectedItem().getSharedSecret();
+
+        SteganographyTask<Void> task = new SteganographyTask<Void>(ProgressListener.Stage.READ,
+                ProgressListener.Stage.ENCRYPT, ProgressListener.Stage.EMBED, ProgressListener.Stage.WRITE) {
+            @Override
+            protected Void call() throws Exception {
+                // Das Bild wird erst in der Lese-Stufe in voller Auflösung decodiert, sofern es nicht bereits im Cache
+                // liegt. Lesen, Verschlüsseln, Einbetten und Schreiben überlappen sich, auch mit anderen Jobs. Im
+                // sparsamen Modus werden nur die für das Dokument benötigten Pixel verändert.
+                Callable<BufferedImage> carrier = () -> carriers.get(jobPicture);
+                CompletableFuture<File> result = broadcast
+                        ? pipeline.submitBroadcast(jobDocument, carrier, sharedSecrets, sparse, file, this)
+                        : pipeline.submit(jobDocument, carrier, sharedSecret, sparse, file, this);
 
-            if (file != null) {
                 try {
-                    ImageIO.write(encryptedPicture, "png", file);
-                } catch (IOException e) {
-                    System.out.println("Error while writing encoded image to file: " + e.toString());
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
                 }
+                return null;
             }
-        }
+        };
 
+        runJob("Encrypt " + jobDocument.getName(), MemoryScheduler.hideFootprint(jobPicture, fileSize), task);
         updateEncryptButton();
     }
 
@@ -260,13 +418,12 @@ public class Controller {
             label_encryptedPictureFileSize.setText("Size: " + getFileSizeString(encryptedPicture.length()));
             label_encryptedPictureName.setText("File: " + encryptedPicture.getName());
 
-            pictureBuffered = ImageIO.read(encryptedPicture);
-            int imgWidth = pictureBuffered.getWidth();
-            int imgHeight = pictureBuffered.getHeight();
+            Dimension size = PreviewLoader.size(encryptedPicture);
+            int imgWidth = size.width;
+            int imgHeight = size.height;
             label_pictureResolutionDecryption.setText("Information:\n\nResolution of picture:\n" + imgWidth + " x " + imgHeight + " (" + imgWidth*imgHeight + " Pixels)");
 
-            Image image = new Image(encryptedPicture.toURI().toString());
-            imageView_decrypt.setImage(image);
+            showPreview(imageView_decrypt, encryptedPicture);
 
             updateDecryptButton();
         }
@@ -275,8 +432,11 @@ public class Controller {
     // Lädt alle Kontakte die ein Shared-Secret generiert haben.
     // Diese werden in einer ChoiceBox zur Auswahl angezeigt.
     public void loadDecryptionUser() {
-        ObservableList<User> userList = FXCollections.observableArrayList(userAdministration.getUsers()
-                .stream().filter(user -> user.getSharedSecret().length > 1).collect(Collectors.toList()));
+        if (userAdministration == null) {
+            return;
+        }
+
+        ObservableList<User> userList = FXCollections.observableArrayList(userAdministration.getCompletedUsers());
 
         choiseBox_decryptionUser.setItems(userList);
         choiseBox_decryptionUser.setConverter(new StringConverter<User>() {
@@ -301,47 +461,131 @@ public class Controller {
         }
 
         User user = choiseBox_decryptionUser.getSelectionModel().getSelectedItem();
+        File jobPicture = encryptedPicture;
 
-        byte[][] result = Steganography.extract(encryptedPicture, user.getSharedSecret());
+        SteganographyTask<ExtractedDocument> task = new SteganographyTask<ExtractedDocument>(ProgressListener.Stage.READ,
+                ProgressListener.Stage.EXTRACT, ProgressListener.Stage.DECRYPT) {
+            @Override
+            protected ExtractedDocument call() throws Exception {
+                // Das Bild wird erst hier in voller Auflösung decodiert, sofern es nicht bereits im Cache liegt.
+                progress(ProgressListener.Stage.READ, 0, 1);
+                BufferedImage carrier = carriers.get(jobPicture);
+                progress(ProgressListener.Stage.READ, 1, 1);
+
+                // Ob das Bild für mehrere Empfänger verschlüsselt wurde, wird an der Empfänger-Tabelle erkannt.
+                return Steganography.extractAny(carrier, user.getSharedSecret(), this);
+            }
+        };
+        task.setOnSucceeded(event -> saveDecryptedDocument(task.getValue()));
 
-        String fileName = null;
-        if (result != null && result[1] != null) {
-            fileName = new String(result[1], StandardCharsets.UTF_8);
-        }
+        runJob("Decrypt " + jobPicture.getName(), MemoryScheduler.extractFootprint(jobPicture), task);
+        updateDecryptButton();
+    }
+
+    // Zeigt das Vorschaubild an, sobald es im Hintergrund geladen wurde. Wurde inzwischen ein anderes Bild
+    // ausgewählt, wird die veraltete Vorschau verworfen.
+    private void showPreview(ImageView imageView, File file) {
+        imageView.setImage(null);
+        imageView.setUserData(file);
+
+        previews.load(file).whenComplete((image, e) -> Platform.runLater(() -> {
+            if (e != null) {
+                System.out.println("Error while loading preview: " + e.toString());
+            } else if (file.equals(imageView.getUserData())) {
+                imageView.setImage(image);
+            }
+        }));
+    }
+
+    // Speichert das extrahierte Dokument unter einem vom Anwender gewählten Namen.
+    private void saveDecryptedDocument(ExtractedDocument result) {
+        String fileName = result.getFileName();
 
         String[] parts = new String[0];
         if (fileName != null) {
             parts = fileName.split("\\.");
         }
 
-        if (result != null && result[1] != null) {
-            FileChooser fc = new FileChooser();
+        FileChooser fc = new FileChooser();
 
-            if (parts.length > 1) {
-                FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter("Original Format (*." + parts[parts.length-1] + ")", "*." + parts[parts.length-1]);
-                fc.getExtensionFilters().add(extFilter);
-            } else {
-                FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter("Original Format (not extension)", "*.");
-                fc.getExtensionFilters().add(extFilter);
-            }
+        if (parts.length > 1) {
+            FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter("Original Format (*." + parts[parts.length-1] + ")", "*." + parts[parts.length-1]);
+            fc.getExtensionFilters().add(extFilter);
+        } else {
+            FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter("Original Format (not extension)", "*.");
+            fc.getExtensionFilters().add(extFilter);
+        }
 
-            fc.setInitialFileName(fileName);
-            fc.setTitle("Save decrypted file as..");
+        fc.setInitialFileName(fileName != null ? fileName : "decrypted");
+        fc.setTitle("Save decrypted file as..");
 
-            File file = fc.showSaveDialog(new Stage());
+        File file = fc.showSaveDialog(new Stage());
 
-            if (file != null) {
-                try (FileOutputStream os = new FileOutputStream(file.getPath())) {
-                    if (result[0] != null) {
-                        os.write(result[0]);
-                    }
-                } catch (IOException e) {
-                    System.out.println("Error while writing decrypted document to file: " + e.toString());
-                }
+        if (file != null) {
+            try (FileOutputStream os = new FileOutputStream(file.getPath())) {
+                os.write(result.getContent());
+            } catch (IOException e) {
+                System.out.println("Error while writing decrypted document to file: " + e.toString());
             }
         }
+    }
 
-        updateDecryptButton();
+    /**
+     * Jobs
+     *
+     * Verschlüsselungen und Entschlüsselungen laufen als Jobs im Hintergrund. Mehrere Jobs können gleichzeitig laufen
+     * bzw. warten. Im Tab Jobs werden deren Fortschritt angezeigt und ein Abbruch ermöglicht.
+     */
+
+    // Startet einen Job im Hintergrund und zeigt ihn mit Fortschrittsbalken und Abbrechen-Button an.
+    private void runJob(String title, long footprint, SteganographyTask<?> task) {
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.setPrefWidth(250);
+        progressBar.progressProperty().bind(task.progressProperty());
+
+        Label status = new Label("Queued");
+        status.textProperty().bind(task.messageProperty());
+
+        Button button = new Button("Cancel");
+        HBox row = new HBox(10, new Label(title), progressBar, status, button);
+
+        // Nach Abschluss eines Jobs entfernt der Button die Zeile, vorher bricht er den Job ab.
+        button.setOnAction(event -> {
+            if (task.isDone()) {
+                vbox_jobs.getChildren().remove(row);
+            } else {
+                task.cancel();
+            }
+        });
+
+        EventHandler<WorkerStateEvent> onSucceeded = task.getOnSucceeded();
+        task.setOnSucceeded(event -> {
+            finishJob(status, button, "Done");
+            if (onSucceeded != null) {
+                onSucceeded.handle(event);
+            }
+        });
+        task.setOnCancelled(event -> finishJob(status, button, "Cancelled"));
+        task.setOnFailed(event -> {
+            finishJob(status, button, "Failed");
+
+            Throwable e = task.getException();
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setContentText(e instanceof CryptoException ? e.getMessage() : title + " failed: " + e.toString());
+            alert.showAndWait();
+        });
+
+        vbox_jobs.getChildren().add(row);
+        jobScheduler.submit(footprint, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    private static void finishJob(Label status, Button button, String text) {
+        status.textProperty().unbind();
+        status.setText(text);
+        button.setText("Remove");
     }
 
     /**
@@ -370,6 +614,10 @@ public class Controller {
 
     // Lädt alle Kontakte und zeigt diese in einer Tabelle an.
     private void loadUsers() {
+        if (userAdministration == null) {
+            return;
+        }
+
         tableView_users.getItems().clear();
 
         ObservableList<User> userList = FXCollections.observableArrayList(userAdministration.getUsers());
@@ -396,7 +644,7 @@ public class Controller {
         label_exportPubKey.setVisible(true);
         button_exportPublicKey.setVisible(true);
 
-        if (selectedUser.getSharedSecret().length == 1) {
+        if (!selectedUser.isSetupCompleted()) {
             label_setupStatus.setTextFill(Color.RED);
             label_setupStatus.setText("Setup not completed!");
             label_setupStatus.setVisible(true);
@@ -451,9 +699,28 @@ public class Controller {
 
         publicKeyFile = fc.showOpenDialog(new Stage());
 
-        if (publicKeyFile != null) {
-            byte[] publicKeyEnc = Files.readAllBytes(Paths.get(publicKeyFile.getPath()));
-            userAdministration.finishSetup(selectedUser.getId(), publicKeyEnc);
+        if (publicKeyFile == null) {
+            return;
+        }
+
+        byte[] publicKeyEnc = Files.readAllBytes(Paths.get(publicKeyFile.getPath()));
+
+        // Der Public-Key darf weder der eigene noch der eines anderen Kontaktes sein.
+        User owner = userAdministration.findUserByPublicKey(publicKeyEnc);
+        if (owner != null) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setContentText("This public key belongs to contact '" + owner.getName() + "' and can't be used for '" + selectedUser.getName() + "'.");
+            alert.showAndWait();
+            return;
+        }
+
+        // Wurde der Kontakt in der Zwischenzeit gelöscht oder verändert, wurde das Shared-Secret nicht gespeichert.
+        if (!userAdministration.finishSetup(selectedUser.getId(), publicKeyEnc)) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setContentText("Contact '" + selectedUser.getName() + "' was deleted or changed in the meantime. The key-exchange was not saved, please try again.");
+            alert.showAndWait();
+            resetTabContacts();
+            return;
         }
 
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
@@ -518,6 +785,10 @@ public class Controller {
     // Es wird unterschieden zwischen einem Kontakt der den Key Exchange einleitet und einem Kontakt der ihn empfängt.
     // (siehe DiffieHellman.class)
     public void addUser() throws InvalidKeyException, NoSuchAlgorithmException, InvalidKeySpecException, InvalidAlgorithmParameterException, IOException {
+        if (!contactsReady()) {
+            return;
+        }
+
         if (textField_UserName.getText().isEmpty()) {
             Alert alert = new Alert(Alert.AlertType.ERROR);
             alert.setContentText("Please enter a name.");
@@ -550,6 +821,15 @@ public class Controller {
             }
         } else if (checkBox_publicKey.isSelected() && !textField_UserName.getText().isEmpty() && publicKeyFile != null) {
             byte[] publicKey = Files.readAllBytes(Paths.get(publicKeyFile.getPath()));
+
+            User owner = userAdministration.findUserByPublicKey(publicKey);
+            if (owner != null) {
+                Alert alert = new Alert(Alert.AlertType.ERROR);
+                alert.setContentText("This public key has already been imported for contact '" + owner.getName() + "'.");
+                alert.showAndWait();
+                return;
+            }
+
             User user = userAdministration.createUser(textField_UserName.getText(), publicKey);
 
             Alert alert = new Alert(Alert.AlertType.INFORMATION);
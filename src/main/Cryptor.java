@@ -5,6 +5,7 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import main.metrics.Metrics;
 
 import java.io.File;
 import java.util.logging.FileHandler;
@@ -13,10 +14,15 @@ public class Cryptor extends Application {
 
     private final String CRYPTOR_HOME = System.getProperty("user.home") + "/cryptor";
 
+    // Läuft vor start() im Launcher-Thread: Die Kontakte werden bereits geladen, während das Fenster aufgebaut wird.
     @Override
-    public void start(Stage primaryStage) throws Exception {
+    public void init() {
         setupEnv();
+        Startup.begin();
+    }
 
+    @Override
+    public void start(Stage primaryStage) throws Exception {
         Parent root = FXMLLoader.load(getClass().getResource("View.fxml"));
         primaryStage.setTitle("cryptor");
         primaryStage.setScene(new Scene(root));
@@ -24,6 +30,14 @@ public class Cryptor extends Application {
         primaryStage.show();
     }
 
+    // Mit -Dcryptor.metrics=true werden beim Beenden die Laufzeit-Metriken aller Arbeitsschritte ausgegeben.
+    @Override
+    public void stop() {
+        if (Boolean.getBoolean("cryptor.metrics")) {
+            System.out.print(Metrics.report());
+        }
+    }
+
     private void setupEnv() {
         File cryptorPath = new File(CRYPTOR_HOME);
 
@@ -0,0 +1,340 @@
+package main;
+
+import main.cryptography.CarrierTemplate;
+import main.cryptography.CryptoException;
+import main.cryptography.ExtractedDocument;
+import main.cryptography.MemoryScheduler;
+import main.cryptography.ProgressListener;
+import main.cryptography.Steganography;
+import main.metrics.Metrics;
+import main.users.User;
+import main.users.UserAdministration;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * cryptor als Batch-Lauf ohne Oberfläche: Verarbeitet eine Liste von Jobs und kann nach einem Abbruch fortgesetzt
+ * werden.
+ *
+ * Jede Zeile der Job-Liste beschreibt einen Job (Felder durch Tabs getrennt, # leitet Kommentare ein):
+ *
+ * hide           KONTAKT  DOKUMENT  TRÄGERBILD  AUSGABE.png
+ * hide-template  KONTAKT  DOKUMENT  TRÄGERBILD  AUSGABE.png
+ * extract        KONTAKT  BILD      AUSGABEVERZEICHNIS
+ *
+ * hide-template verwendet für jedes Trägerbild eine {@link CarrierTemplate}, die nur einmal vorbereitet wird. Weitere
+ * Jobs mit demselben Trägerbild codieren dann nur die Zeilen neu, in denen das Dokument liegt. Die Vorbereitung läuft
+ * wie ein Job über den {@link MemoryScheduler}, fertige Vorlagen werden bis zu einem eigenen Speicherbudget gehalten.
+ *
+ * Abgeschlossene Jobs werden in einem {@link BatchJournal} neben der Job-Liste vermerkt. Ausgaben werden zunächst
+ * als ".part"-Datei geschrieben und erst nach dem Schreiben auf die Platte umbenannt. Bei einem erneuten Start werden
+ * vermerkte Jobs mit unveränderten Eingaben und unveränderter Ausgabe übersprungen, sodass nur die verbleibenden Jobs Aufwand verursachen. Alle
+ * anderen Jobs laufen erneut und ersetzen dabei übrig gebliebene ".part"-Dateien und nicht vermerkte Ausgaben.
+ * Mit --verify werden zusätzlich alle vermerkten Ausgaben anhand ihres Hashes geprüft und bei Abweichung neu erzeugt.
+ *
+ * Die Jobs laufen nebenläufig, begrenzt durch den {@link MemoryScheduler}.
+ */
+public final class CryptorBatch {
+
+    private static final String PART_SUFFIX = ".part";
+
+    private final UserAdministration userAdministration;
+    private final BatchJournal journal;
+    private final CarrierCache carriers = new CarrierCache(Runtime.getRuntime().maxMemory() / 4);
+
+    // Vorlagen für hide-template, auch solche in Vorbereitung. Über dem Budget werden die am längsten nicht verwendeten
+    // fertigen Vorlagen verworfen (LRU), laufende Jobs halten ihre Vorlage selbst. Zugriff nur mit Sperre auf templates.
+    private final LinkedHashMap<CarrierCache.Key, CompletableFuture<CarrierTemplate>> templates =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final long templateBudget = Runtime.getRuntime().maxMemory() / 8;
+    private long templateBytes;
+    private final MemoryScheduler scheduler = new MemoryScheduler(Runtime.getRuntime().maxMemory() / 2,
+            Runtime.getRuntime().availableProcessors());
+
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    CryptorBatch(UserAdministration userAdministration, BatchJournal journal) {
+        this.userAdministration = userAdministration;
+        this.journal = journal;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: CryptorBatch JOBLIST [--verify]");
+            return;
+        }
+
+        Path jobList = Paths.get(args[0]);
+        boolean verify = args.length > 1 && args[1].equals("--verify");
+
+        new File(System.getProperty("user.home") + "/cryptor").mkdirs();
+        Startup.calibrate();
+
+        try (BatchJournal journal = new BatchJournal(Paths.get(jobList + ".journal"))) {
+            if (verify) {
+                for (Map.Entry<String, Path> broken : journal.verify().entrySet()) {
+                    System.out.println("Output changed, job will be repeated: " + broken.getValue());
+                }
+            }
+
+            CryptorBatch batch = new CryptorBatch(Startup.openUsers(), journal);
+            batch.run(Files.readAllLines(jobList, StandardCharsets.UTF_8));
+        }
+    }
+
+    // Führt alle noch nicht abgeschlossenen Jobs aus und wartet auf deren Ende.
+    void run(List<String> lines) {
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> jobs = new ArrayList<>();
+
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            int lineNumber = i + 1;
+            String[] fields = line.split("\t");
+            try {
+                String jobId = jobId(line, fields);
+                if (journal.completed(jobId) != null) {
+                    skipped.incrementAndGet();
+                    Metrics.increment("batch.skipped");
+                    continue;
+                }
+
+                jobs.add(submit(jobId, fields));
+            } catch (IOException | IllegalArgumentException e) {
+                failed.incrementAndGet();
+                System.out.println("Error while preparing job in line " + lineNumber + ": " + e.toString());
+            }
+        }
+
+        for (CompletableFuture<Void> job : jobs) {
+            job.join();
+        }
+        scheduler.close();
+
+        System.out.println(String.format(Locale.ROOT, "%d done, %d skipped, %d failed in %.1f s",
+                done.get(), skipped.get(), failed.get(), (System.nanoTime() - start) / 1e9));
+    }
+
+    // Die ID hängt vom Inhalt der Zeile sowie von Größe und Änderungszeit der Eingaben ab. Die Job-Liste kann so ergänzt
+    // oder umsortiert werden, ein geändertes Dokument oder Bild führt aber zu einer neuen ID und der Job läuft erneut.
+    // --verify prüft dagegen nur die Ausgaben.
+    static String jobId(String line, String[] fields) throws IOException {
+        StringBuilder key = new StringBuilder(line);
+        for (String input : inputs(fields)) {
+            Path path = Paths.get(input);
+            key.append('\n').append(Files.size(path)).append('\t').append(Files.getLastModifiedTime(path).toMillis());
+        }
+        return BatchJournal.sha256(key.toString());
+    }
+
+    // Liefert die Eingabedateien eines Jobs, bei unbekannten Jobs keine.
+    private static List<String> inputs(String[] fields) {
+        if (fields.length == 5 && (fields[0].equals("hide") || fields[0].equals("hide-template"))) {
+            return List.of(fields[2], fields[3]);
+        }
+        if (fields.length == 4 && fields[0].equals("extract")) {
+            return List.of(fields[2]);
+        }
+        return List.of();
+    }
+
+    private CompletableFuture<Void> submit(String jobId, String[] fields) throws IOException {
+        if (fields.length == 5 && fields[0].equals("hide")) {
+            File document = new File(fields[2]);
+            File picture = new File(fields[3]);
+            Path output = Paths.get(fields[4]);
+            long footprint = MemoryScheduler.hideFootprint(picture, document.length());
+
+            return schedule(jobId, output, footprint, () -> {
+                BufferedImage encrypted = Steganography.hide(document, carriers.get(picture),
+                        contact(fields[1]).getSharedSecret(), ProgressListener.NONE);
+                Path part = part(output);
+                try {
+                    if (!ImageIO.write(encrypted, "png", part.toFile())) {
+                        throw new IOException("No PNG writer available.");
+                    }
+                } finally {
+                    Steganography.release(encrypted);
+                }
+                return commit(part, output);
+            });
+        }
+
+        if (fields.length == 5 && fields[0].equals("hide-template")) {
+            File document = new File(fields[2]);
+            Path output = Paths.get(fields[4]);
+            // Neu codiert werden nur die Zeilen mit dem Chiffretext, etwa ein Pixel pro Byte des Dokuments.
+            long footprint = MemoryScheduler.hideFootprint(document.length(), document.length());
+
+            // Der Job wird erst zugelassen, wenn seine Vorlage fertig ist, und belegt bis dahin keinen Platz im Scheduler.
+            return report(output, template(new File(fields[3])).thenCompose(template -> execute(jobId, footprint, () -> {
+                Path part = part(output);
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(part))) {
+                    template.hide(document, contact(fields[1]).getSharedSecret(), out, ProgressListener.NONE);
+                }
+                return commit(part, output);
+            })));
+        }
+
+        if (fields.length == 4 && fields[0].equals("extract")) {
+            File picture = new File(fields[2]);
+            Path directory = Paths.get(fields[3]);
+            long footprint = MemoryScheduler.extractFootprint(picture);
+
+            return schedule(jobId, directory, footprint, () -> {
+                ExtractedDocument document = Steganography.extract(carriers.get(picture),
+                        contact(fields[1]).getSharedSecret(), ProgressListener.NONE);
+                String fileName = document.getFileName() != null ? document.getFileName() : picture.getName() + ".bin";
+                Path output = directory.resolve(Paths.get(fileName).getFileName());
+                Path part = part(output);
+                Files.write(part, document.getContent());
+                return commit(part, output);
+            });
+        }
+
+        throw new IllegalArgumentException("Unknown job: " + String.join(" ", fields));
+    }
+
+    private CompletableFuture<Void> schedule(String jobId, Path output, long footprint, Job job) {
+        return report(output, execute(jobId, footprint, job));
+    }
+
+    // Führt einen Job aus, sobald der Scheduler ihn zulässt, und vermerkt ihn danach im Journal.
+    private CompletableFuture<Path> execute(String jobId, long footprint, Job job) {
+        return scheduler.submit(footprint, () -> {
+            Path result = job.run();
+            journal.record(jobId, result);
+            return result;
+        });
+    }
+
+    // Zählt das Ergebnis eines Jobs und meldet Fehler.
+    private CompletableFuture<Void> report(Path output, CompletableFuture<Path> job) {
+        return job.handle((result, e) -> {
+            if (e == null) {
+                done.incrementAndGet();
+                Metrics.increment("batch.done");
+            } else {
+                failed.incrementAndGet();
+                Metrics.increment("batch.failed");
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                System.out.println("Error while running job for " + output + ": "
+                        + (cause instanceof CryptoException ? cause.getMessage() : cause.toString()));
+            }
+            return null;
+        });
+    }
+
+    // Liefert die Vorlage für ein Trägerbild. Sie wird beim ersten Job mit diesem Bild vom Scheduler vorbereitet, alle
+    // weiteren Jobs mit demselben Bild warten auf dieselbe Vorbereitung.
+    private CompletableFuture<CarrierTemplate> template(File picture) throws IOException {
+        CarrierCache.Key key = new CarrierCache.Key(picture);
+        synchronized (templates) {
+            CompletableFuture<CarrierTemplate> template = templates.get(key);
+            if (template == null) {
+                template = scheduler.submit(MemoryScheduler.templateFootprint(picture),
+                        () -> new CarrierTemplate(carriers.get(picture)));
+                templates.put(key, template);
+                template.whenComplete((prepared, e) -> storeTemplate(key, prepared));
+            }
+            return template;
+        }
+    }
+
+    // Zählt eine fertige Vorlage gegen das Budget und verwirft so lange die ältesten fertigen Vorlagen, bis es wieder
+    // eingehalten wird. Eine fehlgeschlagene oder allein zu große Vorlage wird nicht gehalten.
+    private void storeTemplate(CarrierCache.Key key, CarrierTemplate prepared) {
+        synchronized (templates) {
+            if (prepared == null || prepared.size() > templateBudget) {
+                templates.remove(key);
+                return;
+            }
+
+            templateBytes += prepared.size();
+            Iterator<Map.Entry<CarrierCache.Key, CompletableFuture<CarrierTemplate>>> eldest = templates.entrySet().iterator();
+            while (templateBytes > templateBudget && eldest.hasNext()) {
+                Map.Entry<CarrierCache.Key, CompletableFuture<CarrierTemplate>> entry = eldest.next();
+                CompletableFuture<CarrierTemplate> template = entry.getValue();
+                if (!entry.getKey().equals(key) && template.isDone() && !template.isCompletedExceptionally()) {
+                    templateBytes -= template.join().size();
+                    eldest.remove();
+                }
+            }
+        }
+    }
+
+    // Liefert die Datei, in die zunächst geschrieben wird. Eine von einem abgebrochenen Lauf übrig gebliebene Datei
+    // wird dabei verworfen.
+    private static Path part(Path output) throws IOException {
+        Path part = output.resolveSibling(output.getFileName() + PART_SUFFIX);
+        Files.deleteIfExists(part);
+        return part;
+    }
+
+    // Schreibt die Ausgabe dauerhaft auf die Platte und benennt sie erst dann um, sodass unter dem endgültigen Namen
+    // nie eine unvollständige Datei liegt.
+    private static Path commit(Path part, Path output) throws IOException {
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        return Files.move(part, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private User contact(String name) throws CryptoException {
+        return contact(userAdministration, name);
+    }
+
+    // Sucht den Kontakt mit exakt dem angegebenen Namen (ohne Beachtung der Groß-/Kleinschreibung).
+    static User contact(UserAdministration userAdministration, String name) throws CryptoException {
+        User match = null;
+        for (User user : userAdministration.findUsers(name)) {
+            if (user.getName().toLowerCase(Locale.ROOT).equals(name.toLowerCase(Locale.ROOT))) {
+                if (match != null) {
+                    throw new CryptoException("Contact name is ambiguous: " + name);
+                }
+                match = user;
+            }
+        }
+
+        if (match == null) {
+            throw new CryptoException("Unknown contact: " + name);
+        }
+        if (!match.isSetupCompleted()) {
+            throw new CryptoException("Setup of contact is not completed: " + name);
+        }
+        return match;
+    }
+
+    // Ein Job, der seine Ausgabe vollständig schreibt und deren Pfad liefert.
+    @FunctionalInterface
+    private interface Job {
+        Path run() throws Exception;
+    }
+}
@@ -0,0 +1,97 @@
+package main;
+
+import main.cryptography.CryptoException;
+import main.cryptography.ExtractedDocument;
+import main.cryptography.Mailbox;
+import main.cryptography.ProgressListener;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Verwaltet ein Postfach-Bild (siehe {@link Mailbox}) ohne Oberfläche:
+ *
+ * CryptorMailbox create KONTAKT TRÄGERBILD POSTFACH
+ * CryptorMailbox append KONTAKT POSTFACH DOKUMENT
+ * CryptorMailbox list KONTAKT POSTFACH
+ * CryptorMailbox fetch KONTAKT POSTFACH NUMMER [VERZEICHNIS]
+ *
+ * Beim Anhängen bleiben frühere Nachrichten unverändert im Bild, abgerufen wird jeweils eine einzelne Nachricht.
+ */
+public final class CryptorMailbox {
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.ROOT)
+            .withZone(ZoneId.systemDefault());
+
+    private CryptorMailbox() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3 || !(args[0].equals("create") && args.length == 4 || args[0].equals("append") && args.length == 4
+                || args[0].equals("list") && args.length == 3 || args[0].equals("fetch") && args.length >= 4)) {
+            System.out.println("Usage: CryptorMailbox create CONTACT CARRIER MAILBOX");
+            System.out.println("       CryptorMailbox append CONTACT MAILBOX DOCUMENT");
+            System.out.println("       CryptorMailbox list CONTACT MAILBOX");
+            System.out.println("       CryptorMailbox fetch CONTACT MAILBOX NUMBER [DIRECTORY]");
+            System.exit(2);
+        }
+
+        new File(System.getProperty("user.home") + "/cryptor").mkdirs();
+        Startup.calibrate();
+
+        try {
+            byte[] sharedSecret = CryptorBatch.contact(Startup.openUsers(), args[1]).getSharedSecret();
+            File mailbox = new File(args[args[0].equals("create") ? 3 : 2]);
+
+            switch (args[0]) {
+                case "create":
+                    BufferedImage carrier = ImageIO.read(new File(args[2]));
+                    if (carrier == null) {
+                        throw new IOException("This file is not a supported picture: " + args[2]);
+                    }
+                    Mailbox.create(carrier, sharedSecret, mailbox, ProgressListener.NONE);
+                    print(new Mailbox(mailbox, sharedSecret));
+                    break;
+                case "append":
+                    Mailbox.Message message = new Mailbox(mailbox, sharedSecret).append(new File(args[3]), ProgressListener.NONE);
+                    System.out.println("Message " + message.getNumber() + " appended.");
+                    break;
+                case "list":
+                    print(new Mailbox(mailbox, sharedSecret));
+                    break;
+                default:
+                    fetch(new Mailbox(mailbox, sharedSecret), Integer.parseInt(args[3]), Paths.get(args.length > 4 ? args[4] : "."));
+                    break;
+            }
+        } catch (CryptoException | IOException | NumberFormatException e) {
+            System.out.println("Error while using mailbox: " + (e instanceof CryptoException ? e.getMessage() : e.toString()));
+            System.exit(1);
+        }
+    }
+
+    private static void print(Mailbox mailbox) {
+        for (Mailbox.Message message : mailbox.getMessages()) {
+            System.out.println(String.format(Locale.ROOT, "%3d  %s  %10d bytes", message.getNumber(),
+                    TIME.format(Instant.ofEpochMilli(message.getTime())), message.getSize()));
+        }
+        System.out.println(String.format(Locale.ROOT, "%d messages, %d bytes free", mailbox.getMessages().size(), mailbox.getFree()));
+    }
+
+    private static void fetch(Mailbox mailbox, int number, Path directory) throws IOException, CryptoException {
+        ExtractedDocument document = mailbox.fetch(number, ProgressListener.NONE);
+        String fileName = document.getFileName() != null ? document.getFileName() : "message-" + number + ".bin";
+        Path output = directory.resolve(Paths.get(fileName).getFileName());
+        Files.createDirectories(directory);
+        Files.write(output, document.getContent());
+        System.out.println(output);
+    }
+}
@@ -0,0 +1,411 @@
+package main;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import main.cryptography.BufferPool;
+import main.cryptography.CryptoException;
+import main.cryptography.CryptoProviders;
+import main.cryptography.ExtractedDocument;
+import main.cryptography.MemoryScheduler;
+import main.cryptography.ProgressListener;
+import main.cryptography.Steganography;
+import main.cryptography.SteganographyException;
+import main.metrics.Metrics;
+import main.users.User;
+import main.users.UserAdministration;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cryptor als lokaler HTTP-Dienst ohne Oberfläche.
+ *
+ * Andere Prozesse auf demselben Rechner können Dokumente für einen Kontakt verstecken und extrahieren, ohne die GUI zu
+ * bedienen. Der Dienst lauscht ausschließlich auf der Loopback-Adresse.
+ *
+ * Da auf der Loopback-Adresse jeder lokale Benutzer den Dienst erreicht, verlangen alle Anfragen außer /health das
+ * Token aus der Token-Datei (standardmäßig TOKEN_FILE) im Header "Authorization: Bearer TOKEN". Das Token wird bei jedem Start neu erzeugt und in eine
+ * nur für den Besitzer lesbare Datei geschrieben. Nur wer die Kontakte und Bilder dieses Benutzers ohnehin lesen darf,
+ * kann so Dokumente mit seinen Schlüsseln verstecken bzw. extrahieren oder Trägerbilder über ihren Pfad laden.
+ *
+ * POST /hide?contact=NAME&carrier=PFAD[&name=DATEINAME][&sparse] - Body: Dokument, Antwort: PNG-Bild
+ * POST /extract?contact=NAME                                      - Body: PNG-Bild, Antwort: Dokument (Dateiname im
+ *                                                                   Header Content-Disposition)
+ * GET  /health                                                    - Anzahl laufender Anfragen, gewählte
+ *                                                                   Krypto-Implementierung und Puffer-Pool, siehe
+ *                                                                   CryptoProviders und BufferPool
+ * GET  /metrics                                                   - Laufzeit-Metriken aller Arbeitsschritte, siehe
+ *                                                                   Metrics
+ *
+ * Antworten werden direkt in die Verbindung geschrieben (Chunked-Encoding), das PNG-Bild einer Extraktion wird direkt
+ * aus der Verbindung decodiert. Das Dokument wird beim Verstecken blockweise aus der Verbindung gelesen, verschlüsselt
+ * und eingebettet und liegt nie vollständig im Speicher. Beim Extrahieren wird es dagegen vollständig gehalten, da es
+ * erst nach dem Auslesen aller Pixel entschlüsselt werden kann; seine Größe ist durch die Pixel des Bildes begrenzt.
+ *
+ * Nebenläufigkeit: Anfragen laufen auf einem Pool mit fester Thread-Anzahl und begrenzter Warteschlange. Ist diese
+ * voll, liest der Annahme-Thread nur noch die Header der Anfrage und antwortet direkt mit 503 und Retry-After, statt
+ * sie selbst zu bearbeiten. Er bleibt so für weitere Verbindungen und insbesondere /health verfügbar, das auch dann
+ * noch beantwortet wird. Der Rückstau belegt keinen unbegrenzten Speicher. Die rechenintensive
+ * Ver- und Entschlüsselung ist zusätzlich auf die Anzahl Prozessorkerne und ein Speicherbudget begrenzt (siehe
+ * MemoryScheduler). Wer darauf länger als ADMISSION_TIMEOUT_MS wartet, erhält 503 mit Retry-After, statt die Latenz
+ * aller anderen Anfragen zu erhöhen.
+ */
+public final class CryptorService {
+
+    private static final int DEFAULT_PORT = 8420;
+    private static final long ADMISSION_TIMEOUT_MS = 2000;
+    private static final Path TOKEN_FILE = Paths.get(System.getProperty("user.home"), "cryptor", "service.token");
+
+    // Gesetzt, während der Annahme-Thread eine Anfrage bearbeitet, die der Pool abgelehnt hat.
+    private static final ThreadLocal<Boolean> REJECTED = ThreadLocal.withInitial(() -> false);
+
+    private final UserAdministration userAdministration;
+    private final CarrierCache carriers = new CarrierCache(Runtime.getRuntime().maxMemory() / 4);
+    private final MemoryScheduler workers = new MemoryScheduler(Runtime.getRuntime().maxMemory() / 2,
+            Runtime.getRuntime().availableProcessors());
+    private final ThreadPoolExecutor executor;
+    private final HttpServer server;
+    private final Path tokenFile;
+    private final byte[] token;
+
+    /**
+     * @param port TCP-Port auf der Loopback-Adresse.
+     * @param threads Anzahl Threads für Anfragen, die Warteschlange fasst das Vierfache.
+     * @param tokenFile Datei, in die das Token für alle Anfragen außer /health geschrieben wird.
+     */
+    public CryptorService(UserAdministration userAdministration, int port, int threads, Path tokenFile) throws IOException {
+        this.userAdministration = userAdministration;
+        this.tokenFile = tokenFile;
+        this.token = writeToken(tokenFile);
+
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 4), runnable -> {
+                    Thread thread = new Thread(runnable, "cryptor-http");
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, pool) -> {
+                    // Der Annahme-Thread liest nur die Header, handle() antwortet dann sofort mit 503.
+                    REJECTED.set(true);
+                    try {
+                        runnable.run();
+                    } finally {
+                        REJECTED.remove();
+                    }
+                });
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.setExecutor(executor);
+        server.createContext("/hide", exchange -> handle(exchange, "POST", true, this::hide));
+        server.createContext("/extract", exchange -> handle(exchange, "POST", true, this::extract));
+        server.createContext("/health", exchange -> handle(exchange, "GET", false, this::health));
+        server.createContext("/metrics", exchange -> handle(exchange, "GET", true, this::metrics));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    // Liefert den Port, auf dem der Dienst tatsächlich lauscht (relevant bei Port 0).
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Verschlüsselt den Body für den Kontakt und versteckt ihn im angegebenen Trägerbild.
+    private void hide(HttpExchange exchange, Map<String, String> query) throws IOException, CryptoException, ServiceException {
+        User user = contact(query);
+        String carrierPath = required(query, "carrier");
+        File carrierFile = new File(carrierPath);
+        if (!carrierFile.isFile()) {
+            throw new ServiceException(404, "Carrier picture not found: " + carrierPath);
+        }
+
+        String fileName = query.getOrDefault("name", "document");
+
+        // Der Speicherbedarf wird aus dem Header des Trägerbildes geschätzt. Decodiert und eingebettet wird erst nach
+        // der Zulassung. Das Dokument wird blockweise eingebettet und zählt daher nicht zum Speicherbedarf.
+        MemoryScheduler.Permit permit = admit(MemoryScheduler.hideFootprint(carrierFile, 0));
+        BufferedImage encrypted;
+        try (permit) {
+            BufferedImage carrier = carriers.get(carrierFile);
+
+            // Ein Byte des Chiffretextes belegt ein Pixel. Ist die Länge des Bodys bekannt, wird ein zu großes Dokument
+            // abgelehnt, bevor es gelesen wird, sonst beim Einbetten, sobald das Bild voll ist.
+            String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (contentLength != null && Long.parseLong(contentLength) >= (long) carrier.getWidth() * carrier.getHeight()) {
+                throw new ServiceException(413, "This picture is not big enough for this File.");
+            }
+
+            encrypted = Steganography.hide(exchange.getRequestBody(), fileName, carrier, user.getSharedSecret(),
+                    query.containsKey("sparse"), ProgressListener.NONE);
+        } catch (SteganographyException e) {
+            throw new ServiceException(413, e.getMessage());
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "image/png");
+        exchange.sendResponseHeaders(200, 0);
+        Metrics.Sample write = Metrics.start("steganography", "write");
+        try (OutputStream os = exchange.getResponseBody()) {
+            ImageIO.write(encrypted, "png", os);
+        } finally {
+            Steganography.release(encrypted);
+        }
+        write.stop((long) encrypted.getWidth() * encrypted.getHeight());
+    }
+
+    // Extrahiert das Dokument aus dem übertragenen PNG-Bild und liefert es entschlüsselt zurück.
+    private void extract(HttpExchange exchange, Map<String, String> query) throws IOException, CryptoException, ServiceException {
+        User user = contact(query);
+
+        // Der Speicherbedarf wird aus dem Header des Bildes geschätzt, der danach erneut aus dem Puffer gelesen wird.
+        // Das Bild wird erst nach der Zulassung decodiert.
+        InputStream body = new BufferedInputStream(exchange.getRequestBody(), 1 << 16);
+        long footprint;
+        try {
+            footprint = MemoryScheduler.extractFootprint(body);
+        } catch (IOException e) {
+            throw new ServiceException(400, "Request body is not a supported picture.");
+        }
+
+        MemoryScheduler.Permit permit = admit(footprint);
+        ExtractedDocument document;
+        try (permit) {
+            BufferedImage picture = ImageIO.read(body);
+            if (picture == null) {
+                throw new ServiceException(400, "Request body is not a supported picture.");
+            }
+            document = Steganography.extract(picture, user.getSharedSecret(), ProgressListener.NONE);
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        if (document.getFileName() != null) {
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename*=UTF-8''"
+                    + URLEncoder.encode(document.getFileName(), StandardCharsets.UTF_8).replace("+", "%20"));
+        }
+        exchange.sendResponseHeaders(200, document.getContent().length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(document.getContent());
+        }
+    }
+
+    private void health(HttpExchange exchange, Map<String, String> query) throws IOException {
+        byte[] body = ("ok active=" + executor.getActiveCount() + " queued=" + executor.getQueue().size()
+                + " waiting=" + workers.waiting() + " reserved_mb=" + workers.used() / (1 << 20)
+                + " " + CryptoProviders.selection() + " " + BufferPool.report() + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private void metrics(HttpExchange exchange, Map<String, String> query) throws IOException {
+        byte[] body = Metrics.report().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    // Gemeinsame Behandlung aller Anfragen: Methode und Token prüfen, Parameter lesen, Fehler in Statuscodes übersetzen.
+    private void handle(HttpExchange exchange, String method, boolean authenticated, Handler handler) {
+        try (exchange) {
+            if (!method.equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", method);
+                sendError(exchange, 405, "Method not allowed.");
+                return;
+            }
+            if (authenticated && !authorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                Metrics.increment("service.status.401");
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                sendError(exchange, 401, "Missing or wrong token, see " + tokenFile + ".");
+                return;
+            }
+            if (authenticated && REJECTED.get()) {
+                Metrics.increment("service.status.503");
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 503, "Service is busy.");
+                return;
+            }
+
+            try {
+                handler.handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+            } catch (ServiceException e) {
+                Metrics.increment("service.status." + e.status);
+                if (e.status == 503) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                }
+                sendError(exchange, e.status, e.getMessage());
+            } catch (CryptoException e) {
+                Metrics.increment("service.status.422");
+                sendError(exchange, 422, e.getMessage());
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error while handling request: " + e.toString());
+        }
+    }
+
+    // Wartet begrenzt auf einen freien Platz und genügend Speicher für die Ver- bzw. Entschlüsselung.
+    private MemoryScheduler.Permit admit(long footprint) throws ServiceException {
+        try {
+            MemoryScheduler.Permit permit = workers.tryAcquire(footprint, ADMISSION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (permit == null) {
+                throw new ServiceException(503, "Service is busy.");
+            }
+            return permit;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(503, "Service is shutting down.");
+        }
+    }
+
+    // Sucht den Kontakt mit exakt dem angegebenen Namen (ohne Beachtung der Groß-/Kleinschreibung).
+    private User contact(Map<String, String> query) throws ServiceException {
+        String name = required(query, "contact");
+
+        User match = null;
+        for (User user : userAdministration.findUsers(name)) {
+            if (user.getName().toLowerCase(Locale.ROOT).equals(name.toLowerCase(Locale.ROOT))) {
+                if (match != null) {
+                    throw new ServiceException(409, "Contact name is ambiguous: " + name);
+                }
+                match = user;
+            }
+        }
+
+        if (match == null) {
+            throw new ServiceException(404, "Unknown contact: " + name);
+        }
+        if (!match.isSetupCompleted()) {
+            throw new ServiceException(409, "Setup of contact is not completed: " + name);
+        }
+
+        return match;
+    }
+
+    private static String required(Map<String, String> query, String name) throws ServiceException {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new ServiceException(400, "Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    // Vergleicht das Token aus dem Header in konstanter Zeit, damit es nicht zeichenweise erraten werden kann.
+    private boolean authorized(String authorization) {
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return false;
+        }
+        return MessageDigest.isEqual(token, authorization.substring(7).trim().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Erzeugt ein neues zufälliges Token und schreibt es in eine Datei, die nur der Besitzer lesen kann. Die Datei wird
+    // bereits mit diesen Rechten angelegt und erst danach an ihren Platz verschoben.
+    private static byte[] writeToken(Path file) throws IOException {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : random) {
+            hex.append(String.format("%02x", b));
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            // Ohne POSIX-Rechte (Windows) ist das Benutzerverzeichnis bereits nur für den Besitzer lesbar.
+            Files.createFile(tmp);
+        }
+        Files.writeString(tmp, hex + "\n", StandardCharsets.US_ASCII);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return hex.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange, Map<String, String> query) throws IOException, CryptoException, ServiceException;
+    }
+
+    // Fehler, der direkt als HTTP-Status an den Aufrufer gemeldet wird.
+    private static final class ServiceException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private ServiceException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Startet den Dienst ohne Oberfläche.
+     *
+     * Argumente: [Port] [Threads]
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        new File(System.getProperty("user.home") + "/cryptor").mkdirs();
+        Startup.calibrate();
+
+        CryptorService service = new CryptorService(Startup.openUsers(), port, threads, TOKEN_FILE);
+        service.start();
+        System.out.println("cryptor service listening on http://localhost:" + service.getPort() + ", crypto " + CryptoProviders.selection()
+                + ", token in " + TOKEN_FILE);
+    }
+}
@@ -0,0 +1,141 @@
+package main;
+
+import main.cryptography.CryptoException;
+import main.cryptography.ImageSequence;
+import main.cryptography.Steganography;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Versteckt die Standardeingabe in einer Folge von Bildern bzw. stellt sie daraus wieder her, ohne Oberfläche:
+ *
+ * tar c ordner | CryptorStream hide KONTAKT PRÄFIX TRÄGERBILD [TRÄGERBILD ...]
+ * CryptorStream extract KONTAKT BILD [BILD ...] | tar x
+ *
+ * Die Bilder werden als PRÄFIX-00000.png, PRÄFIX-00001.png usw. geschrieben, jeweils sobald ein Trägerbild gefüllt
+ * ist (siehe {@link ImageSequence}). Das Schreiben eines Bildes überlappt mit dem Lesen und Einbetten des nächsten
+ * Abschnitts. Beim Extrahieren werden Bilder mit solchen Namen nach ihrer Nummer sortiert, da die Shell ab 100000
+ * Bildern nicht mehr in der richtigen Reihenfolge expandiert. Meldungen gehen auf die Standardfehlerausgabe, da die Standardausgabe beim Extrahieren die Daten enthält.
+ */
+public final class CryptorStream {
+
+    // Name eines von hide geschriebenen Bildes. Die Nummer hat mindestens fünf, ab 100000 Bildern mehr Stellen.
+    private static final Pattern NUMBERED = Pattern.compile(".*-(\\d{1,18})\\.png");
+
+    private CryptorStream() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3 || !(args[0].equals("hide") && args.length >= 4 || args[0].equals("extract"))) {
+            System.err.println("Usage: CryptorStream hide CONTACT PREFIX CARRIER [CARRIER ...] < input");
+            System.err.println("       CryptorStream extract CONTACT PICTURE [PICTURE ...] > output");
+            System.exit(2);
+        }
+
+        new File(System.getProperty("user.home") + "/cryptor").mkdirs();
+
+        try {
+            byte[] sharedSecret = CryptorBatch.contact(Startup.openUsers(), args[1]).getSharedSecret();
+            if (args[0].equals("hide")) {
+                hide(args, sharedSecret);
+            } else {
+                extract(args, sharedSecret);
+            }
+        } catch (CryptoException | IOException e) {
+            System.err.println("Error while streaming: " + (e instanceof CryptoException ? e.getMessage() : e.toString()));
+            System.exit(1);
+        }
+    }
+
+    private static void hide(String[] args, byte[] sharedSecret) throws IOException, CryptoException {
+        String prefix = args[2];
+        List<BufferedImage> carriers = new ArrayList<>();
+        for (int i = 3; i < args.length; i++) {
+            BufferedImage carrier = ImageIO.read(new File(args[i]));
+            if (carrier == null) {
+                throw new IOException("This file is not a supported picture: " + args[i]);
+            }
+            carriers.add(carrier);
+        }
+
+        // Es wird höchstens ein Bild geschrieben, während der nächste Abschnitt eingebettet wird.
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        Future<?>[] pending = new Future<?>[1];
+        long start = System.nanoTime();
+        try {
+            int pictures = ImageSequence.hide(new BufferedInputStream(System.in), carriers, sharedSecret, (index, picture) -> {
+                awaitWrite(pending[0]);
+                File file = new File(String.format(Locale.ROOT, "%s-%05d.png", prefix, index));
+                pending[0] = writer.submit(() -> {
+                    try {
+                        if (!ImageIO.write(picture, "png", file)) {
+                            throw new IOException("No PNG writer available.");
+                        }
+                    } finally {
+                        Steganography.release(picture);
+                    }
+                    System.err.println(file.getPath());
+                    return null;
+                });
+            });
+            awaitWrite(pending[0]);
+
+            System.err.println(String.format(Locale.ROOT, "%d pictures written in %.1f s", pictures, (System.nanoTime() - start) / 1e9));
+        } finally {
+            writer.shutdownNow();
+        }
+    }
+
+    // Wartet, bis das zuvor übergebene Bild geschrieben ist, und meldet dabei aufgetretene Fehler.
+    private static void awaitWrite(Future<?> write) throws IOException {
+        if (write == null) {
+            return;
+        }
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing picture.", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private static void extract(String[] args, byte[] sharedSecret) throws IOException, CryptoException {
+        List<File> pictures = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            pictures.add(new File(args[i]));
+        }
+
+        // Nur wenn alle Namen eine Nummer tragen, sonst gilt die angegebene Reihenfolge.
+        if (pictures.stream().allMatch(file -> NUMBERED.matcher(file.getName()).matches())) {
+            pictures.sort(Comparator.comparingLong(CryptorStream::number));
+        }
+
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        ImageSequence.extract(pictures, sharedSecret, out);
+        out.flush();
+    }
+
+    private static long number(File picture) {
+        Matcher matcher = NUMBERED.matcher(picture.getName());
+        matcher.matches();
+        return Long.parseLong(matcher.group(1));
+    }
+}
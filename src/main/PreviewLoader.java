@@ -0,0 +1,155 @@
+package main;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lädt verkleinerte Vorschaubilder für die Bildauswahl.
+ *
+ * Für die Vorschau wird das Bild nicht in voller Auflösung decodiert. Über ImageReadParam wird nur jede n-te Zeile bzw.
+ * Spalte gelesen, sodass das Ergebnis gerade noch die Größe der Anzeige erreicht. Das Decodieren läuft im Hintergrund,
+ * die zuletzt angezeigten Vorschaubilder werden in einem kleinen LRU-Cache gehalten.
+ *
+ * Die Auflösung eines Bildes wird separat aus dem Header gelesen, ohne die Bilddaten zu decodieren.
+ */
+final class PreviewLoader {
+
+    private final int width;
+    private final int height;
+    private final int capacity;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "cryptor-preview");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<CarrierCache.Key, CompletableFuture<Image>> previews = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param width Breite der Anzeige in Pixeln.
+     * @param height Höhe der Anzeige in Pixeln.
+     * @param capacity Anzahl Vorschaubilder, die im Cache gehalten werden.
+     */
+    PreviewLoader(int width, int height, int capacity) {
+        this.width = width;
+        this.height = height;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Liefert das Vorschaubild einer Datei. Bereits geladene oder angefragte Vorschaubilder werden wiederverwendet.
+     *
+     * @param picture Bild-Datei.
+     * @return Vorschaubild, sobald es im Hintergrund decodiert wurde.
+     */
+    synchronized CompletableFuture<Image> load(File picture) {
+        CarrierCache.Key key = new CarrierCache.Key(picture);
+        CompletableFuture<Image> preview = previews.get(key);
+        if (preview != null) {
+            return preview;
+        }
+
+        CompletableFuture<Image> load = CompletableFuture.supplyAsync(() -> {
+            try {
+                return toImage(decode(picture));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, executor);
+
+        // Fehlgeschlagene Ladevorgänge werden nicht gecacht, damit ein erneuter Versuch möglich ist.
+        load.whenComplete((image, e) -> {
+            if (e != null) {
+                synchronized (this) {
+                    previews.remove(key, load);
+                }
+            }
+        });
+
+        previews.put(key, load);
+        Iterator<CompletableFuture<Image>> eldest = previews.values().iterator();
+        while (previews.size() > capacity && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+
+        return load;
+    }
+
+    /**
+     * Liest die Auflösung eines Bildes aus dessen Header, ohne die Bilddaten zu decodieren.
+     *
+     * @param picture Bild-Datei.
+     * @return Breite und Höhe des Bildes.
+     * @throws IOException Falls die Datei kein unterstütztes Bild ist.
+     */
+    static Dimension size(File picture) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(picture)) {
+            ImageReader reader = reader(input, picture);
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Decodiert nur so viele Zeilen und Spalten, wie für die Größe der Anzeige benötigt werden.
+    private BufferedImage decode(File picture) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(picture)) {
+            ImageReader reader = reader(input, picture);
+            try {
+                int step = Math.max(1, Math.min(reader.getWidth(0) / width, reader.getHeight(0) / height));
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static ImageReader reader(ImageInputStream input, File picture) throws IOException {
+        if (input == null) {
+            throw new IOException("Could not open picture: " + picture.getName());
+        }
+
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported picture format: " + picture.getName());
+        }
+
+        ImageReader reader = readers.next();
+        reader.setInput(input, true, true);
+        return reader;
+    }
+
+    // Erzeugt ein JavaFX-Bild aus einem decodierten Bild.
+    private static Image toImage(BufferedImage img) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        int[] pixels = img.getRGB(0, 0, w, h, null, 0, w);
+
+        WritableImage image = new WritableImage(w, h);
+        image.getPixelWriter().setPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), pixels, 0, w);
+        return image;
+    }
+}
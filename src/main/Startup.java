@@ -0,0 +1,93 @@
+package main;
+
+import main.cryptography.AES;
+import main.cryptography.CryptoProviders;
+import main.cryptography.DiffieHellman;
+import main.users.UserAdministration;
+
+import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Asynchroner Programmstart.
+ *
+ * Das Laden der Kontaktdatei, die Initialisierung der JCE-Provider und die Erzeugung der ersten Schlüsselpaare laufen
+ * in Hintergrund-Threads, während das Fenster bereits angezeigt wird. Die Zeit bis zum ersten Fenster ist damit
+ * unabhängig von der Größe der Kontaktdatei. Abhängige Elemente der GUI werden befüllt, sobald die Kontakte geladen
+ * sind.
+ */
+final class Startup {
+
+    private static ExecutorService executor;
+    private static CompletableFuture<UserAdministration> userAdministration;
+
+    private Startup() {
+    }
+
+    // Startet alle Hintergrund-Aufgaben. Weitere Aufrufe haben keine Wirkung.
+    static synchronized void begin() {
+        if (executor != null) {
+            return;
+        }
+
+        executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "cryptor-startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Kann die Kontaktdatei nicht geladen werden, schlägt der Future mit der IOException als Ursache fehl.
+        userAdministration = CompletableFuture.supplyAsync(() -> {
+            try {
+                return openUsers();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+        executor.execute(Startup::warmUp);
+    }
+
+    // Liefert die Kontaktverwaltung, sobald die Kontaktdatei geladen wurde, bzw. den Fehler beim Laden.
+    static CompletableFuture<UserAdministration> userAdministration() {
+        begin();
+        return userAdministration;
+    }
+
+    // Lädt die Kontaktverwaltung. Fehler beim Speichern im Hintergrund werden ausgegeben.
+    static UserAdministration openUsers() throws IOException {
+        UserAdministration userAdministration = new UserAdministration();
+        userAdministration.setErrorListener(e -> System.out.println("Error while compacting contacts: " + e.toString()));
+        return userAdministration;
+    }
+
+    // Wählt die schnellste Krypto-Implementierung aus. Kann das Profil nicht gelesen oder gespeichert werden, gilt die
+    // Auswahl trotzdem und der Fehler wird nur ausgegeben.
+    static void calibrate() {
+        try {
+            CryptoProviders.calibrate();
+        } catch (IOException e) {
+            System.out.println("Error while calibrating crypto providers: " + e.toString());
+        }
+    }
+
+    // Wählt die schnellste Krypto-Implementierung, initialisiert Provider und Bild-Plugins, indem sie einmal verwendet
+    // werden, und erzeugt Schlüsselpaare vorab.
+    private static void warmUp() {
+        try {
+            calibrate();
+            AES.encrypt(new byte[16], new byte[32]);
+            MessageDigest.getInstance("SHA-256");
+            ImageIO.getImageReadersByFormatName("png");
+            ImageIO.getImageWritersByFormatName("png");
+
+            DiffieHellman.prefetch(1);
+        } catch (Exception e) {
+            System.out.println("Error while warming up: " + e.toString());
+        }
+    }
+}
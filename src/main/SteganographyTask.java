@@ -0,0 +1,50 @@
+package main;
+
+import javafx.concurrent.Task;
+import main.cryptography.ProgressListener;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * JavaFX-Task für das Verstecken bzw. Extrahieren eines Dokuments im Hintergrund.
+ *
+ * Der Task dient gleichzeitig als {@link ProgressListener} für {@link main.cryptography.Steganography}. Gemeldete
+ * Arbeitsschritte werden in einen Gesamtfortschritt umgerechnet, ein Abbruch des Tasks bricht auch die Operation ab.
+ *
+ * @param <V> Ergebnis des Tasks.
+ */
+abstract class SteganographyTask<V> extends Task<V> implements ProgressListener {
+
+    private final List<Stage> stages;
+
+    // Bisher höchster Fortschritt. Überlappende Arbeitsschritte (siehe HidePipeline) melden aus mehreren Threads.
+    private double done;
+
+    /**
+     * @param stages Arbeitsschritte, die dieser Task in dieser Reihenfolge durchläuft.
+     */
+    SteganographyTask(Stage... stages) {
+        this.stages = Arrays.asList(stages);
+    }
+
+    // Jeder Arbeitsschritt erhält den gleichen Anteil am Gesamtfortschritt. Der Fortschritt läuft nie zurück.
+    @Override
+    public synchronized void progress(Stage stage, long processed, long total) {
+        int index = stages.indexOf(stage);
+        if (index < 0) {
+            return;
+        }
+
+        double fraction = total > 0 ? Math.min(1.0, (double) processed / total) : 0.0;
+        if (index + fraction < done) {
+            return;
+        }
+        done = index + fraction;
+        updateProgress(done, stages.size());
+
+        String name = stage.name().charAt(0) + stage.name().substring(1).toLowerCase(Locale.ROOT);
+        updateMessage(name + " " + Math.round(fraction * 100) + " %");
+    }
+}
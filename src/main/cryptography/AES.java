@@ -1,8 +1,12 @@
 package main.cryptography;
 
+import main.metrics.Metrics;
+
+import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
 
 /**
  * Klasse zur Ver- und Entschlüsselung von beliebigen Byte-Strömen, wie beispielsweise ein Dokument als Bytes.
@@ -10,6 +14,8 @@ import javax.crypto.spec.SecretKeySpec;
  *
  * Der Schlüssel wird dafür vom gemeinsamen Shared-Secret beider Kommunikationspartner abgeleitet, welches ebenfalls
  * an die Methoden übergeben wird.
+ *
+ * Fehler werden nicht ausgegeben, sondern als {@link CryptoException} an den Aufrufer weitergereicht.
  */
 public class AES {
 
@@ -20,21 +26,45 @@ public class AES {
      * @param clearBytes Klartext, als Byte-Array codiert.
      * @param secret Gemeinsames Geheimnis zwischen Alice und Bob, von dem der AES-Key abgeleitet wird.
      * @return Chiffretext, als Byte-Array codiert.
+     * @throws CryptoException Falls die Verschlüsselung fehlschlägt, z.B. durch ein ungültiges Shared-Secret.
      */
-    public static byte[] encrypt(byte[] clearBytes, byte[] secret) {
+    public static byte[] encrypt(byte[] clearBytes, byte[] secret) throws CryptoException {
         try {
-            // Erzeuge eine Cipher-Instanz vom Typ AES im CBC-Modus und initialisiere diese mit dem Shared-Secret.
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-            IvParameterSpec initVector = new IvParameterSpec(secret, 16, 16);
-            cipher.init(Cipher.ENCRYPT_MODE,  new SecretKeySpec(secret, secret.length - 32, 16, "AES"), initVector);
+            Cipher cipher = cipher(Cipher.ENCRYPT_MODE, secret);
 
             // Führe die Verschlüsselung mit der Cipher-Instanz durch.
-            return cipher.doFinal(clearBytes);
-        } catch (Exception e) {
-            System.out.println("Error while encrypting: " + e.toString());
+            Metrics.Sample sample = Metrics.start("aes", "encrypt");
+            byte[] chiffreBytes = cipher.doFinal(clearBytes);
+            sample.stop(clearBytes.length);
+            return chiffreBytes;
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new CryptoException("Error while encrypting.", e);
+        }
+    }
+
+    /**
+     * Wie {@link #encrypt(byte[], byte[])}, schreibt den Chiffretext aber in ein bestehendes Array, sodass er ohne
+     * weitere Kopie mit anderen Daten zusammengesetzt werden kann.
+     *
+     * @param target Ziel, ab offset müssen mindestens {@link #encryptedLength} Bytes frei sein.
+     * @return Länge des Chiffretextes.
+     */
+    static int encrypt(byte[] clearBytes, byte[] secret, byte[] target, int offset) throws CryptoException {
+        try {
+            Cipher cipher = cipher(Cipher.ENCRYPT_MODE, secret);
+
+            Metrics.Sample sample = Metrics.start("aes", "encrypt");
+            int length = cipher.doFinal(clearBytes, 0, clearBytes.length, target, offset);
+            sample.stop(clearBytes.length);
+            return length;
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new CryptoException("Error while encrypting.", e);
         }
+    }
 
-        return null;
+    // Länge des Chiffretextes zu einem Klartext: PKCS5-Padding füllt stets auf den nächsten vollen Block auf.
+    static int encryptedLength(int clearLength) {
+        return (clearLength / 16 + 1) * 16;
     }
 
     /**
@@ -45,20 +75,47 @@ public class AES {
      * @param chiffreBytes Chiffretext, als Byte-Array codiert.
      * @param secret Gemeinsames Geheimnis zwischen Alice und Bob, von dem der AES-Key abgeleitet wird.
      * @return Klartext, als Byte-Array codiert.
+     * @throws CryptoException Falls die Entschlüsselung fehlschlägt, in der Regel durch einen falschen Schlüssel.
      */
-    public static byte[] decrypt(byte[] chiffreBytes, byte[] secret) {
+    public static byte[] decrypt(byte[] chiffreBytes, byte[] secret) throws CryptoException {
+        return decrypt(chiffreBytes, 0, chiffreBytes.length, secret);
+    }
+
+    // Wie decrypt(chiffreBytes, secret) für einen Ausschnitt, z.B. aus einem geliehenen Puffer (siehe BufferPool).
+    static byte[] decrypt(byte[] chiffreBytes, int offset, int length, byte[] secret) throws CryptoException {
         try {
-            // Erzeuge eine Cipher-Instanz vom Typ AES im CBC-Modus und initialisiere diese mit dem Shared-Secret.
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-            IvParameterSpec initVector = new IvParameterSpec(secret, 16, 16);
-            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(secret, secret.length - 32, 16, "AES"), initVector);
+            Cipher cipher = cipher(Cipher.DECRYPT_MODE, secret);
 
             // Führe die Entschlüsselung mit der Cipher-Instanz durch.
-            return cipher.doFinal(chiffreBytes);
-        } catch (Exception e) {
-            System.out.println("Error while decrypting: " + e.toString());
+            Metrics.Sample sample = Metrics.start("aes", "decrypt");
+            byte[] clearBytes = cipher.doFinal(chiffreBytes, offset, length);
+            sample.stop(length);
+            return clearBytes;
+        } catch (BadPaddingException e) {
+            throw new CryptoException("Wrong decryption key.", e);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new CryptoException("Error while decrypting.", e);
         }
+    }
+
+    /**
+     * Erzeugt eine Cipher-Instanz vom Typ AES im CBC-Modus und initialisiert diese mit dem Shared-Secret.
+     *
+     * Wird direkt verwendet, wenn ein Byte-Strom in mehreren Teilen verschlüsselt werden soll (siehe {@link
+     * HidePipeline}). Das Ergebnis ist identisch zu {@link #encrypt} über den gesamten Strom.
+     *
+     * @param mode Cipher.ENCRYPT_MODE oder Cipher.DECRYPT_MODE.
+     * @param secret Gemeinsames Geheimnis, von dem der AES-Key abgeleitet wird.
+     */
+    static Cipher cipher(int mode, byte[] secret) throws GeneralSecurityException {
+        return cipher(CryptoProviders.aes(), mode, secret);
+    }
 
-        return null;
+    // Wie cipher(mode, secret), aber mit einer bestimmten Implementierung (siehe CryptoProviders).
+    static Cipher cipher(CryptoProvider provider, int mode, byte[] secret) throws GeneralSecurityException {
+        Cipher cipher = provider.aesCipher();
+        IvParameterSpec initVector = new IvParameterSpec(secret, 16, 16);
+        cipher.init(mode, new SecretKeySpec(secret, secret.length - 32, 16, "AES"), initVector);
+        return cipher;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+package main.cryptography;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Semaphore;
+
+/**
+ * OutputStream, der eine Datei über einen {@link AsynchronousFileChannel} schreibt.
+ *
+ * Die Daten werden in Blöcken gesammelt und ohne Warten an das Betriebssystem übergeben, sodass z.B. der PNG-Encoder
+ * weiterarbeitet, während vorherige Blöcke auf die Platte geschrieben werden. Höchstens {@link #MAX_PENDING} Blöcke
+ * sind gleichzeitig unterwegs, danach wartet der Schreiber.
+ */
+final class AsyncFileOutputStream extends OutputStream {
+
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final int MAX_PENDING = 4;
+
+    private final AsynchronousFileChannel channel;
+    private final Semaphore pending = new Semaphore(MAX_PENDING);
+    private ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+    private long position;
+    private volatile Throwable error;
+    private boolean closed;
+
+    AsyncFileOutputStream(Path file) throws IOException {
+        channel = AsynchronousFileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer.put((byte) b);
+        if (!buffer.hasRemaining()) {
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(data, offset, n);
+            offset += n;
+            length -= n;
+            if (!buffer.hasRemaining()) {
+                submit();
+            }
+        }
+    }
+
+    // Anzahl bereits an den Kanal übergebener Bytes.
+    long position() {
+        return position;
+    }
+
+    // Wartet, bis alle Blöcke geschrieben sind, und schließt die Datei.
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            submit();
+            pending.acquire(MAX_PENDING);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + position + " bytes.");
+        } finally {
+            channel.close();
+        }
+        checkError();
+    }
+
+    // Übergibt den aktuellen Block an den Kanal und beginnt einen neuen.
+    private void submit() throws IOException {
+        checkError();
+        buffer.flip();
+        if (!buffer.hasRemaining()) {
+            buffer.clear();
+            return;
+        }
+
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + position + " bytes.");
+        }
+
+        long start = position;
+        position += buffer.remaining();
+        channel.write(buffer, start, start, new Block(buffer));
+        buffer = ByteBuffer.allocate(BLOCK_SIZE);
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw new IOException("Error while writing file.", error);
+        }
+    }
+
+    // Schreibt einen Block, ggf. in mehreren Teilen, und gibt danach den Platz frei.
+    private final class Block implements CompletionHandler<Integer, Long> {
+        private final ByteBuffer data;
+
+        private Block(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public void completed(Integer written, Long start) {
+            if (data.hasRemaining()) {
+                long next = start + written;
+                channel.write(data, next, next, this);
+            } else {
+                pending.release();
+            }
+        }
+
+        @Override
+        public void failed(Throwable e, Long start) {
+            error = e;
+            pending.release();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package main.cryptography;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Pool für große int- und byte-Arrays, z.B. die ARGB-Kopie des Bildes beim Einbetten oder Lese-Puffer.
+ *
+ * In einem langlebigen Prozess (Dienst, Batch) würde sonst jeder Job mehrere bildgroße Arrays anlegen, die der Garbage
+ * Collector als Humongous-Objekte behandeln muss. Stattdessen leiht sich ein Job seine Puffer mit {@link #ints} bzw.
+ * {@link #bytes} und gibt sie mit {@link #release} zurück, sodass nach dem Aufwärmen immer wieder dieselben Arrays
+ * verwendet werden. Nicht zurückgegebene Puffer werden wie gewohnt vom Garbage Collector freigegeben.
+ *
+ * Die angeforderte Länge wird auf eine Größenklasse aufgerundet (Achtel-Schritte zwischen zwei Zweierpotenzen). So
+ * teilen sich ähnlich große Bilder dieselben Puffer, und höchstens 12,5 % eines Puffers bleiben ungenutzt. Der Pool
+ * hält höchstens MAX_BUFFERS freie Puffer mit zusammen CAPACITY Bytes. Darüber hinaus werden die am längsten
+ * unbenutzten Puffer verworfen.
+ */
+public final class BufferPool {
+
+    // Kleinere Puffer werden nicht gepoolt, sie sind für den Garbage Collector billig.
+    private static final int MIN_LENGTH = 1 << 12;
+    private static final int MAX_BUFFERS = 64;
+    private static final long CAPACITY = Runtime.getRuntime().maxMemory() / 8;
+
+    // Freie Puffer, der am längsten unbenutzte zuerst. Zugriff nur mit Sperre auf free.
+    private static final ArrayDeque<Object> free = new ArrayDeque<>();
+    private static long retained;
+    private static long reused;
+    private static long allocated;
+    private static long evicted;
+
+    private BufferPool() {
+    }
+
+    /**
+     * Leiht ein int-Array mit mindestens der angegebenen Länge. Der Inhalt ist undefiniert.
+     */
+    public static int[] ints(int length) {
+        if (length < MIN_LENGTH) {
+            return new int[length];
+        }
+        int size = sizeClass(length);
+        Object buffer = take(int[].class, size);
+        return buffer != null ? (int[]) buffer : new int[size];
+    }
+
+    /**
+     * Leiht ein byte-Array mit mindestens der angegebenen Länge. Der Inhalt ist undefiniert.
+     */
+    public static byte[] bytes(int length) {
+        if (length < MIN_LENGTH) {
+            return new byte[length];
+        }
+        int size = sizeClass(length);
+        Object buffer = take(byte[].class, size);
+        return buffer != null ? (byte[]) buffer : new byte[size];
+    }
+
+    /**
+     * Gibt ein mit {@link #ints} geliehenes Array zurück. Danach darf es nicht mehr verwendet werden.
+     */
+    public static void release(int[] buffer) {
+        if (buffer != null) {
+            put(buffer, buffer.length, 4L * buffer.length);
+        }
+    }
+
+    /**
+     * Gibt ein mit {@link #bytes} geliehenes Array zurück. Danach darf es nicht mehr verwendet werden.
+     */
+    public static void release(byte[] buffer) {
+        if (buffer != null) {
+            put(buffer, buffer.length, buffer.length);
+        }
+    }
+
+    /**
+     * Liefert Kennzahlen des Pools, z.B. "pool_reused=120 pool_allocated=6 pool_evicted=0 pool_retained_mb=96".
+     */
+    public static String report() {
+        synchronized (free) {
+            return "pool_reused=" + reused + " pool_allocated=" + allocated + " pool_evicted=" + evicted
+                    + " pool_retained_mb=" + retained / (1 << 20);
+        }
+    }
+
+    // Rundet auf die nächste Größenklasse auf: Vielfache eines Achtels der nächstkleineren Zweierpotenz.
+    static int sizeClass(int length) {
+        if (length <= MIN_LENGTH) {
+            return MIN_LENGTH;
+        }
+        int step = Integer.highestOneBit(length - 1) >> 3;
+        long size = ((long) length + step - 1) / step * step;
+        return size > Integer.MAX_VALUE - 8 ? length : (int) size;
+    }
+
+    // Entnimmt den zuletzt zurückgegebenen freien Puffer des Typs mit genau der Länge der Größenklasse.
+    private static Object take(Class<?> type, int size) {
+        synchronized (free) {
+            Iterator<Object> buffers = free.descendingIterator();
+            while (buffers.hasNext()) {
+                Object buffer = buffers.next();
+                if (buffer.getClass() == type && length(buffer) == size) {
+                    buffers.remove();
+                    retained -= bytes(buffer);
+                    reused++;
+                    return buffer;
+                }
+            }
+            allocated++;
+            return null;
+        }
+    }
+
+    private static void put(Object buffer, int length, long bytes) {
+        // Nur Puffer in der Länge einer Größenklasse können wieder verliehen werden.
+        if (length < MIN_LENGTH || length != sizeClass(length) || bytes > CAPACITY) {
+            return;
+        }
+
+        synchronized (free) {
+            // Ein doppelt zurückgegebener Puffer würde sonst an zwei Jobs gleichzeitig verliehen.
+            for (Object candidate : free) {
+                if (candidate == buffer) {
+                    return;
+                }
+            }
+
+            free.addLast(buffer);
+            retained += bytes;
+            while (retained > CAPACITY || free.size() > MAX_BUFFERS) {
+                retained -= bytes(free.removeFirst());
+                evicted++;
+            }
+        }
+    }
+
+    private static int length(Object buffer) {
+        return buffer instanceof int[] ? ((int[]) buffer).length : ((byte[]) buffer).length;
+    }
+
+    private static long bytes(Object buffer) {
+        return buffer instanceof int[] ? 4L * ((int[]) buffer).length : ((byte[]) buffer).length;
+    }
+}
@@ -0,0 +1,433 @@
+package main.cryptography;
+
+import main.metrics.Metrics;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Vorlage für ein Trägerbild, das für viele Nachrichten verwendet wird.
+ *
+ * Das Bild wird einmalig decodiert und als ARGB-Raster gehalten. Zusätzlich wird es einmalig als PNG codiert, und zwar
+ * in Bändern zu je BAND_ROWS Zeilen, die unabhängig voneinander gefiltert und komprimiert werden: Die erste Zeile eines
+ * Bandes verwendet nur Filter ohne Bezug zur Zeile darüber, und jedes Band wird mit einem eigenen Deflater ohne
+ * gemeinsames Wörterbuch komprimiert und mit einem Sync-Flush abgeschlossen. Jedes Band wird als eigener IDAT-Chunk
+ * gehalten, die Prüfsumme des zlib-Stroms wird aus den Prüfsummen der Bänder kombiniert.
+ *
+ * Eine Nachricht wird fortlaufend ab dem ersten Pixel eingebettet, ein Byte pro Pixel wie bei {@link Steganography#hide}.
+ * Die restlichen Pixel bleiben wie bei {@link Steganography#hideSparse} unverändert. Es werden nur die Bänder neu
+ * codiert, in denen der Chiffretext liegt, alle übrigen Chunks werden unverändert aus der Vorlage geschrieben. Der
+ * Aufwand pro Nachricht wächst so mit der Größe des Dokuments und nicht mit der Größe des Bildes. Das Ergebnis kann
+ * mit {@link Steganography#extract} bzw. {@link Steganography#extractBroadcast} gelesen werden.
+ *
+ * Eine Vorlage wird nach dem Erzeugen nicht mehr verändert und kann von mehreren Threads gleichzeitig verwendet werden.
+ */
+public final class CarrierTemplate {
+
+    // Anzahl Zeilen eines unabhängig codierten Bandes.
+    static final int BAND_ROWS = 16;
+
+    static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    // zlib-Header (Deflate, 32K-Fenster, Standard-Kompression) und leerer letzter Deflate-Block.
+    static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9c};
+    static final byte[] DEFLATE_END = {0x03, 0x00};
+
+    private final int width;
+    private final int height;
+    private final int[] raster;
+    private final byte[] head;
+    private final Band[] bands;
+
+    /**
+     * Bereitet ein Trägerbild vor. Das übergebene Bild wird nicht verändert.
+     *
+     * @param picture Bereits decodiertes Trägerbild, z.B. aus einem Cache.
+     */
+    public CarrierTemplate(BufferedImage picture) {
+        Metrics.Sample sample = Metrics.start("template", "prepare");
+        width = picture.getWidth();
+        height = picture.getHeight();
+
+        // Die Pixel werden zeilenweise kopiert, nicht neu gezeichnet, damit die ARGB-Werte exakt erhalten bleiben.
+        raster = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            picture.getRGB(0, y, width, 1, raster, y * width, width);
+        }
+
+        // Signatur und IHDR: 8 Bit pro Kanal, RGBA, kein Interlacing.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(PNG_SIGNATURE);
+        out.writeBytes(chunk("IHDR", ByteBuffer.allocate(13).putInt(width).putInt(height)
+                .put((byte) 8).put((byte) 6).put((byte) 0).put((byte) 0).put((byte) 0).array()));
+        out.writeBytes(chunk("IDAT", ZLIB_HEADER));
+        head = out.toByteArray();
+
+        bands = new Band[(height + BAND_ROWS - 1) / BAND_ROWS];
+        IntStream.range(0, bands.length).parallel().forEach(b -> bands[b] = encodeBand(raster, b));
+        sample.stop(4L * raster.length);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Speicherbedarf der Vorlage in Bytes: das Raster und alle vorbereiteten Chunks.
+    public long size() {
+        long size = 4L * raster.length + head.length;
+        for (Band band : bands) {
+            size += band.chunk.length;
+        }
+        return size;
+    }
+
+    /**
+     * Versteckt ein Dokument für einen Empfänger und schreibt das PNG-Bild in den Ausgabestrom.
+     *
+     * @param document Zu versteckende Datei als File.
+     * @param sharedSecret Shared-Secret des Empfängers.
+     * @param out Ziel für das PNG-Bild. Der Strom wird nicht geschlossen.
+     * @param listener Empfänger der Fortschrittsmeldungen, kann den Vorgang abbrechen.
+     */
+    public void hide(File document, byte[] sharedSecret, OutputStream out, ProgressListener listener) throws IOException, CryptoException {
+        hide(Steganography.readDocument(document, listener), document.getName(), sharedSecret, out, listener);
+    }
+
+    /**
+     * Wie {@link #hide(File, byte[], OutputStream, ProgressListener)}, das Dokument liegt aber bereits im Speicher vor.
+     *
+     * @param document Inhalt des zu versteckenden Dokuments.
+     * @param fileName Dateiname des Dokuments mit Dateityp.
+     */
+    public void hide(byte[] document, String fileName, byte[] sharedSecret, OutputStream out, ProgressListener listener) throws IOException, CryptoException {
+        write(new byte[0], Steganography.buildCipher(document, fileName, sharedSecret, listener), out, listener);
+    }
+
+    /**
+     * Versteckt ein Dokument für mehrere Empfänger, siehe {@link Steganography#hideBroadcast}.
+     *
+     * @param sharedSecrets Shared-Secrets aller Empfänger.
+     */
+    public void hideBroadcast(File document, List<byte[]> sharedSecrets, OutputStream out, ProgressListener listener) throws IOException, CryptoException {
+        byte[] contentSecret = Steganography.contentSecret();
+        byte[] header = Steganography.recipientTable(sharedSecrets, contentSecret);
+        byte[] cipher = Steganography.buildCipher(Steganography.readDocument(document, listener), document.getName(), contentSecret, listener);
+        write(header, cipher, out, listener);
+    }
+
+    // Bettet Header und Chiffretext in eine Kopie der betroffenen Zeilen ein und schreibt das PNG-Bild. Ohne Header und
+    // Chiffretext wird die Vorlage unverändert geschrieben.
+    void write(byte[] header, byte[] cipher, OutputStream out, ProgressListener listener) throws IOException, CryptoException {
+        long length = (long) header.length + cipher.length;
+        if (length > raster.length) {
+            throw new SteganographyException("This picture is not big enough for this File.");
+        }
+
+        Metrics.Sample sample = Metrics.start("template", "hide");
+        int rows = (int) ((length + width - 1) / width);
+        int changedBands = (rows + BAND_ROWS - 1) / BAND_ROWS;
+        // Die Kopie der betroffenen Zeilen stammt aus dem BufferPool.
+        int copied = Math.min(height, changedBands * BAND_ROWS) * width;
+        int[] pixels = BufferPool.ints(copied);
+        System.arraycopy(raster, 0, pixels, 0, copied);
+
+        listener.progress(ProgressListener.Stage.EMBED, 0, length);
+        for (int i = 0; i < header.length; i++) {
+            pixels[i] = encode(pixels[i], header[i]);
+        }
+        for (int i = 0; i < cipher.length; i++) {
+            pixels[header.length + i] = encode(pixels[header.length + i], cipher[i]);
+        }
+        listener.progress(ProgressListener.Stage.EMBED, length, length);
+        Steganography.checkCancelled(listener);
+
+        listener.progress(ProgressListener.Stage.WRITE, 0, bands.length);
+        out.write(head);
+        long adler = 1;
+        for (int b = 0; b < bands.length; b++) {
+            Band band = b < changedBands ? encodeBand(pixels, b) : bands[b];
+            out.write(band.chunk);
+            adler = combine(adler, band.adler, band.rawLength);
+
+            if (b < changedBands) {
+                listener.progress(ProgressListener.Stage.WRITE, b + 1, bands.length);
+                Steganography.checkCancelled(listener);
+            }
+        }
+        BufferPool.release(pixels);
+
+        byte[] end = ByteBuffer.allocate(DEFLATE_END.length + 4).put(DEFLATE_END).putInt((int) adler).array();
+        out.write(chunk("IDAT", end));
+        out.write(chunk("IEND", new byte[0]));
+        listener.progress(ProgressListener.Stage.WRITE, bands.length, bands.length);
+        sample.stop(length);
+    }
+
+    private Band encodeBand(int[] pixels, int band) {
+        int first = band * BAND_ROWS;
+        int last = Math.min(height, first + BAND_ROWS);
+        return encodeRows(pixels, first * width, width, last - first);
+    }
+
+    /**
+     * Filtert und komprimiert die Zeilen eines Bandes unabhängig von allen anderen Bändern.
+     *
+     * @param pixels ARGB-Werte, die erste Zeile des Bandes beginnt bei offset.
+     * @param rows Anzahl Zeilen des Bandes, höchstens BAND_ROWS.
+     */
+    static Band encodeRows(int[] pixels, int offset, int width, int rows) {
+        int stride = 4 * width;
+
+        // Die Rohdaten und der Deflate-Puffer stammen aus dem BufferPool, die Rohdaten belegen nur den Anfang.
+        int rawLength = rows * (stride + 1);
+        byte[] raw = BufferPool.bytes(rawLength);
+        byte[] previous = new byte[stride];
+        byte[] current = new byte[stride];
+        byte[] filtered = new byte[stride];
+
+        for (int y = 0; y < rows; y++) {
+            // Pixel einer Zeile in die Byte-Reihenfolge Rot --> Grün --> Blau --> Alpha bringen.
+            for (int x = 0; x < width; x++) {
+                int argb = pixels[offset + y * width + x];
+                current[4 * x] = (byte) (argb >> 16);
+                current[4 * x + 1] = (byte) (argb >> 8);
+                current[4 * x + 2] = (byte) argb;
+                current[4 * x + 3] = (byte) (argb >> 24);
+            }
+
+            // Die erste Zeile des Bandes darf sich nicht auf die Zeile darüber beziehen.
+            int position = y * (stride + 1);
+            raw[position] = filter(current, y == 0 ? null : previous, filtered);
+            System.arraycopy(filtered, 0, raw, position + 1, stride);
+
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(raw, 0, rawLength);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(rawLength / 4 + 64);
+        byte[] buffer = BufferPool.bytes(64 * 1024);
+        int n;
+        do {
+            n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            compressed.write(buffer, 0, n);
+        } while (n == buffer.length);
+        deflater.end();
+
+        Adler32 adler = new Adler32();
+        adler.update(raw, 0, rawLength);
+        BufferPool.release(raw);
+        BufferPool.release(buffer);
+        return new Band(chunk("IDAT", compressed.toByteArray()), adler.getValue(), rawLength);
+    }
+
+    // Wählt den PNG-Filter mit der kleinsten Summe der Beträge (übliche Heuristik) und liefert dessen Typ.
+    private static byte filter(byte[] row, byte[] above, byte[] out) {
+        byte[] candidate = new byte[row.length];
+        long best = Long.MAX_VALUE;
+        byte bestType = 0;
+
+        for (byte type = 0; type <= (above == null ? 1 : 4); type++) {
+            long sum = 0;
+            for (int i = 0; i < row.length; i++) {
+                int a = i >= 4 ? row[i - 4] & 0xff : 0;
+                int b = above != null ? above[i] & 0xff : 0;
+                int c = above != null && i >= 4 ? above[i - 4] & 0xff : 0;
+                int predictor;
+                switch (type) {
+                    case 1: predictor = a; break;
+                    case 2: predictor = b; break;
+                    case 3: predictor = (a + b) >> 1; break;
+                    case 4: predictor = paeth(a, b, c); break;
+                    default: predictor = 0;
+                }
+                candidate[i] = (byte) (row[i] - predictor);
+                sum += Math.abs(candidate[i]);
+            }
+
+            if (sum < best) {
+                best = sum;
+                bestType = type;
+                System.arraycopy(candidate, 0, out, 0, row.length);
+            }
+        }
+        return bestType;
+    }
+
+    /**
+     * Gegenstück zu {@link #encodeRows}: Dekomprimiert die Daten eines IDAT-Chunks, der genau ein Band enthält, und
+     * macht die Filter rückgängig.
+     *
+     * @param pixels Ziel für die ARGB-Werte, mindestens rows * width.
+     * @return Adler-32-Prüfsumme der Rohdaten des Bandes.
+     * @throws SteganographyException Falls die Daten kein einzelnes Band dieser Größe enthalten.
+     */
+    static long decodeRows(byte[] data, int dataOffset, int dataLength, int width, int rows, int[] pixels) throws SteganographyException {
+        int stride = 4 * width;
+        int rawLength = rows * (stride + 1);
+        byte[] raw = BufferPool.bytes(rawLength);
+        try {
+            Inflater inflater = new Inflater(true);
+            inflater.setInput(data, dataOffset, dataLength);
+            int n = 0;
+            try {
+                while (n < rawLength) {
+                    int inflated = inflater.inflate(raw, n, rawLength - n);
+                    if (inflated == 0) {
+                        break;
+                    }
+                    n += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new SteganographyException("This picture is damaged.", e);
+            } finally {
+                inflater.end();
+            }
+            if (n != rawLength) {
+                throw new SteganographyException("This picture is damaged.");
+            }
+
+            Adler32 adler = new Adler32();
+            adler.update(raw, 0, rawLength);
+
+            // Filter zeilenweise rückgängig machen. Die erste Zeile eines Bandes bezieht sich nicht auf die Zeile
+            // darüber, sie wird daher mit einer Zeile aus Nullen verglichen.
+            byte[] previous = new byte[stride];
+            byte[] current = new byte[stride];
+            for (int y = 0; y < rows; y++) {
+                int position = y * (stride + 1);
+                byte type = raw[position];
+                for (int i = 0; i < stride; i++) {
+                    int a = i >= 4 ? current[i - 4] & 0xff : 0;
+                    int b = previous[i] & 0xff;
+                    int c = i >= 4 ? previous[i - 4] & 0xff : 0;
+                    int predictor;
+                    switch (type) {
+                        case 0: predictor = 0; break;
+                        case 1: predictor = a; break;
+                        case 2: predictor = b; break;
+                        case 3: predictor = (a + b) >> 1; break;
+                        case 4: predictor = paeth(a, b, c); break;
+                        default: throw new SteganographyException("This picture is damaged.");
+                    }
+                    current[i] = (byte) (raw[position + 1 + i] + predictor);
+                }
+
+                // Byte-Reihenfolge Rot --> Grün --> Blau --> Alpha zurück in ARGB-Werte bringen.
+                for (int x = 0; x < width; x++) {
+                    pixels[y * width + x] = ((current[4 * x + 3] & 0xff) << 24) | ((current[4 * x] & 0xff) << 16)
+                            | ((current[4 * x + 1] & 0xff) << 8) | (current[4 * x + 2] & 0xff);
+                }
+
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            return adler.getValue();
+        } finally {
+            BufferPool.release(raw);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    // Verteilt die Bits eines Bytes wie Embedder auf die niedrigsten beiden Bits von Alpha, Rot, Grün und Blau.
+    static int encode(int argb, byte value) {
+        int v = value & 0xff;
+        int bits = ((v & 0b11) << 24) | (((v >> 2) & 0b11) << 16) | (((v >> 4) & 0b11) << 8) | ((v >> 6) & 0b11);
+        return (argb & 0xfcfcfcfc) | bits;
+    }
+
+    // Gegenstück zu encode: Setzt das Byte aus den niedrigsten beiden Bits von Alpha, Rot, Grün und Blau zusammen.
+    static byte decode(int argb) {
+        return (byte) (((argb >> 24) & 0b11) | (((argb >> 16) & 0b11) << 2) | (((argb >> 8) & 0b11) << 4) | ((argb & 0b11) << 6));
+    }
+
+    // Kombiniert die Adler-32-Prüfsummen zweier aufeinanderfolgender Abschnitte (wie adler32_combine in zlib).
+    private static long combine(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + base - remainder;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= (base << 1)) sum2 -= (base << 1);
+        if (sum2 >= base) sum2 -= base;
+        return (sum2 << 16) | sum1;
+    }
+
+    /**
+     * Schreibt die Adler-32-Prüfsumme eines ganzen Stroms fort, wenn sich darin ein Abschnitt ändert, ohne die übrigen
+     * Abschnitte erneut zu lesen.
+     *
+     * Über die Bytes D_1 .. D_N gilt A = 1 + Summe D_i und B = N + Summe (N - i + 1) * D_i (jeweils modulo 65521).
+     * Ändert sich nur der Abschnitt ab Position offset mit length Bytes, ändert sich A um die Differenz der A-Werte des
+     * Abschnitts, und B um die Differenz der B-Werte des Abschnitts plus (N - offset - length) mal diese Differenz.
+     *
+     * @param adler Bisherige Prüfsumme des ganzen Stroms mit totalLength Bytes.
+     * @param oldAdler Prüfsumme des Abschnitts vor der Änderung.
+     * @param newAdler Prüfsumme des Abschnitts nach der Änderung, bei gleicher Länge.
+     */
+    static long replace(long adler, long totalLength, long offset, long length, long oldAdler, long newAdler) {
+        final long base = 65521;
+        long deltaA = ((newAdler & 0xffff) - (oldAdler & 0xffff)) % base;
+        long deltaB = (((newAdler >> 16) & 0xffff) - ((oldAdler >> 16) & 0xffff)) % base;
+        long tail = (totalLength - offset - length) % base;
+
+        long sum1 = Math.floorMod((adler & 0xffff) + deltaA, base);
+        long sum2 = Math.floorMod(((adler >> 16) & 0xffff) + deltaB + tail * deltaA, base);
+        return (sum2 << 16) | sum1;
+    }
+
+    static byte[] chunk(String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        return ByteBuffer.allocate(12 + data.length).putInt(data.length).put(typeBytes).put(data)
+                .putInt((int) crc.getValue()).array();
+    }
+
+    // Ein fertig codiertes Band: IDAT-Chunk mit den komprimierten Zeilen sowie Prüfsumme und Länge der Rohdaten.
+    static final class Band {
+        final byte[] chunk;
+        final long adler;
+        final long rawLength;
+
+        private Band(byte[] chunk, long adler, long rawLength) {
+            this.chunk = chunk;
+            this.adler = adler;
+            this.rawLength = rawLength;
+        }
+    }
+}
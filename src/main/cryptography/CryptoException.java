@@ -0,0 +1,17 @@
+package main.cryptography;
+
+/**
+ * Fehler bei der Ver- oder Entschlüsselung, beispielsweise durch einen falschen Schlüssel oder beschädigte Daten.
+ */
+public class CryptoException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public CryptoException(String message) {
+        super(message);
+    }
+
+    public CryptoException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,41 @@
+package main.cryptography;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+
+/**
+ * Implementierung der Verfahren, die {@link AES} und {@link DiffieHellman} benötigen.
+ *
+ * Alternative Implementierungen werden mit {@link CryptoProviders#register} angemeldet. Welche davon verwendet wird,
+ * entscheidet {@link CryptoProviders#calibrate} anhand von Messungen. Eine Implementierung muss nicht alle Verfahren
+ * anbieten, nicht unterstützte Verfahren werfen eine {@link java.security.NoSuchAlgorithmException}.
+ */
+public interface CryptoProvider {
+
+    // Eindeutiger Name, unter dem die Auswahl angezeigt und im Profil gespeichert wird.
+    String getName();
+
+    // Neue, nicht initialisierte Cipher-Instanz für "AES/CBC/PKCS5PADDING".
+    Cipher aesCipher() throws GeneralSecurityException;
+
+    // Neue Instanzen für Diffie-Hellman ("DH").
+    KeyPairGenerator dhKeyPairGenerator() throws NoSuchAlgorithmException;
+
+    KeyFactory dhKeyFactory() throws NoSuchAlgorithmException;
+
+    KeyAgreement dhKeyAgreement() throws NoSuchAlgorithmException;
+
+    /**
+     * Liefert eine Implementierung, die einen installierten JCE-Provider verwendet.
+     *
+     * @param provider JCE-Provider, z.B. aus {@link java.security.Security#getProviders()}.
+     */
+    static CryptoProvider jce(Provider provider) {
+        return new JceCryptoProvider(provider);
+    }
+}
@@ -0,0 +1,292 @@
+package main.cryptography;
+
+import main.metrics.Metrics;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.interfaces.DHPublicKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Auswahl der schnellsten {@link CryptoProvider}-Implementierung für AES und Diffie-Hellman.
+ *
+ * Als Kandidaten sind alle installierten JCE-Provider angemeldet, weitere können mit {@link #register} hinzugefügt
+ * werden. {@link #calibrate} misst für jeden Kandidaten den Durchsatz von AES bzw. die Dauer eines Schlüsselaustauschs
+ * auf Bobs Seite und wählt jeweils den schnellsten. Berücksichtigt werden nur Kandidaten, deren Ergebnisse mit der
+ * Standard-Implementierung der JCE übereinstimmen, sodass Bilder und Schlüssel unabhängig von der Auswahl austauschbar
+ * bleiben.
+ *
+ * Das Ergebnis wird in einem Profil gespeichert und bei späteren Starts übernommen, solange sich Java-Version,
+ * Prozessor und Kandidaten nicht geändert haben. Vor der Kalibrierung wird die Standard-Implementierung verwendet.
+ */
+public final class CryptoProviders {
+
+    // Messdauer je Kandidat für AES und Anzahl gemessener Schlüsselaustausche je Kandidat.
+    private static final int AES_WARM_UP = 8;
+    private static final long AES_MEASURE_NANOS = 100_000_000L;
+    private static final int DH_ROUNDS = 4;
+
+    private static final List<CryptoProvider> candidates = new CopyOnWriteArrayList<>();
+
+    private static volatile CryptoProvider aes = JceCryptoProvider.DEFAULT;
+    private static volatile CryptoProvider dh = JceCryptoProvider.DEFAULT;
+    private static volatile String source = "default";
+
+    static {
+        for (Provider provider : Security.getProviders()) {
+            candidates.add(CryptoProvider.jce(provider));
+        }
+    }
+
+    private CryptoProviders() {
+    }
+
+    /**
+     * Meldet eine alternative Implementierung an. Sie wird bei der nächsten Kalibrierung berücksichtigt. Eine bereits
+     * angemeldete Implementierung mit demselben Namen wird ersetzt.
+     */
+    public static void register(CryptoProvider provider) {
+        candidates.removeIf(candidate -> candidate.getName().equals(provider.getName()));
+        candidates.add(provider);
+    }
+
+    // Implementierung für AES bzw. Diffie-Hellman. Jeder Aufruf kann eine andere Auswahl liefern.
+    static CryptoProvider aes() {
+        return aes;
+    }
+
+    static CryptoProvider dh() {
+        return dh;
+    }
+
+    /**
+     * Beschreibt die aktuelle Auswahl, z.B. "aes=SunJCE dh=SunJCE source=profile". Die Quelle gibt an, ob die Auswahl
+     * gemessen (calibrated), aus dem Profil übernommen (profile) oder noch die Standard-Auswahl ist (default).
+     */
+    public static String selection() {
+        return "aes=" + aes.getName() + " dh=" + dh.getName() + " source=" + source;
+    }
+
+    /**
+     * Kalibriert mit dem Profil im cryptor-Verzeichnis des Anwenders (siehe {@link #calibrate(Path)}).
+     */
+    public static void calibrate() throws IOException {
+        calibrate(Paths.get(System.getProperty("user.home"), "cryptor", "crypto.profile"));
+    }
+
+    /**
+     * Übernimmt die Auswahl aus dem Profil oder misst alle Kandidaten und speichert das Ergebnis im Profil.
+     *
+     * @param profile Datei des Profils. Wird sie gelöscht, wird beim nächsten Aufruf neu gemessen.
+     * @throws IOException Falls das Profil nicht gelesen oder gespeichert werden kann. Die gemessene Auswahl gilt in
+     * diesem Fall trotzdem.
+     */
+    public static synchronized void calibrate(Path profile) throws IOException {
+        String fingerprint = fingerprint();
+        IOException readError = null;
+
+        Properties properties = new Properties();
+        if (Files.isRegularFile(profile)) {
+            try (InputStream in = Files.newInputStream(profile)) {
+                properties.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                // Ein unlesbares Profil wird durch eine neue Messung ersetzt, der Fehler wird danach gemeldet.
+                readError = new IOException("Could not read crypto profile.", e);
+            }
+
+            CryptoProvider profileAes = find(properties.getProperty("aes"));
+            CryptoProvider profileDh = find(properties.getProperty("dh"));
+            if (fingerprint.equals(properties.getProperty("fingerprint")) && profileAes != null && profileDh != null) {
+                aes = profileAes;
+                dh = profileDh;
+                source = "profile";
+                return;
+            }
+        }
+
+        Metrics.Sample sample = Metrics.start("crypto", "calibrate");
+        properties.clear();
+        properties.setProperty("fingerprint", fingerprint);
+
+        CryptoProvider fastestAes = JceCryptoProvider.DEFAULT;
+        CryptoProvider fastestDh = JceCryptoProvider.DEFAULT;
+        double bestThroughput = 0;
+        double bestDuration = Double.MAX_VALUE;
+        for (CryptoProvider candidate : candidates) {
+            double throughput = aesThroughput(candidate);
+            if (throughput > 0) {
+                properties.setProperty("aes." + candidate.getName() + ".mb_per_s", String.format(Locale.ROOT, "%.1f", throughput));
+                if (throughput > bestThroughput) {
+                    bestThroughput = throughput;
+                    fastestAes = candidate;
+                }
+            }
+
+            double duration = dhDuration(candidate);
+            if (duration > 0) {
+                properties.setProperty("dh." + candidate.getName() + ".ms", String.format(Locale.ROOT, "%.2f", duration));
+                if (duration < bestDuration) {
+                    bestDuration = duration;
+                    fastestDh = candidate;
+                }
+            }
+        }
+
+        aes = fastestAes;
+        dh = fastestDh;
+        source = "calibrated";
+        properties.setProperty("aes", fastestAes.getName());
+        properties.setProperty("dh", fastestDh.getName());
+        sample.stop(candidates.size());
+
+        try {
+            if (profile.getParent() != null) {
+                Files.createDirectories(profile.getParent());
+            }
+            try (OutputStream out = Files.newOutputStream(profile)) {
+                properties.store(out, "cryptor crypto provider calibration");
+            }
+        } catch (IOException e) {
+            IOException saveError = new IOException("Could not save crypto profile.", e);
+            if (readError != null) {
+                saveError.addSuppressed(readError);
+            }
+            throw saveError;
+        }
+
+        if (readError != null) {
+            throw readError;
+        }
+    }
+
+    private static CryptoProvider find(String name) {
+        if (name == null) {
+            return null;
+        }
+        if (name.equals(JceCryptoProvider.DEFAULT.getName())) {
+            return JceCryptoProvider.DEFAULT;
+        }
+        for (CryptoProvider candidate : candidates) {
+            if (candidate.getName().equals(name)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    // Ein Profil gilt nur für dieselbe Java-Version, denselben Prozessor und dieselben Kandidaten.
+    private static String fingerprint() {
+        StringBuilder fingerprint = new StringBuilder()
+                .append(System.getProperty("java.vendor")).append(' ')
+                .append(System.getProperty("java.vm.version")).append(' ')
+                .append(System.getProperty("os.arch")).append(' ')
+                .append(Runtime.getRuntime().availableProcessors());
+        for (CryptoProvider candidate : candidates) {
+            fingerprint.append(' ').append(candidate.getName());
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Misst den Durchsatz der AES-Verschlüsselung in MB/s.
+     *
+     * @return Durchsatz, oder 0, falls der Kandidat AES nicht anbietet oder ein abweichendes Ergebnis liefert.
+     */
+    private static double aesThroughput(CryptoProvider candidate) {
+        byte[] secret = new byte[256];
+        byte[] plain = new byte[1 << 20];
+        Random random = new Random(42);
+        random.nextBytes(secret);
+        random.nextBytes(plain);
+
+        try {
+            byte[] reference = AES.cipher(JceCryptoProvider.DEFAULT, Cipher.ENCRYPT_MODE, secret).doFinal(plain);
+            byte[] encrypted = AES.cipher(candidate, Cipher.ENCRYPT_MODE, secret).doFinal(plain);
+            byte[] decrypted = AES.cipher(candidate, Cipher.DECRYPT_MODE, secret).doFinal(reference);
+            if (!Arrays.equals(reference, encrypted) || !Arrays.equals(plain, decrypted)) {
+                return 0;
+            }
+
+            // Die ersten Durchläufe dienen dem Aufwärmen, z.B. bis der JIT die AES-Intrinsics verwendet.
+            for (int i = 0; i < AES_WARM_UP; i++) {
+                AES.cipher(candidate, Cipher.ENCRYPT_MODE, secret).doFinal(plain);
+            }
+
+            long bytes = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                AES.cipher(candidate, Cipher.ENCRYPT_MODE, secret).doFinal(plain);
+                bytes += plain.length;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < AES_MEASURE_NANOS);
+            return bytes / (elapsed / 1e9) / 1e6;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Misst die mittlere Dauer eines Schlüsselaustauschs auf Bobs Seite in Millisekunden (siehe {@link
+     * DiffieHellman#bob}): Key-Pair passend zu Alices Parametern erzeugen und Shared-Secret berechnen.
+     *
+     * @return Dauer, oder 0, falls der Kandidat Diffie-Hellman nicht anbietet oder ein abweichendes Shared-Secret
+     * berechnet.
+     */
+    private static double dhDuration(CryptoProvider candidate) {
+        try {
+            KeyPairGenerator aliceGenerator = JceCryptoProvider.DEFAULT.dhKeyPairGenerator();
+            aliceGenerator.initialize(2048);
+            KeyPair alice = aliceGenerator.generateKeyPair();
+
+            long total = 0;
+            for (int round = 0; round <= DH_ROUNDS; round++) {
+                long start = System.nanoTime();
+                PublicKey alicePublic = candidate.dhKeyFactory().generatePublic(new X509EncodedKeySpec(alice.getPublic().getEncoded()));
+                KeyPairGenerator bobGenerator = candidate.dhKeyPairGenerator();
+                bobGenerator.initialize(((DHPublicKey) alicePublic).getParams());
+                KeyPair bob = bobGenerator.generateKeyPair();
+                KeyAgreement bobAgreement = candidate.dhKeyAgreement();
+                bobAgreement.init(bob.getPrivate());
+                bobAgreement.doPhase(alicePublic, true);
+                byte[] bobSecret = bobAgreement.generateSecret();
+                long duration = System.nanoTime() - start;
+
+                // Alice berechnet das Shared-Secret mit der Standard-Implementierung. Es muss übereinstimmen.
+                PublicKey bobPublic = JceCryptoProvider.DEFAULT.dhKeyFactory().generatePublic(new X509EncodedKeySpec(bob.getPublic().getEncoded()));
+                KeyAgreement aliceAgreement = JceCryptoProvider.DEFAULT.dhKeyAgreement();
+                aliceAgreement.init(alice.getPrivate());
+                aliceAgreement.doPhase(bobPublic, true);
+                if (!Arrays.equals(bobSecret, aliceAgreement.generateSecret())) {
+                    return 0;
+                }
+
+                // Die erste Runde dient dem Aufwärmen.
+                if (round > 0) {
+                    total += duration;
+                }
+            }
+            return total / 1e6 / DH_ROUNDS;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            return 0;
+        }
+    }
+}
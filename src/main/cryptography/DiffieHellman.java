@@ -1,10 +1,14 @@
 package main.cryptography;
 
+import main.metrics.Metrics;
+
 import java.security.*;
 import java.security.spec.*;
 import javax.crypto.*;
 import javax.crypto.spec.*;
 import javax.crypto.interfaces.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Klasse zum sicheren Austausch von symmetrischen Schlüsseln zur Ver- und Entschlüsselung.
@@ -22,15 +26,42 @@ import javax.crypto.interfaces.*;
  */
 public class DiffieHellman {
 
+    // Im Voraus erzeugte Schlüsselpaare für Alice, damit das Anlegen eines Kontaktes nicht auf die Erzeugung wartet.
+    private static final int PREFETCH_LIMIT = 4;
+    private static final BlockingQueue<byte[][]> prefetched = new LinkedBlockingQueue<>(PREFETCH_LIMIT);
+
+    /**
+     * Erzeugt bis zu count Schlüsselpaare für Alice im Voraus, z.B. in einem Hintergrund-Thread beim Programmstart.
+     * Spätere Aufrufe von {@link #alice()} verwenden diese Schlüsselpaare, solange welche vorhanden sind.
+     *
+     * @param count Anzahl zu erzeugender Schlüsselpaare.
+     */
+    public static void prefetch(int count) throws NoSuchAlgorithmException {
+        for (int i = 0; i < count && prefetched.remainingCapacity() > 0; i++) {
+            prefetched.offer(generateAlice());
+        }
+    }
+
     /**
      * Diese Methode initialisiert den DHKE. Es wird ein Private-Public-Key-Pair für den DHKE erzeugt und übermittelt.
      *
      * @return Menge aus Alices' Public- und Private-Key.
      */
     public static byte[][] alice() throws NoSuchAlgorithmException {
+        byte[][] keys = prefetched.poll();
+        if (keys != null) {
+            Metrics.increment("dh.alice.prefetched");
+            return keys;
+        }
+
+        return generateAlice();
+    }
+
+    private static byte[][] generateAlice() throws NoSuchAlgorithmException {
+        Metrics.Sample sample = Metrics.start("dh", "alice");
 
         // Erzeuge einen Schlüsselgenerator für Alice im DH-Modus und initialisiere diesen.
-        KeyPairGenerator aliceKpairGen = KeyPairGenerator.getInstance("DH");
+        KeyPairGenerator aliceKpairGen = CryptoProviders.dh().dhKeyPairGenerator();
         aliceKpairGen.initialize(2048);
 
         // Erzeuge ein Private-Public-Key-Pair
@@ -40,6 +71,7 @@ public class DiffieHellman {
         byte[] alicePrivKeyEnc = aliceKpair.getPrivate().getEncoded();
         byte[] alicePubKeyEnc = aliceKpair.getPublic().getEncoded();
 
+        sample.stop(0);
         return new byte[][]{alicePrivKeyEnc, alicePubKeyEnc};
     }
 
@@ -51,9 +83,10 @@ public class DiffieHellman {
      * @return Menge aus Bob's Public-Key, Private-Key und Shared-Secret.
      */
     public static byte[][] bob(byte[] alicePubKeyEnc) throws NoSuchAlgorithmException, InvalidKeySpecException, InvalidAlgorithmParameterException, InvalidKeyException {
+        Metrics.Sample sample = Metrics.start("dh", "bob");
 
         // Erzeuge eine Key-Factory und Key-Specs, um den codierten Public-Key von Alice in einen Schlüssel umzuwandeln.
-        KeyFactory bobKeyFac = KeyFactory.getInstance("DH");
+        KeyFactory bobKeyFac = CryptoProviders.dh().dhKeyFactory();
         X509EncodedKeySpec x509KeySpec = new X509EncodedKeySpec(alicePubKeyEnc);
         PublicKey alicePubKey = bobKeyFac.generatePublic(x509KeySpec);
 
@@ -64,7 +97,7 @@ public class DiffieHellman {
 
         // Nun kann Bob sein Private-Public-Key-Pair erzeugen.
         // Dafür benötigt er einen Schlüsselgenerator im DH-Modus.
-        KeyPairGenerator bobKpairGen = KeyPairGenerator.getInstance("DH");
+        KeyPairGenerator bobKpairGen = CryptoProviders.dh().dhKeyPairGenerator();
         bobKpairGen.initialize(dhParamFromAlicePubKey);
         KeyPair bobKpair = bobKpairGen.generateKeyPair();
 
@@ -75,12 +108,14 @@ public class DiffieHellman {
         // Bob kann nun bereits das Shared-Secret berechnen (Alice benötigt  zu diesem Zeitunkt noch Bob's Public-Key).
         // Bob initialisert mit seinem Private-Key ein Key-Agreement und übergibt diesem Alices' Public-Key, um den
         // DHKE auf seiner Seite abzuschließen.
-        KeyAgreement bobKeyAgree = KeyAgreement.getInstance("DH");
+        KeyAgreement bobKeyAgree = CryptoProviders.dh().dhKeyAgreement();
         bobKeyAgree.init(bobKpair.getPrivate());
         bobKeyAgree.doPhase(alicePubKey, true);
 
         // Gib Bob's Private- und Public-Key zurück, sowie das Shared-Secret (Aus dem Key-Agreement ableiten).
-        return new byte[][]{bobPrivKeyEnc, bobPubKeyEnc, bobKeyAgree.generateSecret()};
+        byte[][] keys = new byte[][]{bobPrivKeyEnc, bobPubKeyEnc, bobKeyAgree.generateSecret()};
+        sample.stop(0);
+        return keys;
     }
 
     /**
@@ -92,24 +127,27 @@ public class DiffieHellman {
      * @return Shared-Secret von Alice, als Byte-Array codiert.
      */
     public static byte[] aliceComplete(byte[] alicePrivKeyEnc, byte[] bobPubKeyEnc) throws NoSuchAlgorithmException, InvalidKeySpecException, InvalidKeyException {
+        Metrics.Sample sample = Metrics.start("dh", "aliceComplete");
 
         // Erzeuge eine Key-Factory und Key-Specs, um den codierten Private-Key von Alice in einen Schlüssel umzuwandeln.
-        KeyFactory alicePrivKeyFac = KeyFactory.getInstance("DH");
+        KeyFactory alicePrivKeyFac = CryptoProviders.dh().dhKeyFactory();
         PKCS8EncodedKeySpec pkcs8KeySpec = new PKCS8EncodedKeySpec(alicePrivKeyEnc);
         PrivateKey alicePrivKey = alicePrivKeyFac.generatePrivate(pkcs8KeySpec);
 
         // Erzeuge eine Key-Factory und Key-Specs, um den codierten Public-Key von Bob in einen Schlüssel umzuwandeln.
-        KeyFactory bobPubKeyFac = KeyFactory.getInstance("DH");
+        KeyFactory bobPubKeyFac = CryptoProviders.dh().dhKeyFactory();
         X509EncodedKeySpec x509KeySpec = new X509EncodedKeySpec(bobPubKeyEnc);
         PublicKey bobPubKey = bobPubKeyFac.generatePublic(x509KeySpec);
 
         // Alice kann nun abschließend das Shared-Secret berechnen. Alice initialisert mit ihrem Private-Key genau wie
         // Bob ein Key-Agreement und übergibt diesem Bob's Public-Key, um den DHKE auf ihrer Seite abzuschließen.
-        KeyAgreement aliceKeyAgree = KeyAgreement.getInstance("DH");
+        KeyAgreement aliceKeyAgree = CryptoProviders.dh().dhKeyAgreement();
         aliceKeyAgree.init(alicePrivKey);
         aliceKeyAgree.doPhase(bobPubKey, true);
 
         // Gib  das Shared-Secret zurück, abgeleitet aus dem Key-Agreement.
-        return aliceKeyAgree.generateSecret();
+        byte[] sharedSecret = aliceKeyAgree.generateSecret();
+        sample.stop(0);
+        return sharedSecret;
     }
 }
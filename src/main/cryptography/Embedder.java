@@ -0,0 +1,197 @@
+package main.cryptography;
+
+import main.metrics.Metrics;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Codiert einen Chiffretext fortlaufend in die Pixel eines Bildes, ein Byte pro Pixel (siehe {@link Steganography#hide}).
+ *
+ * Der Chiffretext kann in beliebig vielen Teilen übergeben werden. So kann mit dem Einbetten bereits begonnen werden,
+ * während der Rest des Dokuments noch gelesen bzw. verschlüsselt wird.
+ *
+ * Nach {@link #scatter} landen alle weiteren Bytes in Pixeln, die über eine {@link PixelSelection} im restlichen Bild
+ * verteilt sind. Die übrigen Pixel bleiben dann unverändert.
+ *
+ * Die Pixel des Ergebnisses liegen in einem Array aus dem {@link BufferPool}, das mit {@link Steganography#release}
+ * zurückgegeben werden kann.
+ */
+final class Embedder {
+
+    private static final byte AES_MASK = (byte) 0b00000011;
+    private static final byte RGB_MASK = (byte) 0b11111100;
+
+    // Größe der Blöcke, in denen Zufallswerte für die restlichen Pixel erzeugt werden.
+    private static final int FILL_CHUNK = 1 << 16;
+
+    private final BufferedImage img;
+    private final int[] pixels;
+    private final ProgressListener listener;
+    private final int width;
+    private final int height;
+    private final long totalPixels;
+
+    // Position des Lesekopfes. Zu Beginn startet er außerhalb des Bildes.
+    private int x = -1;
+    private int y = 0;
+    private long pixel = 0;
+
+    // Auswahl der Pixel im sparsamen Modus und Anzahl bereits darin codierter Bytes. Ohne Auswahl wird fortlaufend
+    // codiert.
+    private PixelSelection selection;
+    private long scattered = 0;
+
+    /**
+     * Das Bild wird in ein neues BufferedImage kopiert, um die ARGB-Werte zu modifizieren, ohne das übergebene Bild zu
+     * verändern.
+     *
+     * Dabei wird ein Farbraum verwendet, der neben RGB-Kanälen auch einen Alpha-Kanal besitzt und diesen somit
+     * automatisch erstellt, falls das Ausgangsbild keinen besitzt. Das Bild entspricht TYPE_INT_ARGB, seine Pixel
+     * liegen aber in einem geliehenen Array, das wie ein neues zunächst geleert wird.
+     */
+    Embedder(BufferedImage picture, ProgressListener listener) {
+        this.listener = listener;
+        width = picture.getWidth();
+        height = picture.getHeight();
+        totalPixels = (long) width * height;
+
+        Metrics.Sample redraw = Metrics.start("steganography", "redraw");
+        pixels = BufferPool.ints(width * height);
+        Arrays.fill(pixels, 0, width * height, 0);
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, width * height), width, height, width,
+                new int[]{0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000}, null);
+        img = new BufferedImage(ColorModel.getRGBdefault(), raster, false, null);
+        Graphics2D g = img.createGraphics();
+        g.drawImage(picture, 0, 0, null);
+        g.dispose();
+        redraw.stop(4 * totalPixels);
+    }
+
+    // Für jedes Byte des Chiffretextes: Bits auf ARGB-Wert eines Pixels verteilen.
+    void write(byte[] cipher, int offset, int length) throws SteganographyException {
+        for (int n = offset; n < offset + length; n++) {
+            progress();
+
+            if (selection != null) {
+                // Im sparsamen Modus springt der Lesekopf auf das nächste ausgewählte Pixel.
+                if (scattered >= selection.size()) {
+                    throw new SteganographyException("This picture is not big enough for this File.");
+                }
+                long index = selection.pixel(scattered++);
+                put((int) (index % width), (int) (index / width), cipher[n]);
+                continue;
+            }
+
+            // Zunächst rückt der Lesekopf ein Pixel weiter. Am Ende einer Zeile wird in die nächste gesprungen.
+            x++;
+            if (x >= width) {
+                y++;
+                if (y >= height) {
+                    throw new SteganographyException("This picture is not big enough for this File.");
+                }
+                x = 0;
+            }
+
+            put(x, y, cipher[n]);
+        }
+    }
+
+    /**
+     * Wechselt in den sparsamen Modus: Alle weiteren Bytes werden auf die per Secret ausgewählten Pixel hinter dem
+     * Lesekopf verteilt, beginnend mit der Markierung aus {@link Steganography#sparseMarker}. Pixel, die dabei nicht
+     * benötigt werden, bleiben unverändert und werden auch von {@link #finish} nicht mit Zufallswerten gefüllt.
+     *
+     * @param secret Shared-Secret bzw. Inhalts-Schlüssel, von dem die Auswahl abgeleitet wird.
+     */
+    void scatter(byte[] secret) throws CryptoException {
+        long start = (long) y * width + x + 1;
+        selection = new PixelSelection(secret, start, totalPixels - start);
+
+        byte[] marker = Steganography.sparseMarker(secret);
+        write(marker, 0, marker.length);
+    }
+
+    // Füllt die restlichen Pixel mit Zufallswerten und liefert das manipulierte Bild.
+    BufferedImage finish() {
+
+        // Wurden noch nicht alle Pixel manipuliert, so werden die restlichen Pixel mit zufälligen Werten beschrieben.
+        // Im sparsamen Modus bleiben sie unverändert, damit das PNG komprimierbar bleibt.
+        if (selection == null && x != width-1 && y != height-1) {
+            Metrics.Sample fill = Metrics.start("steganography", "fill");
+
+            // Dafür werden blockweise Zufallswerte erzeugt, bis alle verbleibenden Pixel beschrieben sind. Der Block
+            // stammt aus dem BufferPool, anstatt ein Array für alle verbleibenden Pixel anzulegen.
+            long remaining = totalPixels - ((long) y * width + x + 1);
+            long filled = remaining;
+            byte[] randoms = BufferPool.bytes(FILL_CHUNK);
+            Random random = new Random();
+            while (remaining > 0) {
+                random.nextBytes(randoms);
+
+                // Die Codierung der Pixel erfolgt analog zum Chiffretext.
+                int count = (int) Math.min(remaining, randoms.length);
+                for (int i = 0; i < count; i++) {
+                    progress();
+
+                    x++;
+                    if (x >= width) {
+                        y++;
+                        if (y >= height) {
+                            throw new IllegalStateException("Error while encrypting: Something went wrong.");
+                        }
+                        x = 0;
+                    }
+
+                    put(x, y, randoms[i]);
+                }
+                remaining -= count;
+            }
+            BufferPool.release(randoms);
+            fill.stop(filled);
+        }
+
+        listener.progress(ProgressListener.Stage.EMBED, totalPixels, totalPixels);
+        return img;
+    }
+
+    private void progress() {
+        if (++pixel % Steganography.PROGRESS_INTERVAL == 0) {
+            listener.progress(ProgressListener.Stage.EMBED, pixel, totalPixels);
+            Steganography.checkCancelled(listener);
+        }
+    }
+
+    // Codiert ein Byte in das übergebene Pixel.
+    private void put(int x, int y, byte aesByte) {
+
+        // Der ARGB-Wert des aktuellen Pixels wird direkt aus dem Pixel-Array geladen.
+        // Alpha --> Rot --> Grün --> Blau
+        int index = y * width + x;
+        int rgbInt = pixels[index];
+
+        // In vier Runden werden jeweils 2 Bits in ein Byte des ARGB-Wertes codiert.
+        //
+        // Dafür wird das Chiffre-Byte mit einer Maske so manipuliert, dass alle Bits außer den niedrigsten beiden
+        // 0 sind. Das ARGB-Byte wird im Gegensatz dazu so manipuliert, dass genau die ersten beiden Bits 0 sind.
+        // Zum Schluss werden die beiden maskierten Bytes miteinander ODER-Verknüpft, sodass die restlichen höheren
+        // Bits erhalten bleiben, wodurch der ursprüngliche Farbwert kaum abweicht.
+        for (int i = 0; i < 4; i++) {
+            int shift = 24 - 8 * i;
+            byte insert = (byte)(aesByte & AES_MASK);
+            byte into = (byte)((rgbInt >> shift) & RGB_MASK);
+            rgbInt = (rgbInt & ~(0xff << shift)) | (((insert | into) & 0xff) << shift);
+
+            aesByte = (byte)(aesByte >> 2);
+        }
+
+        // Der mit den Informationen angereicherte ARGB-Wert wird nach der Codierung in das Bild geschrieben.
+        pixels[index] = rgbInt;
+    }
+}
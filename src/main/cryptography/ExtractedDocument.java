@@ -0,0 +1,25 @@
+package main.cryptography;
+
+/**
+ * Ergebnis einer Extraktion: das entschlüsselte Dokument und dessen ursprünglicher Dateiname mit Dateityp.
+ */
+public final class ExtractedDocument {
+
+    private final byte[] content;
+    private final String fileName;
+
+    public ExtractedDocument(byte[] content, String fileName) {
+        this.content = content;
+        this.fileName = fileName;
+    }
+
+    // Inhalt des Dokuments.
+    public byte[] getContent() {
+        return content;
+    }
+
+    // Ursprünglicher Dateiname, oder null, falls dieser nicht entschlüsselt werden konnte.
+    public String getFileName() {
+        return fileName;
+    }
+}
@@ -0,0 +1,346 @@
+package main.cryptography;
+
+import main.metrics.Metrics;
+
+import javax.crypto.Cipher;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Versteckt Dokumente in Bildern und schreibt das Ergebnis als PNG, aufgeteilt in Stufen mit je einem eigenen Thread:
+ *
+ * Lesen (Bild decodieren, Dokument blockweise lesen) --> AES --> Einbetten --> PNG-Encoder --> asynchrones Schreiben
+ *
+ * Zwischen den Stufen eines Jobs liegen beschränkte Warteschlangen mit Blöcken des Dokuments bzw. Chiffretextes. So
+ * wird bereits eingebettet, während das Dokument noch gelesen und verschlüsselt wird. Jede Stufe bearbeitet die Jobs
+ * in der Reihenfolge ihrer Übergabe, sodass z.B. das nächste Dokument gelesen wird, während das vorherige Bild noch
+ * codiert und geschrieben wird. Der Durchsatz einer Folge von Jobs ist damit durch die langsamste Stufe begrenzt und
+ * nicht durch die Summe aller Stufen.
+ *
+ * Das Ergebnis ist identisch zu {@link Steganography#hide} bzw. {@link Steganography#hideBroadcast} mit
+ * anschließendem {@link ImageIO#write}, im sparsamen Modus zu {@link Steganography#hideSparse} bzw.
+ * {@link Steganography#hideBroadcastSparse}.
+ */
+public final class HidePipeline implements AutoCloseable {
+
+    // Größe der Dokument-Blöcke und Anzahl Blöcke, die zwischen zwei Stufen warten dürfen.
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int QUEUE_CAPACITY = 4;
+
+    // Markiert das Ende eines Datenstroms in einer Warteschlange.
+    private static final byte[] END = new byte[0];
+
+    private final ExecutorService read = stage("read");
+    private final ExecutorService encrypt = stage("encrypt");
+    private final ExecutorService embed = stage("embed");
+    private final ExecutorService encode = stage("encode");
+
+    private final Semaphore jobs;
+
+    /**
+     * @param maxJobs Höchstzahl gleichzeitig angenommener Jobs. Weitere Aufrufe von {@link #submit} warten.
+     */
+    public HidePipeline(int maxJobs) {
+        jobs = new Semaphore(maxJobs);
+    }
+
+    /**
+     * Versteckt ein Dokument für einen Empfänger.
+     *
+     * @param document Zu versteckende Datei.
+     * @param picture Liefert das decodierte Trägerbild, z.B. aus einem Cache. Wird in der Lese-Stufe aufgerufen.
+     * @param sharedSecret Shared-Secret des Empfängers.
+     * @param output Zieldatei für das PNG-Bild.
+     * @param listener Empfänger der Fortschrittsmeldungen, kann den Job abbrechen.
+     * @return Future, die nach dem vollständigen Schreiben mit der Zieldatei abgeschlossen wird.
+     */
+    public CompletableFuture<File> submit(File document, Callable<BufferedImage> picture, byte[] sharedSecret,
+                                          File output, ProgressListener listener) throws InterruptedException {
+        return submit(document, picture, sharedSecret, false, output, listener);
+    }
+
+    /**
+     * Wie {@link #submit(File, Callable, byte[], File, ProgressListener)}, optional im sparsamen Modus.
+     *
+     * @param sparse Nur die benötigten Pixel verändern, siehe {@link Steganography#hideSparse}.
+     */
+    public CompletableFuture<File> submit(File document, Callable<BufferedImage> picture, byte[] sharedSecret, boolean sparse,
+                                          File output, ProgressListener listener) throws InterruptedException {
+        return submit(new Job(document, picture, sharedSecret, null, sparse, output, listener));
+    }
+
+    /**
+     * Versteckt ein Dokument für mehrere Empfänger, siehe {@link Steganography#hideBroadcast}.
+     *
+     * @param sharedSecrets Shared-Secrets aller Empfänger.
+     */
+    public CompletableFuture<File> submitBroadcast(File document, Callable<BufferedImage> picture, List<byte[]> sharedSecrets,
+                                                   File output, ProgressListener listener) throws InterruptedException, CryptoException {
+        return submitBroadcast(document, picture, sharedSecrets, false, output, listener);
+    }
+
+    /**
+     * Wie {@link #submitBroadcast(File, Callable, List, File, ProgressListener)}, optional im sparsamen Modus.
+     *
+     * @param sparse Nur die benötigten Pixel verändern, siehe {@link Steganography#hideBroadcastSparse}.
+     */
+    public CompletableFuture<File> submitBroadcast(File document, Callable<BufferedImage> picture, List<byte[]> sharedSecrets, boolean sparse,
+                                                   File output, ProgressListener listener) throws InterruptedException, CryptoException {
+        byte[] contentSecret = Steganography.contentSecret();
+        byte[] header = Steganography.recipientTable(sharedSecrets, contentSecret);
+        return submit(new Job(document, picture, contentSecret, header, sparse, output, listener));
+    }
+
+    private CompletableFuture<File> submit(Job job) throws InterruptedException {
+        jobs.acquire();
+        job.result.whenComplete((file, e) -> jobs.release());
+
+        // Alle Stufen müssen die Jobs in derselben Reihenfolge erhalten, sonst könnten zwei Jobs gegenseitig auf ihre
+        // Warteschlangen warten.
+        synchronized (this) {
+            read.execute(() -> job.run(job::read));
+            encrypt.execute(() -> job.run(job::encrypt));
+            embed.execute(() -> job.run(job::embed));
+            encode.execute(() -> job.run(job::encode));
+        }
+        return job.result;
+    }
+
+    @Override
+    public void close() {
+        read.shutdown();
+        encrypt.shutdown();
+        embed.shutdown();
+        encode.shutdown();
+    }
+
+    private static ExecutorService stage(String name) {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cryptor-pipeline-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Ein Arbeitsschritt eines Jobs.
+    @FunctionalInterface
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    private static final class Job {
+        private final File document;
+        private final Callable<BufferedImage> picture;
+        private final byte[] secret;
+        private final byte[] header;
+        private final boolean sparse;
+        private final File output;
+        private final ProgressListener listener;
+
+        private final BlockingQueue<byte[]> plain = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final BlockingQueue<byte[]> cipher = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final CompletableFuture<BufferedImage> carrier = new CompletableFuture<>();
+        private final CompletableFuture<BufferedImage> embedded = new CompletableFuture<>();
+        private final CompletableFuture<File> result = new CompletableFuture<>();
+
+        private Job(File document, Callable<BufferedImage> picture, byte[] secret, byte[] header, boolean sparse,
+                    File output, ProgressListener listener) {
+            this.document = document;
+            this.picture = picture;
+            this.secret = secret;
+            this.header = header;
+            this.sparse = sparse;
+            this.output = output;
+            this.listener = listener;
+        }
+
+        // Führt einen Arbeitsschritt aus, sofern der Job nicht bereits fehlgeschlagen ist.
+        private void run(Step step) {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                step.run();
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        // Das Ergebnis wird zuerst abgeschlossen, damit die ursprüngliche Ursache gemeldet wird und nicht der Abbruch
+        // der wartenden Stufen.
+        private void fail(Throwable e) {
+            result.completeExceptionally(e);
+            carrier.completeExceptionally(e);
+            embedded.completeExceptionally(e);
+        }
+
+        // Stufe 1: Trägerbild decodieren und das Dokument blockweise lesen.
+        private void read() throws Exception {
+            Metrics.Sample sample = Metrics.start("pipeline", "read");
+            long total = document.length();
+            listener.progress(ProgressListener.Stage.READ, 0, total);
+
+            // Das Bild wird zuerst geladen, da die Einbettung ohne Bild nicht beginnen kann.
+            carrier.complete(picture.call());
+
+            long processed = 0;
+            try (FileChannel in = FileChannel.open(document.toPath())) {
+                int length;
+                do {
+                    // Volle Blöcke stammen aus dem BufferPool und werden nach der Verschlüsselung zurückgegeben.
+                    byte[] chunk = BufferPool.bytes(CHUNK_SIZE);
+                    length = fill(in, ByteBuffer.wrap(chunk, 0, CHUNK_SIZE));
+                    if (length < CHUNK_SIZE) {
+                        byte[] last = Arrays.copyOf(chunk, length);
+                        BufferPool.release(chunk);
+                        chunk = last;
+                    }
+                    if (length > 0) {
+                        put(plain, chunk);
+                        processed += length;
+                        listener.progress(ProgressListener.Stage.READ, processed, total);
+                        Steganography.checkCancelled(listener);
+                    }
+                } while (length == CHUNK_SIZE);
+            }
+            put(plain, END);
+            sample.stop(processed);
+        }
+
+        // Stufe 2: Blöcke mit AES verschlüsseln und den Chiffretext wie bei Steganography.hide zusammensetzen.
+        private void encrypt() throws Exception {
+            Metrics.Sample sample = Metrics.start("pipeline", "encrypt");
+            Cipher aes;
+            try {
+                aes = AES.cipher(Cipher.ENCRYPT_MODE, secret);
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                throw new CryptoException("Error while encrypting.", e);
+            }
+
+            long total = document.length();
+            long processed = 0;
+            for (byte[] chunk = take(plain); chunk != END; chunk = take(plain)) {
+                byte[] encrypted = aes.update(chunk);
+                if (encrypted != null && encrypted.length > 0) {
+                    put(cipher, encrypted);
+                }
+                processed += chunk.length;
+                BufferPool.release(chunk);
+                listener.progress(ProgressListener.Stage.ENCRYPT, processed, total);
+                Steganography.checkCancelled(listener);
+            }
+
+            try {
+                put(cipher, aes.doFinal());
+            } catch (GeneralSecurityException e) {
+                throw new CryptoException("Error while encrypting.", e);
+            }
+            put(cipher, Steganography.trailer(document.getName(), secret));
+            put(cipher, END);
+            sample.stop(processed);
+        }
+
+        // Stufe 3: Empfänger-Tabelle und Chiffretext fortlaufend bzw. auf die ausgewählten Pixel codieren.
+        private void embed() throws Exception {
+            Embedder embedder = new Embedder(get(carrier), listener);
+
+            Metrics.Sample sample = Metrics.start("pipeline", "embed");
+            long processed = 0;
+            if (header != null) {
+                embedder.write(header, 0, header.length);
+                processed += header.length;
+            }
+            if (sparse) {
+                embedder.scatter(secret);
+            }
+            for (byte[] chunk = take(cipher); chunk != END; chunk = take(cipher)) {
+                embedder.write(chunk, 0, chunk.length);
+                processed += chunk.length;
+            }
+            embedded.complete(embedder.finish());
+            sample.stop(processed);
+        }
+
+        // Stufe 4: PNG codieren und asynchron schreiben. Der Encoder arbeitet weiter, während geschrieben wird.
+        private void encode() throws Exception {
+            BufferedImage img = get(embedded);
+
+            Metrics.Sample sample = Metrics.start("pipeline", "encode");
+            listener.progress(ProgressListener.Stage.WRITE, 0, 1);
+            // Ohne eigenen ImageOutputStream würde ImageIO den Strom zunächst in eine temporäre Datei puffern.
+            AsyncFileOutputStream out = new AsyncFileOutputStream(output.toPath());
+            try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+                if (!ImageIO.write(img, "png", stream)) {
+                    throw new IOException("No PNG writer available.");
+                }
+            } finally {
+                out.close();
+                Steganography.release(img);
+            }
+            Steganography.checkCancelled(listener);
+            listener.progress(ProgressListener.Stage.WRITE, 1, 1);
+            sample.stop(out.position());
+
+            result.complete(output);
+        }
+
+        // Liest, bis der Block voll oder die Datei zu Ende ist, und liefert die Anzahl gelesener Bytes.
+        private static int fill(FileChannel in, ByteBuffer chunk) throws IOException {
+            while (chunk.hasRemaining() && in.read(chunk) >= 0) {
+                continue;
+            }
+            return chunk.position();
+        }
+
+        // Legt einen Block in die Warteschlange. Ist diese voll, wird gewartet, bis die nächste Stufe aufholt.
+        private void put(BlockingQueue<byte[]> queue, byte[] chunk) throws InterruptedException {
+            while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                checkAborted();
+            }
+        }
+
+        private byte[] take(BlockingQueue<byte[]> queue) throws InterruptedException {
+            byte[] chunk;
+            while ((chunk = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                checkAborted();
+            }
+            return chunk;
+        }
+
+        private <T> T get(CompletableFuture<T> future) throws InterruptedException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                // Eine andere Stufe ist fehlgeschlagen und hat den Job bereits beendet.
+                throw new CancellationException();
+            }
+        }
+
+        // Bricht ab, falls eine andere Stufe fehlgeschlagen ist oder der Job abgebrochen wurde.
+        private void checkAborted() {
+            if (result.isDone()) {
+                throw new CancellationException();
+            }
+            Steganography.checkCancelled(listener);
+        }
+    }
+}
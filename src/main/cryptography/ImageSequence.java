@@ -0,0 +1,155 @@
+package main.cryptography;
+
+import main.metrics.Metrics;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Versteckt einen Datenstrom unbekannter Länge in einer Folge von Bildern, z.B. die Ausgabe von "tar c ...".
+ *
+ * Der Strom wird in Abschnitte zerlegt, die jeweils ein Trägerbild vollständig füllen. Die Trägerbilder werden reihum
+ * aus einem Pool verwendet. Jedes Bild wird ausgegeben, sobald sein Abschnitt gelesen ist, sodass das erste Bild lange
+ * vor dem Ende des Stroms vorliegt. Im Speicher liegen nur der aktuelle Abschnitt und das aktuelle Bild.
+ *
+ * Jeder Abschnitt wird wie bei {@link Steganography#hideBroadcast} mit einem eigenen zufälligen Inhalts-Schlüssel
+ * verschlüsselt, der für den Empfänger verpackt wird. So werden keine zwei Abschnitte mit demselben Schlüssel und
+ * Initialisierungsvektor verschlüsselt. Anstelle des Dateinamens wird verschlüsselt abgelegt, zu welchem Strom das Bild
+ * gehört, an welcher Stelle es steht und ob es das letzte ist:
+ *
+ * Strom-ID / Index [ / end]
+ *
+ * Beim Extrahieren wird so erkannt, wenn Bilder fehlen, vertauscht sind oder aus einem anderen Strom stammen.
+ */
+public final class ImageSequence {
+
+    // Reserve je Bild für Empfänger-Tabelle, AES-Padding, Flags und Abschnitts-Kennung.
+    private static final int SEGMENT_OVERHEAD = 128;
+    private static final String END = "end";
+
+    private ImageSequence() {
+    }
+
+    // Nimmt die fertigen Bilder der Reihe nach entgegen, z.B. um sie als PNG zu schreiben.
+    @FunctionalInterface
+    public interface Sink {
+        void accept(int index, BufferedImage picture) throws IOException;
+    }
+
+    /**
+     * Liefert die Anzahl Bytes des Stroms, die in einem Bild untergebracht werden.
+     *
+     * @param carrier Trägerbild.
+     */
+    public static int capacity(BufferedImage carrier) {
+        return Math.max(0, carrier.getWidth() * carrier.getHeight() - SEGMENT_OVERHEAD);
+    }
+
+    /**
+     * Liest den Strom bis zu seinem Ende und versteckt ihn abschnittsweise in Bildern.
+     *
+     * @param in Zu versteckender Datenstrom. Wird nicht geschlossen.
+     * @param carriers Pool von Trägerbildern, die reihum verwendet werden. Sie werden nicht verändert.
+     * @param sharedSecret Shared-Secret des Empfängers.
+     * @param sink Empfänger der fertigen Bilder, in der Reihenfolge des Stroms.
+     * @return Anzahl erzeugter Bilder.
+     */
+    public static int hide(InputStream in, List<BufferedImage> carriers, byte[] sharedSecret, Sink sink) throws IOException, CryptoException {
+        if (carriers.isEmpty()) {
+            throw new IllegalArgumentException("At least one carrier picture is required.");
+        }
+        for (BufferedImage carrier : carriers) {
+            if (capacity(carrier) == 0) {
+                throw new SteganographyException("This picture is not big enough for this File.");
+            }
+        }
+
+        String streamId = streamId();
+        List<byte[]> recipients = Collections.singletonList(sharedSecret);
+
+        // Ein vorausgelesenes Byte zeigt, ob nach einem vollen Abschnitt noch Daten folgen.
+        int next = in.read();
+        int index = 0;
+        do {
+            BufferedImage carrier = carriers.get(index % carriers.size());
+            byte[] buffer = new byte[capacity(carrier)];
+            int length = 0;
+            if (next >= 0) {
+                buffer[length++] = (byte) next;
+                length += in.readNBytes(buffer, length, buffer.length - length);
+                next = length == buffer.length ? in.read() : -1;
+            }
+
+            Metrics.Sample sample = Metrics.start("stream", "hide");
+            byte[] segment = length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+            String name = streamId + "/" + index + (next < 0 ? "/" + END : "");
+            BufferedImage picture = Steganography.hideBroadcast(segment, name, carrier, recipients, ProgressListener.NONE);
+            sample.stop(length);
+
+            sink.accept(index++, picture);
+        } while (next >= 0);
+
+        return index;
+    }
+
+    /**
+     * Extrahiert einen mit {@link #hide} versteckten Strom aus einer Folge von Bildern und schreibt ihn fortlaufend
+     * in den Ausgabestrom. Die Bilder werden einzeln decodiert.
+     *
+     * @param pictures Bilder in der Reihenfolge des Stroms.
+     * @param sharedSecret Shared-Secret des Empfängers.
+     * @param out Ziel für den Klartext. Wird nach jedem Bild geleert, aber nicht geschlossen.
+     * @return Anzahl geschriebener Bytes.
+     * @throws SteganographyException Falls Bilder fehlen, vertauscht sind oder nicht zu demselben Strom gehören.
+     */
+    public static long extract(List<File> pictures, byte[] sharedSecret, OutputStream out) throws IOException, CryptoException {
+        String streamId = null;
+        long written = 0;
+
+        for (int index = 0; index < pictures.size(); index++) {
+            File file = pictures.get(index);
+            BufferedImage picture = ImageIO.read(file);
+            if (picture == null) {
+                throw new SteganographyException("This file is not a supported picture: " + file.getName());
+            }
+
+            Metrics.Sample sample = Metrics.start("stream", "extract");
+            ExtractedDocument segment = Steganography.extractBroadcast(picture, sharedSecret, ProgressListener.NONE);
+            String[] name = segment.getFileName() == null ? new String[0] : segment.getFileName().split("/");
+            if (name.length < 2 || (streamId != null && !name[0].equals(streamId)) || !name[1].equals(String.valueOf(index))) {
+                throw new SteganographyException("The picture sequence is incomplete or out of order at " + file.getName() + ".");
+            }
+            streamId = name[0];
+
+            out.write(segment.getContent());
+            out.flush();
+            written += segment.getContent().length;
+            sample.stop(segment.getContent().length);
+
+            // Bilder nach dem Ende des Stroms werden ignoriert.
+            if (name.length == 3 && name[2].equals(END)) {
+                return written;
+            }
+        }
+
+        throw new SteganographyException("The picture sequence is incomplete, the last picture is missing.");
+    }
+
+    private static String streamId() {
+        byte[] id = new byte[8];
+        new SecureRandom().nextBytes(id);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : id) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,50 @@
+package main.cryptography;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+
+/**
+ * {@link CryptoProvider} auf Basis eines JCE-Providers. Ohne Provider wird wie bisher die Standard-Auswahl der JCE
+ * verwendet (Cipher.getInstance ohne Provider-Angabe).
+ */
+final class JceCryptoProvider implements CryptoProvider {
+
+    static final JceCryptoProvider DEFAULT = new JceCryptoProvider(null);
+
+    private final Provider provider;
+
+    JceCryptoProvider(Provider provider) {
+        this.provider = provider;
+    }
+
+    @Override
+    public String getName() {
+        return provider == null ? "default" : provider.getName();
+    }
+
+    @Override
+    public Cipher aesCipher() throws GeneralSecurityException {
+        String transformation = "AES/CBC/PKCS5PADDING";
+        return provider == null ? Cipher.getInstance(transformation) : Cipher.getInstance(transformation, provider);
+    }
+
+    @Override
+    public KeyPairGenerator dhKeyPairGenerator() throws NoSuchAlgorithmException {
+        return provider == null ? KeyPairGenerator.getInstance("DH") : KeyPairGenerator.getInstance("DH", provider);
+    }
+
+    @Override
+    public KeyFactory dhKeyFactory() throws NoSuchAlgorithmException {
+        return provider == null ? KeyFactory.getInstance("DH") : KeyFactory.getInstance("DH", provider);
+    }
+
+    @Override
+    public KeyAgreement dhKeyAgreement() throws NoSuchAlgorithmException {
+        return provider == null ? KeyAgreement.getInstance("DH") : KeyAgreement.getInstance("DH", provider);
+    }
+}
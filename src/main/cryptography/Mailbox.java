@@ -0,0 +1,445 @@
+package main.cryptography;
+
+import main.metrics.Metrics;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Postfach in einem einzigen Trägerbild: Nachrichten werden nacheinander angehängt, ohne frühere Nachrichten neu
+ * einzubetten.
+ *
+ * Das Postfach ist ein PNG-Bild im Band-Format von {@link CarrierTemplate}. Am Anfang des Bildes liegt ein Index fester
+ * Größe, dahinter folgen die Nachrichten fortlaufend, ein Byte pro Pixel wie bei {@link Steganography#hide}. Beim
+ * Anlegen werden alle Pixel hinter dem Index wie bei hide mit Zufallswerten gefüllt, sodass angehängte Nachrichten
+ * nicht von unbenutzten Pixeln zu unterscheiden sind.
+ *
+ * Der Index ist mit dem Shared-Secret verschlüsselt. Er enthält für jede Nachricht Position, Länge, Zeitpunkt und einen
+ * eigenen zufälligen Inhalts-Schlüssel, mit dem die Nachricht wie bei {@link Steganography#hideBroadcast}
+ * verschlüsselt ist. Ein zufälliger erster Block sorgt dafür, dass sich der verschlüsselte Index bei jeder Änderung
+ * vollständig ändert:
+ *
+ * Zufall (16 Bytes) --> Kennung --> Anzahl Nachrichten (2 Bytes) --> je Nachricht ENTRY_LENGTH Bytes
+ *
+ * Beim Anhängen werden nur die Bänder decodiert und neu codiert, die den Index oder die neue Nachricht enthalten. Alle
+ * anderen IDAT-Chunks werden unverändert übernommen, die Prüfsumme des zlib-Stroms wird aus den alten und neuen
+ * Rohdaten der geänderten Bänder fortgeschrieben (siehe {@link CarrierTemplate#replace}). Ebenso werden beim Öffnen und
+ * Abrufen nur die benötigten Bänder decodiert.
+ */
+public final class Mailbox {
+
+    // Höchstzahl Nachrichten in einem Postfach.
+    public static final int MAX_MESSAGES = 64;
+
+    private static final byte[] MAGIC = "CMBX".getBytes(StandardCharsets.US_ASCII);
+    private static final int NONCE_LENGTH = 16;
+    private static final int CONTENT_SECRET_LENGTH = 32;
+
+    // Eintrag: Position, Länge des Chiffretextes, Länge des verschlüsselten Dokuments (je 4 Bytes), Zeitpunkt (8 Bytes)
+    // und Inhalts-Schlüssel.
+    private static final int ENTRY_LENGTH = 20 + CONTENT_SECRET_LENGTH;
+    private static final int INDEX_PLAIN_LENGTH = NONCE_LENGTH + MAGIC.length + 2 + MAX_MESSAGES * ENTRY_LENGTH;
+
+    // Anzahl Pixel, die der verschlüsselte Index am Anfang des Bildes belegt.
+    private static final int INDEX_LENGTH = AES.encryptedLength(INDEX_PLAIN_LENGTH);
+
+    private final Path file;
+    private final byte[] sharedSecret;
+
+    // Inhalt der PNG-Datei und Lage ihrer IDAT-Chunks: zlib-Header, ein Chunk pro Band, Abschluss mit Prüfsumme.
+    private byte[] png;
+    private int width;
+    private int height;
+    private int[] idat;
+    private long adler;
+
+    private final List<Message> messages = new ArrayList<>();
+
+    /**
+     * Eine Nachricht im Postfach. Der Inhalt wird erst mit {@link #fetch} decodiert.
+     */
+    public static final class Message {
+        private final int number;
+        private final int offset;
+        private final int length;
+        private final int documentLength;
+        private final long time;
+        private final byte[] contentSecret;
+
+        private Message(int number, int offset, int length, int documentLength, long time, byte[] contentSecret) {
+            this.number = number;
+            this.offset = offset;
+            this.length = length;
+            this.documentLength = documentLength;
+            this.time = time;
+            this.contentSecret = contentSecret;
+        }
+
+        // Laufende Nummer, beginnend bei 0.
+        public int getNumber() {
+            return number;
+        }
+
+        // Zeitpunkt des Anhängens in Millisekunden seit 1970.
+        public long getTime() {
+            return time;
+        }
+
+        // Anzahl belegter Pixel bzw. Bytes im Bild.
+        public int getSize() {
+            return length;
+        }
+    }
+
+    /**
+     * Öffnet ein Postfach und liest dessen Index.
+     *
+     * @param file Mit {@link #create} angelegtes Postfach.
+     * @param sharedSecret Shared-Secret des Kontakts, mit dem das Postfach angelegt wurde.
+     * @throws SteganographyException Falls die Datei kein Postfach für dieses Shared-Secret ist.
+     */
+    public Mailbox(File file, byte[] sharedSecret) throws IOException, CryptoException {
+        this.file = file.toPath();
+        this.sharedSecret = sharedSecret;
+
+        Metrics.Sample sample = Metrics.start("mailbox", "open");
+        parse(Files.readAllBytes(this.file));
+        readIndex(readBytes(0, INDEX_LENGTH));
+        sample.stop(INDEX_LENGTH);
+    }
+
+    /**
+     * Legt ein leeres Postfach an.
+     *
+     * @param carrier Trägerbild. Es wird nicht verändert.
+     * @param sharedSecret Shared-Secret des Kontakts, mit dem über das Postfach kommuniziert wird.
+     * @param output Ziel für das PNG-Bild. Eine vorhandene Datei wird ersetzt.
+     * @param listener Empfänger der Fortschrittsmeldungen, kann den Vorgang abbrechen.
+     */
+    public static void create(BufferedImage carrier, byte[] sharedSecret, File output, ProgressListener listener) throws IOException, CryptoException {
+        if ((long) carrier.getWidth() * carrier.getHeight() <= INDEX_LENGTH) {
+            throw new SteganographyException("This picture is not big enough for a mailbox.");
+        }
+
+        // Index einbetten und alle übrigen Pixel wie bei hide mit Zufallswerten füllen, danach in Bändern codieren.
+        Embedder embedder = new Embedder(carrier, listener);
+        byte[] index = encryptIndex(Collections.emptyList(), sharedSecret);
+        embedder.write(index, 0, index.length);
+        BufferedImage picture = embedder.finish();
+        CarrierTemplate template = new CarrierTemplate(picture);
+        Steganography.release(picture);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.write(new byte[0], new byte[0], out, listener);
+        replace(output.toPath(), out.toByteArray());
+    }
+
+    public List<Message> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    // Anzahl Bytes, die für weitere Nachrichten frei sind, einschließlich Verschlüsselung und Dateiname.
+    public long getFree() {
+        return (long) width * height - end();
+    }
+
+    /**
+     * Hängt eine Datei als neue Nachricht an, siehe {@link #append(byte[], String, ProgressListener)}.
+     */
+    public Message append(File document, ProgressListener listener) throws IOException, CryptoException {
+        return append(Steganography.readDocument(document, listener), document.getName(), listener);
+    }
+
+    /**
+     * Hängt eine Nachricht an das Postfach an und schreibt die Datei neu. Codiert werden nur die Bänder mit dem Index
+     * und der neuen Nachricht.
+     *
+     * @param document Inhalt des Dokuments.
+     * @param fileName Dateiname des Dokuments mit Dateityp.
+     * @return Die neue Nachricht.
+     * @throws SteganographyException Falls das Postfach voll ist.
+     */
+    public Message append(byte[] document, String fileName, ProgressListener listener) throws IOException, CryptoException {
+        if (messages.size() >= MAX_MESSAGES) {
+            throw new SteganographyException("This mailbox is full.");
+        }
+
+        byte[] contentSecret = Steganography.contentSecret();
+        byte[] cipher = Steganography.buildCipher(document, fileName, contentSecret, listener);
+        long offset = end();
+        if (offset + cipher.length > (long) width * height) {
+            throw new SteganographyException("This picture is not big enough for this File.");
+        }
+
+        Metrics.Sample sample = Metrics.start("mailbox", "append");
+        Message message = new Message(messages.size(), (int) offset, cipher.length,
+                AES.encryptedLength(document.length), System.currentTimeMillis(), contentSecret);
+        List<Message> updated = new ArrayList<>(messages);
+        updated.add(message);
+        byte[] index = encryptIndex(updated, sharedSecret);
+
+        // Betroffen sind die Bänder des Index und die Bänder der neuen Nachricht. Dazwischen bleibt alles unverändert.
+        int bandPixels = CarrierTemplate.BAND_ROWS * width;
+        int indexBands = (INDEX_LENGTH - 1) / bandPixels + 1;
+        int firstBand = (int) (offset / bandPixels);
+        int lastBand = cipher.length == 0 ? firstBand : (int) ((offset + cipher.length - 1) / bandPixels);
+
+        int bands = idat.length - 2;
+        byte[][] chunks = new byte[bands][];
+        long rowLength = 4L * width + 1;
+        long totalLength = height * rowLength;
+        long updatedAdler = adler;
+        int[] pixels = BufferPool.ints(bandPixels);
+        try {
+            listener.progress(ProgressListener.Stage.EMBED, 0, cipher.length);
+            for (int band = 0; band < bands; band++) {
+                if (band >= indexBands && (band < firstBand || band > lastBand)) {
+                    continue;
+                }
+
+                int rows = Math.min(CarrierTemplate.BAND_ROWS, height - band * CarrierTemplate.BAND_ROWS);
+                long start = (long) band * bandPixels;
+                long oldAdler = decodeBand(band, rows, pixels);
+                put(pixels, start, rows * width, index, 0);
+                put(pixels, start, rows * width, cipher, offset);
+
+                CarrierTemplate.Band encoded = CarrierTemplate.encodeRows(pixels, 0, width, rows);
+                chunks[band] = encoded.chunk;
+                updatedAdler = CarrierTemplate.replace(updatedAdler, totalLength, band * CarrierTemplate.BAND_ROWS * rowLength,
+                        encoded.rawLength, oldAdler, encoded.adler);
+                Steganography.checkCancelled(listener);
+            }
+            listener.progress(ProgressListener.Stage.EMBED, cipher.length, cipher.length);
+        } finally {
+            BufferPool.release(pixels);
+        }
+
+        // Neue Datei: unveränderte Chunks werden kopiert, geänderte Bänder und die Prüfsumme ersetzt.
+        listener.progress(ProgressListener.Stage.WRITE, 0, 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(png.length + 1024);
+        out.write(png, 0, idat[1]);
+        for (int band = 0; band < bands; band++) {
+            if (chunks[band] != null) {
+                out.writeBytes(chunks[band]);
+            } else {
+                out.write(png, idat[band + 1], idat[band + 2] - idat[band + 1]);
+            }
+        }
+        byte[] end = ByteBuffer.allocate(CarrierTemplate.DEFLATE_END.length + 4).put(CarrierTemplate.DEFLATE_END).putInt((int) updatedAdler).array();
+        out.writeBytes(CarrierTemplate.chunk("IDAT", end));
+        int afterEnd = idat[idat.length - 1] + 12 + end.length;
+        out.write(png, afterEnd, png.length - afterEnd);
+
+        byte[] updatedPng = out.toByteArray();
+        replace(file, updatedPng);
+        parse(updatedPng);
+        messages.add(message);
+        listener.progress(ProgressListener.Stage.WRITE, 1, 1);
+        sample.stop(cipher.length);
+
+        return message;
+    }
+
+    /**
+     * Decodiert eine einzelne Nachricht. Es werden nur die Bänder gelesen, in denen sie liegt.
+     *
+     * @param number Nummer der Nachricht, siehe {@link Message#getNumber}.
+     * @return Dokument und dessen Dateiname.
+     */
+    public ExtractedDocument fetch(int number, ProgressListener listener) throws CryptoException {
+        if (number < 0 || number >= messages.size()) {
+            throw new SteganographyException("This mailbox has no message " + number + ".");
+        }
+        Message message = messages.get(number);
+
+        Metrics.Sample sample = Metrics.start("mailbox", "fetch");
+        listener.progress(ProgressListener.Stage.EXTRACT, 0, message.length);
+        byte[] cipher = readBytes(message.offset, message.length);
+        listener.progress(ProgressListener.Stage.EXTRACT, message.length, message.length);
+        Steganography.checkCancelled(listener);
+
+        // Aufbau wie bei Steganography.hide: Dokument (encrypted) --> Dokument-Flag --> Dateityp (encrypted) --> Ende-Flag
+        listener.progress(ProgressListener.Stage.DECRYPT, 0, message.documentLength);
+        byte[] document;
+        try {
+            document = AES.decrypt(cipher, 0, message.documentLength, message.contentSecret);
+        } catch (CryptoException e) {
+            throw new SteganographyException("This picture is damaged.", e);
+        }
+        listener.progress(ProgressListener.Stage.DECRYPT, message.documentLength, message.documentLength);
+
+        String fileName = null;
+        try {
+            int nameOffset = message.documentLength + 5;
+            fileName = new String(AES.decrypt(cipher, nameOffset, message.length - nameOffset - 5, message.contentSecret), StandardCharsets.UTF_8);
+        } catch (CryptoException e) {
+            // Das Dokument wird ohne ursprünglichen Dateinamen geliefert.
+        }
+        sample.stop(message.length);
+
+        return new ExtractedDocument(document, fileName);
+    }
+
+    // Erstes freies Pixel hinter dem Index und allen Nachrichten.
+    private long end() {
+        if (messages.isEmpty()) {
+            return INDEX_LENGTH;
+        }
+        Message last = messages.get(messages.size() - 1);
+        return (long) last.offset + last.length;
+    }
+
+    // Zerlegt die PNG-Datei in ihre Chunks und prüft, ob sie im Band-Format von CarrierTemplate vorliegt.
+    private void parse(byte[] data) throws SteganographyException {
+        if (data.length < 8 || !Arrays.equals(Arrays.copyOf(data, 8), CarrierTemplate.PNG_SIGNATURE)) {
+            throw new SteganographyException("This picture is not a mailbox.");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        List<Integer> idatOffsets = new ArrayList<>();
+        int w = 0;
+        int h = 0;
+        int position = 8;
+        while (position + 12 <= data.length) {
+            int length = buffer.getInt(position);
+            String type = new String(data, position + 4, 4, StandardCharsets.US_ASCII);
+            if (length < 0 || position + 12L + length > data.length) {
+                throw new SteganographyException("This picture is damaged.");
+            }
+            if (type.equals("IHDR")) {
+                w = buffer.getInt(position + 8);
+                h = buffer.getInt(position + 12);
+                // Nur 8 Bit pro Kanal, RGBA, ohne Interlacing, wie von CarrierTemplate geschrieben.
+                if (data[position + 16] != 8 || data[position + 17] != 6 || data[position + 20] != 0) {
+                    throw new SteganographyException("This picture is not a mailbox.");
+                }
+            } else if (type.equals("IDAT")) {
+                idatOffsets.add(position);
+            }
+            position += 12 + length;
+        }
+
+        int bands = (h + CarrierTemplate.BAND_ROWS - 1) / CarrierTemplate.BAND_ROWS;
+        if (w <= 0 || h <= 0 || idatOffsets.size() != bands + 2
+                || buffer.getInt(idatOffsets.get(0)) != CarrierTemplate.ZLIB_HEADER.length
+                || buffer.getInt(idatOffsets.get(bands + 1)) != CarrierTemplate.DEFLATE_END.length + 4) {
+            throw new SteganographyException("This picture is not a mailbox.");
+        }
+
+        png = data;
+        width = w;
+        height = h;
+        idat = idatOffsets.stream().mapToInt(Integer::intValue).toArray();
+        adler = buffer.getInt(idat[bands + 1] + 8 + CarrierTemplate.DEFLATE_END.length) & 0xffffffffL;
+    }
+
+    // Decodiert die Pixel eines Bandes und liefert die Prüfsumme seiner Rohdaten.
+    private long decodeBand(int band, int rows, int[] pixels) throws SteganographyException {
+        int chunk = idat[band + 1];
+        int length = ByteBuffer.wrap(png).getInt(chunk);
+        return CarrierTemplate.decodeRows(png, chunk + 8, length, width, rows, pixels);
+    }
+
+    // Liest die Bytes, die in den Pixeln ab offset codiert sind. Decodiert werden nur die betroffenen Bänder.
+    private byte[] readBytes(long offset, int length) throws SteganographyException {
+        byte[] bytes = new byte[length];
+        int bandPixels = CarrierTemplate.BAND_ROWS * width;
+        int[] pixels = BufferPool.ints(bandPixels);
+        try {
+            long position = offset;
+            while (position < offset + length) {
+                int band = (int) (position / bandPixels);
+                int rows = Math.min(CarrierTemplate.BAND_ROWS, height - band * CarrierTemplate.BAND_ROWS);
+                decodeBand(band, rows, pixels);
+
+                long start = (long) band * bandPixels;
+                long bandEnd = Math.min(start + (long) rows * width, offset + length);
+                for (; position < bandEnd; position++) {
+                    bytes[(int) (position - offset)] = CarrierTemplate.decode(pixels[(int) (position - start)]);
+                }
+            }
+        } finally {
+            BufferPool.release(pixels);
+        }
+        return bytes;
+    }
+
+    // Codiert die Bytes ab Pixel dataOffset in die Pixel eines Bandes, soweit sie in dieses Band fallen.
+    private static void put(int[] pixels, long start, int count, byte[] data, long dataOffset) {
+        long from = Math.max(start, dataOffset);
+        long to = Math.min(start + count, dataOffset + data.length);
+        for (long p = from; p < to; p++) {
+            int i = (int) (p - start);
+            pixels[i] = CarrierTemplate.encode(pixels[i], data[(int) (p - dataOffset)]);
+        }
+    }
+
+    private void readIndex(byte[] encrypted) throws SteganographyException {
+        byte[] plain;
+        try {
+            plain = AES.decrypt(encrypted, sharedSecret);
+        } catch (CryptoException e) {
+            throw new SteganographyException("This picture is not a mailbox for this contact.", e);
+        }
+        ByteBuffer index = ByteBuffer.wrap(plain);
+        if (plain.length != INDEX_PLAIN_LENGTH
+                || !Arrays.equals(Arrays.copyOfRange(plain, NONCE_LENGTH, NONCE_LENGTH + MAGIC.length), MAGIC)) {
+            throw new SteganographyException("This picture is not a mailbox for this contact.");
+        }
+
+        index.position(NONCE_LENGTH + MAGIC.length);
+        int count = index.getShort() & 0xffff;
+        if (count > MAX_MESSAGES) {
+            throw new SteganographyException("This picture is damaged.");
+        }
+        messages.clear();
+        for (int number = 0; number < count; number++) {
+            int offset = index.getInt();
+            int length = index.getInt();
+            int documentLength = index.getInt();
+            long time = index.getLong();
+            byte[] contentSecret = new byte[CONTENT_SECRET_LENGTH];
+            index.get(contentSecret);
+            if (offset < INDEX_LENGTH || length < documentLength + 10 || (long) offset + length > (long) width * height) {
+                throw new SteganographyException("This picture is damaged.");
+            }
+            messages.add(new Message(number, offset, length, documentLength, time, contentSecret));
+        }
+    }
+
+    private static byte[] encryptIndex(List<Message> messages, byte[] sharedSecret) throws CryptoException {
+        ByteBuffer index = ByteBuffer.allocate(INDEX_PLAIN_LENGTH);
+        byte[] nonce = new byte[NONCE_LENGTH];
+        new SecureRandom().nextBytes(nonce);
+        index.put(nonce).put(MAGIC).putShort((short) messages.size());
+        for (Message message : messages) {
+            index.putInt(message.offset).putInt(message.length).putInt(message.documentLength).putLong(message.time)
+                    .put(message.contentSecret);
+        }
+
+        // Die restlichen Einträge bleiben Nullen. Der Index hat so stets dieselbe Größe.
+        return AES.encrypt(index.array(), sharedSecret);
+    }
+
+    // Schreibt die Datei zunächst daneben und ersetzt das Original erst, wenn sie vollständig ist.
+    private static void replace(Path target, byte[] data) throws IOException {
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        try (OutputStream out = Files.newOutputStream(part)) {
+            out.write(data);
+        }
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
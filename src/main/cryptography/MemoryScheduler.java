@@ -0,0 +1,328 @@
+package main.cryptography;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Lässt Jobs zum Verstecken und Extrahieren nur dann laufen, wenn ihr geschätzter Speicherbedarf in ein Budget passt.
+ *
+ * Der Bedarf eines Jobs wird vorab aus dem Header des Bildes und der Größe des Dokuments geschätzt (siehe {@link
+ * #hideFootprint} und {@link #extractFootprint}). Ein Job wird zugelassen, sobald sein Bedarf zusammen mit dem der
+ * laufenden Jobs in das Budget passt und die Höchstzahl gleichzeitiger Jobs nicht erreicht ist. Ein Job, der allein
+ * größer als das Budget ist, läuft, sobald kein anderer Job mehr läuft.
+ *
+ * Wartende Jobs werden in der Reihenfolge ihrer Ankunft geprüft. Kleine Jobs dürfen so an einem großen vorbeiziehen,
+ * der gerade nicht passt. Wurde der älteste wartende Job jedoch MAX_BYPASSES Mal überholt, wird kein weiterer
+ * Job mehr zugelassen, bis er selbst laufen konnte. So verhungert kein Job.
+ */
+public final class MemoryScheduler implements AutoCloseable {
+
+    // So oft darf der älteste wartende Job überholt werden.
+    private static final int MAX_BYPASSES = 8;
+
+    // Grundbedarf eines Jobs unabhängig von Bild und Dokument, z.B. für Puffer des PNG-Codecs.
+    private static final long BASE_FOOTPRINT = 4L << 20;
+
+    // So viele Bytes eines Datenstroms dürfen beim Lesen des Headers höchstens vorgemerkt werden.
+    private static final int HEADER_LIMIT = 1 << 16;
+
+    private final long budget;
+    private final int maxRunning;
+    private final ExecutorService executor;
+
+    // Wartende Jobs in der Reihenfolge ihrer Ankunft. Zugriff nur mit Sperre auf this.
+    private final List<Waiter> waiting = new ArrayList<>();
+    private long used;
+    private int running;
+
+    /**
+     * @param budget Speicherbudget in Bytes für alle gleichzeitig laufenden Jobs.
+     * @param maxRunning Höchstzahl gleichzeitig laufender Jobs.
+     */
+    public MemoryScheduler(long budget, int maxRunning) {
+        this.budget = budget;
+        this.maxRunning = maxRunning;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "cryptor-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Geschätzter Spitzenbedarf beim Verstecken: das decodierte Bild und dessen ARGB-Kopie (je 4 Bytes pro Pixel) sowie
+     * Dokument und Chiffretext. Die ARGB-Kopie wird mitgezählt, auch wenn sie aus dem {@link BufferPool} stammt.
+     *
+     * @param picture Trägerbild, es wird nur der Header gelesen.
+     * @param documentBytes Größe des Dokuments in Bytes.
+     */
+    public static long hideFootprint(File picture, long documentBytes) throws IOException {
+        return hideFootprint(pixels(picture), documentBytes);
+    }
+
+    // Wie hideFootprint(File, long), für ein bereits bekanntes Bild mit der angegebenen Anzahl Pixel.
+    public static long hideFootprint(long pixels, long documentBytes) {
+        return BASE_FOOTPRINT + 8 * pixels + 2 * documentBytes;
+    }
+
+    /**
+     * Geschätzter Spitzenbedarf beim Extrahieren: das decodierte Bild (4 Bytes pro Pixel), der ausgelesene Chiffretext
+     * mit Puffer-Reserve und der Klartext, jeweils höchstens ein Byte pro Pixel.
+     *
+     * @param picture Bild mit verstecktem Dokument, es wird nur der Header gelesen.
+     */
+    public static long extractFootprint(File picture) throws IOException {
+        return extractFootprint(pixels(picture));
+    }
+
+    /**
+     * Wie {@link #extractFootprint(File)}, für ein Bild, das noch aus einem Datenstrom gelesen wird, z.B. aus einer
+     * Netzwerkverbindung. Der Strom wird nach dem Header auf seinen Anfang zurückgesetzt, sodass das Bild danach
+     * vollständig decodiert werden kann.
+     *
+     * @param picture Datenstrom mit mark/reset, z.B. ein BufferedInputStream. Der Header muss in die ersten
+     *                HEADER_LIMIT Bytes passen.
+     */
+    public static long extractFootprint(InputStream picture) throws IOException {
+        picture.mark(HEADER_LIMIT);
+        try {
+            // Der Cache liest nur so viel aus dem Strom, wie der Reader für den Header benötigt, und schließt ihn nicht.
+            try (ImageInputStream in = new MemoryCacheImageInputStream(picture)) {
+                return extractFootprint(pixels(in));
+            }
+        } finally {
+            picture.reset();
+        }
+    }
+
+    // Wie extractFootprint(File), für ein bereits bekanntes Bild mit der angegebenen Anzahl Pixel.
+    public static long extractFootprint(long pixels) {
+        return BASE_FOOTPRINT + 8 * pixels;
+    }
+
+    /**
+     * Geschätzter Spitzenbedarf beim Vorbereiten einer {@link CarrierTemplate}: das decodierte Bild und das Raster der
+     * Vorlage (je 4 Bytes pro Pixel) sowie die codierten Bänder, höchstens so groß wie die unkomprimierten Pixel.
+     *
+     * @param picture Trägerbild, es wird nur der Header gelesen.
+     */
+    public static long templateFootprint(File picture) throws IOException {
+        return BASE_FOOTPRINT + 12 * pixels(picture);
+    }
+
+    // Liest die Anzahl Pixel aus dem Header des Bildes, ohne es zu decodieren.
+    private static long pixels(File picture) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(picture)) {
+            return pixels(in);
+        }
+    }
+
+    private static long pixels(ImageInputStream in) throws IOException {
+        try {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new SteganographyException("This file is not a supported picture.");
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return (long) reader.getWidth(0) * reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        } catch (SteganographyException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Führt einen Job im Hintergrund aus, sobald er zugelassen wird.
+     *
+     * @param footprint Geschätzter Speicherbedarf in Bytes.
+     * @param job Auszuführender Job.
+     * @return Future mit dem Ergebnis des Jobs.
+     */
+    public <T> CompletableFuture<T> submit(long footprint, Callable<T> job) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        enqueue(new Waiter(footprint, permit -> executor.execute(() -> {
+            try (permit) {
+                if (!result.isDone()) {
+                    result.complete(job.call());
+                }
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        })));
+        return result;
+    }
+
+    /**
+     * Wartet, bis ein Job mit dem angegebenen Bedarf im aufrufenden Thread laufen darf.
+     *
+     * @return Zulassung, die nach dem Job mit {@link Permit#close()} zurückgegeben wird.
+     */
+    public Permit acquire(long footprint) throws InterruptedException {
+        return tryAcquire(footprint, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Wie {@link #acquire}, wartet aber höchstens die angegebene Zeit.
+     *
+     * @return Zulassung oder null, falls der Job in dieser Zeit nicht zugelassen wurde.
+     */
+    public Permit tryAcquire(long footprint, long timeout, TimeUnit unit) throws InterruptedException {
+        Waiter waiter = new Waiter(footprint, null);
+        enqueue(waiter);
+
+        long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+        synchronized (this) {
+            try {
+                while (waiter.permit == null) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.permit != null) {
+                    waiter.permit.close();
+                }
+                abandon(waiter);
+                throw e;
+            }
+
+            if (waiter.permit == null) {
+                abandon(waiter);
+            }
+            return waiter.permit;
+        }
+    }
+
+    // Belegter Speicher aller zugelassenen Jobs in Bytes.
+    public synchronized long used() {
+        return used;
+    }
+
+    // Anzahl wartender Jobs.
+    public synchronized int waiting() {
+        return waiting.size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private void enqueue(Waiter waiter) {
+        synchronized (this) {
+            waiting.add(waiter);
+        }
+        schedule();
+    }
+
+    // Entfernt einen Job, der nicht mehr warten will. Dadurch können andere Jobs zugelassen werden.
+    private void abandon(Waiter waiter) {
+        synchronized (this) {
+            waiting.remove(waiter);
+        }
+        schedule();
+    }
+
+    private void release(long footprint) {
+        synchronized (this) {
+            used -= footprint;
+            running--;
+        }
+        schedule();
+    }
+
+    // Lässt alle wartenden Jobs zu, die passen. Die Rückrufe laufen außerhalb der Sperre.
+    private void schedule() {
+        List<Waiter> admitted = new ArrayList<>();
+        synchronized (this) {
+            Waiter oldest = waiting.isEmpty() ? null : waiting.get(0);
+            for (Iterator<Waiter> it = waiting.iterator(); it.hasNext(); ) {
+                Waiter waiter = it.next();
+                if (!fits(waiter.footprint)) {
+                    // Der älteste Job wurde oft genug überholt, die übrigen müssen hinter ihm warten.
+                    if (waiter == oldest && oldest.bypasses >= MAX_BYPASSES) {
+                        break;
+                    }
+                    continue;
+                }
+
+                it.remove();
+                used += waiter.footprint;
+                running++;
+                waiter.permit = new Permit(waiter.footprint);
+                admitted.add(waiter);
+
+                if (waiter != oldest && oldest != null && oldest.permit == null) {
+                    oldest.bypasses++;
+                }
+            }
+            notifyAll();
+        }
+
+        for (Waiter waiter : admitted) {
+            if (waiter.onAdmit != null) {
+                waiter.onAdmit.accept(waiter.permit);
+            }
+        }
+    }
+
+    private boolean fits(long footprint) {
+        return running < maxRunning && (used + footprint <= budget || running == 0);
+    }
+
+    private static final class Waiter {
+        private final long footprint;
+        private final Consumer<Permit> onAdmit;
+        private Permit permit;
+        private int bypasses;
+
+        private Waiter(long footprint, Consumer<Permit> onAdmit) {
+            this.footprint = footprint;
+            this.onAdmit = onAdmit;
+        }
+    }
+
+    /**
+     * Zulassung eines Jobs. Gibt beim Schließen den reservierten Speicher frei.
+     */
+    public final class Permit implements AutoCloseable {
+        private final long footprint;
+        private boolean closed;
+
+        private Permit(long footprint) {
+            this.footprint = footprint;
+        }
+
+        @Override
+        public void close() {
+            synchronized (MemoryScheduler.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(footprint);
+        }
+    }
+}
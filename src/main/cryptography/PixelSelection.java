@@ -0,0 +1,92 @@
+package main.cryptography;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Vom Shared-Secret abhängige Auswahl von Pixeln für das sparsame Einbetten (siehe {@link Steganography#hideSparse}).
+ *
+ * Die Auswahl ist eine Permutation der Pixel-Indizes eines Bereichs. Das i-te Byte des Chiffretextes landet im Pixel
+ * {@link #pixel}(i), sodass die belegten Pixel über das gesamte Bild verstreut sind. Die Permutation wird nicht als
+ * Tabelle gespeichert, sondern für jeden Index berechnet: Ein Feistel-Netzwerk über die kleinste Zweierpotenz mit
+ * gerader Bitanzahl, die alle Indizes umfasst, ist eine Bijektion. Ergebnisse außerhalb des Bereichs werden erneut
+ * permutiert, bis sie im Bereich liegen (im Mittel weniger als vier Runden).
+ *
+ * Die Auswahl dient nur der Verteilung. Die Vertraulichkeit des Inhalts stellt weiterhin AES sicher.
+ */
+final class PixelSelection {
+
+    private static final int ROUNDS = 4;
+
+    private final long offset;
+    private final long count;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] keys = new long[ROUNDS];
+
+    /**
+     * @param secret Shared-Secret bzw. Inhalts-Schlüssel, von dem die Auswahl abgeleitet wird.
+     * @param offset Index des ersten Pixels des Bereichs.
+     * @param count Anzahl Pixel des Bereichs.
+     */
+    PixelSelection(byte[] secret, long offset, long count) {
+        this.offset = offset;
+        this.count = count;
+
+        // Anzahl Bits für den größten Index, aufgerundet auf eine gerade Zahl für zwei gleich große Hälften.
+        int bits = 64 - Long.numberOfLeadingZeros(Math.max(1, count - 1));
+        bits = Math.max(2, bits + (bits & 1));
+        halfBits = bits / 2;
+        halfMask = (1L << halfBits) - 1;
+
+        // Die Rundenschlüssel werden aus einem Hash des Geheimnisses abgeleitet, nicht aus dem Geheimnis selbst.
+        ByteBuffer hash = ByteBuffer.wrap(sha256(secret));
+        for (int r = 0; r < ROUNDS; r++) {
+            keys[r] = hash.getLong();
+        }
+    }
+
+    // Anzahl Pixel, die ausgewählt werden können.
+    long size() {
+        return count;
+    }
+
+    // Liefert den Pixel-Index (Zeile * Breite + Spalte), in dem das Byte mit dem übergebenen Index liegt.
+    long pixel(long index) {
+        long value = index;
+        do {
+            value = permute(value);
+        } while (value >= count);
+        return offset + value;
+    }
+
+    private long permute(long value) {
+        long left = value >>> halfBits;
+        long right = value & halfMask;
+        for (int r = 0; r < ROUNDS; r++) {
+            long next = left ^ (mix(right ^ keys[r]) & halfMask);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    // Rundenfunktion: Bitmischung aus SplitMix64.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static byte[] sha256(byte[] secret) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update("cryptor-pixel-selection".getBytes(StandardCharsets.US_ASCII));
+            return digest.digest(secret);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+}
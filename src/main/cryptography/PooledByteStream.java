@@ -0,0 +1,57 @@
+package main.cryptography;
+
+import java.io.OutputStream;
+
+/**
+ * Wie ein ByteArrayOutputStream, der Puffer stammt aber aus dem {@link BufferPool}. Beim Wachsen wird ein größerer
+ * Puffer geliehen und der alte zurückgegeben, {@link #close} gibt den letzten Puffer zurück. Der Inhalt wird ohne
+ * Kopie über {@link #array} und {@link #size} gelesen.
+ */
+final class PooledByteStream extends OutputStream {
+
+    private byte[] buffer;
+    private int size;
+
+    PooledByteStream(int capacity) {
+        buffer = BufferPool.bytes(capacity);
+    }
+
+    @Override
+    public void write(int b) {
+        if (size == buffer.length) {
+            grow(size + 1);
+        }
+        buffer[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int length) {
+        if (size + length > buffer.length) {
+            grow(size + length);
+        }
+        System.arraycopy(b, offset, buffer, size, length);
+        size += length;
+    }
+
+    // Der Puffer ist in der Regel länger als der Inhalt, gültig sind nur die ersten size() Bytes.
+    byte[] array() {
+        return buffer;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Override
+    public void close() {
+        BufferPool.release(buffer);
+        buffer = null;
+    }
+
+    private void grow(int capacity) {
+        byte[] grown = BufferPool.bytes(Math.max(capacity, 2 * buffer.length));
+        System.arraycopy(buffer, 0, grown, 0, size);
+        BufferPool.release(buffer);
+        buffer = grown;
+    }
+}
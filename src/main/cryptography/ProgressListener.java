@@ -0,0 +1,40 @@
+package main.cryptography;
+
+/**
+ * Schnittstelle, über die langlaufende Operationen von {@link Steganography} ihren Fortschritt melden und abgebrochen
+ * werden können.
+ *
+ * Wird {@link #isCancelled()} während der Verarbeitung wahr, bricht die Operation beim nächsten Prüfpunkt mit einer
+ * {@link java.util.concurrent.CancellationException} ab.
+ */
+public interface ProgressListener {
+
+    /**
+     * Arbeitsschritte einer Operation, in der Reihenfolge ihres Auftretens.
+     */
+    enum Stage {
+        READ, ENCRYPT, EMBED, EXTRACT, DECRYPT, WRITE
+    }
+
+    /**
+     * Listener, der keinen Fortschritt verarbeitet und nie abbricht.
+     */
+    ProgressListener NONE = (stage, processed, total) -> {
+    };
+
+    /**
+     * Meldet den Fortschritt innerhalb eines Arbeitsschritts.
+     *
+     * @param stage Aktueller Arbeitsschritt.
+     * @param processed Bereits verarbeitete Einheiten (Bytes bzw. Pixel).
+     * @param total Gesamtzahl der Einheiten in diesem Arbeitsschritt.
+     */
+    void progress(Stage stage, long processed, long total);
+
+    /**
+     * @return true, falls die Operation abgebrochen werden soll.
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -1,16 +1,23 @@
 package main.cryptography;
 
-import javafx.scene.control.Alert;
+import main.metrics.Metrics;
 
+import javax.crypto.Cipher;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
 
 /**
  * Klasse zum Verstecken und Extrahieren von Informationen in/aus Bildern.
@@ -25,6 +32,22 @@ import java.util.Random;
  */
 public class Steganography {
 
+    // Länge des zufälligen Inhalts-Schlüssels eines Broadcasts und der Prüfsequenz in der Empfänger-Tabelle.
+    private static final int CONTENT_SECRET_LENGTH = 32;
+    private static final int WRAP_CHECK_LENGTH = 15;
+    private static final int WRAPPED_KEY_LENGTH = 48;
+    private static final int MAX_RECIPIENTS = 0xffff;
+
+    // Kennzeichnet den Anfang einer Empfänger-Tabelle. Ohne diese Kennung würden bei gewöhnlichen Bildern die ersten
+    // beiden Bytes des Chiffretextes als Anzahl Empfänger gelesen und bis zu 65535 Einträge vergeblich entschlüsselt.
+    private static final byte[] BROADCAST_MAGIC = "CBRC".getBytes(StandardCharsets.US_ASCII);
+
+    // Nach jeweils so vielen Pixeln wird der Fortschritt gemeldet und auf Abbruch geprüft.
+    static final int PROGRESS_INTERVAL = 1 << 16;
+
+    // Größe der Blöcke, in denen ein Dokument aus einem Datenstrom gelesen und verschlüsselt wird.
+    private static final int STREAM_CHUNK = 1 << 16;
+
     /**
      * Funktion zum Verstecken eines Dokuments in einem PNG-Bild.
      *
@@ -48,12 +71,273 @@ public class Steganography {
      * @param sharedSecret Mit Diffie-Hellman erzeugtes symmetrisches Geheimnis zur Erzeugung eines AES-Keys.
      * @return Manipuliertes PNG-Bild als BufferedImage.
      */
-    public static BufferedImage hide(File document, File picture, byte[] sharedSecret) throws Exception {
+    public static BufferedImage hide(File document, File picture, byte[] sharedSecret) throws IOException, CryptoException {
+        return hide(document, picture, sharedSecret, ProgressListener.NONE);
+    }
+
+    /**
+     * Wie {@link #hide(File, File, byte[])}, meldet aber den Fortschritt an den Listener und kann über diesen
+     * abgebrochen werden.
+     *
+     * @param listener Empfänger der Fortschrittsmeldungen.
+     */
+    public static BufferedImage hide(File document, File picture, byte[] sharedSecret, ProgressListener listener) throws IOException, CryptoException {
+        return hide(document, readPicture(picture, listener), sharedSecret, listener);
+    }
+
+    /**
+     * Wie {@link #hide(File, File, byte[], ProgressListener)}, verwendet aber ein bereits decodiertes Bild. Das
+     * übergebene Bild wird nicht verändert und kann daher aus einem Cache stammen.
+     *
+     * @param picture Bereits decodiertes Bild, in welches die Datei eingebettet wird.
+     */
+    public static BufferedImage hide(File document, BufferedImage picture, byte[] sharedSecret, ProgressListener listener) throws IOException, CryptoException {
+        return hide(readDocument(document, listener), document.getName(), picture, sharedSecret, listener);
+    }
+
+    /**
+     * Wie {@link #hide(File, BufferedImage, byte[], ProgressListener)}, das Dokument liegt aber bereits im Speicher
+     * vor, z.B. weil es über eine Netzwerkverbindung empfangen wurde.
+     *
+     * @param document Inhalt des zu versteckenden Dokuments.
+     * @param fileName Dateiname des Dokuments mit Dateityp.
+     */
+    public static BufferedImage hide(byte[] document, String fileName, BufferedImage picture, byte[] sharedSecret, ProgressListener listener) throws CryptoException {
+        return embed(null, buildCipher(document, fileName, sharedSecret, listener), picture, null, listener);
+    }
+
+    /**
+     * Wie {@link #hide(File, BufferedImage, byte[], ProgressListener)}, verändert aber nur so viele Pixel, wie der
+     * Chiffretext benötigt.
+     *
+     * Anstatt fortlaufend vom ersten Pixel an zu codieren und alle restlichen Pixel mit Zufallswerten zu füllen, wird
+     * der Chiffretext auf Pixel verteilt, die vom Shared-Secret abhängig über das ganze Bild gestreut ausgewählt werden
+     * (siehe {@link PixelSelection}). Vorangestellt wird eine ebenfalls vom Shared-Secret abgeleitete Markierung, an
+     * der {@link #extract} diesen Modus erkennt. Alle übrigen Pixel bleiben unverändert, sodass das PNG ähnlich gut
+     * komprimiert wird wie das Ausgangsbild. Dateigröße und Schreibzeit wachsen damit mit der Größe des Dokuments
+     * statt mit der Größe des Bildes.
+     */
+    public static BufferedImage hideSparse(File document, BufferedImage picture, byte[] sharedSecret, ProgressListener listener) throws IOException, CryptoException {
+        return hideSparse(readDocument(document, listener), document.getName(), picture, sharedSecret, listener);
+    }
+
+    /**
+     * Wie {@link #hideSparse(File, BufferedImage, byte[], ProgressListener)}, das Dokument liegt aber bereits im
+     * Speicher vor.
+     *
+     * @param document Inhalt des zu versteckenden Dokuments.
+     * @param fileName Dateiname des Dokuments mit Dateityp.
+     */
+    public static BufferedImage hideSparse(byte[] document, String fileName, BufferedImage picture, byte[] sharedSecret, ProgressListener listener) throws CryptoException {
+        return embed(null, buildCipher(document, fileName, sharedSecret, listener), picture, sharedSecret, listener);
+    }
+
+    /**
+     * Wie {@link #hide(byte[], String, BufferedImage, byte[], ProgressListener)} bzw. {@link #hideSparse(byte[], String,
+     * BufferedImage, byte[], ProgressListener)}, das Dokument wird aber blockweise aus einem Datenstrom gelesen,
+     * verschlüsselt und eingebettet, z.B. direkt aus einer Netzwerkverbindung. Es liegt so nie vollständig im
+     * Speicher. Passt es nicht in das Bild, wird abgebrochen, sobald das Bild voll ist.
+     *
+     * @param document Inhalt des zu versteckenden Dokuments. Wird bis zum Ende gelesen, aber nicht geschlossen.
+     * @param fileName Dateiname des Dokuments mit Dateityp.
+     * @param sparse Nur die benötigten Pixel verändern, siehe {@link #hideSparse}.
+     */
+    public static BufferedImage hide(InputStream document, String fileName, BufferedImage picture, byte[] sharedSecret, boolean sparse, ProgressListener listener) throws IOException, CryptoException {
+        Cipher aes;
+        try {
+            aes = AES.cipher(Cipher.ENCRYPT_MODE, sharedSecret);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new CryptoException("Error while encrypting.", e);
+        }
+
+        Embedder embedder = new Embedder(picture, listener);
+        if (sparse) {
+            embedder.scatter(sharedSecret);
+        }
+
+        // Klartext und Chiffretext eines Blocks liegen in geliehenen Puffern, der Chiffretext ist höchstens einen
+        // AES-Block länger als der Klartext.
+        Metrics.Sample embed = Metrics.start("steganography", "embed");
+        byte[] chunk = BufferPool.bytes(STREAM_CHUNK);
+        byte[] encrypted = BufferPool.bytes(STREAM_CHUNK + 16);
+        long processed = 0;
+        try {
+            int read;
+            while ((read = document.read(chunk, 0, STREAM_CHUNK)) >= 0) {
+                int length = aes.update(chunk, 0, read, encrypted, 0);
+                embedder.write(encrypted, 0, length);
+                processed += read;
+            }
+            int length = aes.doFinal(encrypted, 0);
+            embedder.write(encrypted, 0, length);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("Error while encrypting.", e);
+        } finally {
+            BufferPool.release(chunk);
+            BufferPool.release(encrypted);
+        }
+
+        byte[] trailer = trailer(fileName, sharedSecret);
+        embedder.write(trailer, 0, trailer.length);
+        embed.stop(processed);
+
+        return embedder.finish();
+    }
+
+    /**
+     * Funktion zum Verstecken eines Dokuments für mehrere Empfänger in einem einzigen PNG-Bild (Broadcast).
+     *
+     * Anstatt das Dokument für jeden Kontakt einzeln zu verschlüsseln und einzubetten, wird es genau einmal mit einem
+     * zufällig erzeugten Inhalts-Schlüssel verschlüsselt. Nur dieser kleine Schlüssel wird anschließend mit dem
+     * Shared-Secret jedes Empfängers verschlüsselt und in einer Empfänger-Tabelle vor den eigentlichen Chiffretext
+     * gestellt:
+     *
+     * Kennung "CBRC" (4 Bytes) --> Anzahl Empfänger (2 Bytes) --> Empfänger-Tabelle (je 48 Bytes) --> Chiffretext wie bei {@link #hide}
+     *
+     * Jeder gelistete Kontakt kann so mit {@link #extractBroadcast} seinen Eintrag finden und das Dokument
+     * extrahieren. Der Aufwand für die Verschlüsselung des Dokuments ist damit unabhängig von der Anzahl Empfänger.
+     *
+     * @param document Zu versteckende Datei als File.
+     * @param picture PNG-Bild, in welches die Datei eingebettet wird.
+     * @param sharedSecrets Shared-Secrets aller Empfänger.
+     * @return Manipuliertes PNG-Bild als BufferedImage.
+     */
+    public static BufferedImage hideBroadcast(File document, File picture, List<byte[]> sharedSecrets) throws IOException, CryptoException {
+        return hideBroadcast(document, picture, sharedSecrets, ProgressListener.NONE);
+    }
+
+    /**
+     * Wie {@link #hideBroadcast(File, File, List)}, meldet aber den Fortschritt an den Listener und kann über diesen
+     * abgebrochen werden.
+     *
+     * @param listener Empfänger der Fortschrittsmeldungen.
+     */
+    public static BufferedImage hideBroadcast(File document, File picture, List<byte[]> sharedSecrets, ProgressListener listener) throws IOException, CryptoException {
+        return hideBroadcast(document, readPicture(picture, listener), sharedSecrets, listener);
+    }
+
+    /**
+     * Wie {@link #hideBroadcast(File, File, List, ProgressListener)}, verwendet aber ein bereits decodiertes Bild. Das
+     * übergebene Bild wird nicht verändert und kann daher aus einem Cache stammen.
+     *
+     * @param picture Bereits decodiertes Bild, in welches die Datei eingebettet wird.
+     */
+    public static BufferedImage hideBroadcast(File document, BufferedImage picture, List<byte[]> sharedSecrets, ProgressListener listener) throws IOException, CryptoException {
+        return hideBroadcast(document, picture, sharedSecrets, false, listener);
+    }
 
-        // Das übermittelte Dokument wird von einer Datei in eine Byte-Folge konvertiert.
-        // Anschließend wird das Dokument mittels AES verschlüsselt.
+    /**
+     * Wie {@link #hideBroadcast(File, BufferedImage, List, ProgressListener)}, verteilt den Chiffretext aber wie
+     * {@link #hideSparse(File, BufferedImage, byte[], ProgressListener)} nur auf die benötigten Pixel. Die
+     * Empfänger-Tabelle liegt weiterhin am Anfang des Bildes, die Auswahl der Pixel hängt vom Inhalts-Schlüssel ab.
+     */
+    public static BufferedImage hideBroadcastSparse(File document, BufferedImage picture, List<byte[]> sharedSecrets, ProgressListener listener) throws IOException, CryptoException {
+        return hideBroadcast(document, picture, sharedSecrets, true, listener);
+    }
+
+    private static BufferedImage hideBroadcast(File document, BufferedImage picture, List<byte[]> sharedSecrets, boolean sparse, ProgressListener listener) throws IOException, CryptoException {
+        return hideBroadcast(readDocument(document, listener), document.getName(), picture, sharedSecrets, sparse, listener);
+    }
+
+    /**
+     * Wie {@link #hideBroadcast(File, BufferedImage, List, ProgressListener)}, das Dokument liegt aber bereits im
+     * Speicher vor.
+     *
+     * @param document Inhalt des zu versteckenden Dokuments.
+     * @param fileName Dateiname des Dokuments mit Dateityp.
+     */
+    public static BufferedImage hideBroadcast(byte[] document, String fileName, BufferedImage picture, List<byte[]> sharedSecrets, ProgressListener listener) throws CryptoException {
+        return hideBroadcast(document, fileName, picture, sharedSecrets, false, listener);
+    }
+
+    private static BufferedImage hideBroadcast(byte[] document, String fileName, BufferedImage picture, List<byte[]> sharedSecrets, boolean sparse, ProgressListener listener) throws CryptoException {
+        byte[] contentSecret = contentSecret();
+        byte[] header = recipientTable(sharedSecrets, contentSecret);
+
+        // Das Dokument selbst wird nur ein einziges Mal mit dem Inhalts-Schlüssel verschlüsselt.
+        byte[] cipher = buildCipher(document, fileName, contentSecret, listener);
+
+        return embed(header, cipher, picture, sparse ? contentSecret : null, listener);
+    }
+
+    /**
+     * Liefert die Anzahl Bytes, die die Empfänger-Tabelle eines Broadcasts zusätzlich im Bild belegt.
+     *
+     * @param recipients Anzahl Empfänger.
+     * @return Größe des Headers in Bytes (entspricht der Anzahl Pixel).
+     */
+    public static int broadcastHeaderSize(int recipients) {
+        return BROADCAST_MAGIC.length + 2 + recipients * WRAPPED_KEY_LENGTH;
+    }
+
+    // Erzeugt einen zufälligen Inhalts-Schlüssel. Dieser hat die Form eines Shared-Secrets, sodass AES den Key und den
+    // Initialisierungsvektor wie gewohnt daraus ableiten kann.
+    static byte[] contentSecret() {
+        byte[] contentSecret = new byte[CONTENT_SECRET_LENGTH];
+        new SecureRandom().nextBytes(contentSecret);
+        return contentSecret;
+    }
+
+    // Baut die Empfänger-Tabelle eines Broadcasts: Kennung und Anzahl Empfänger, gefolgt vom verschlüsselten Inhalts-Schlüssel
+    // jedes Empfängers.
+    static byte[] recipientTable(List<byte[]> sharedSecrets, byte[] contentSecret) throws CryptoException {
+        if (sharedSecrets.isEmpty() || sharedSecrets.size() > MAX_RECIPIENTS) {
+            throw new IllegalArgumentException("Number of recipients must be between 1 and " + MAX_RECIPIENTS + ".");
+        }
+
+        // Für jeden Empfänger wird der Inhalts-Schlüssel zusammen mit einer Prüfsequenz aus Nullen verschlüsselt. Über
+        // die Prüfsequenz erkennt der Empfänger beim Extrahieren seinen eigenen Eintrag.
+        byte[] wrapPlain = new byte[CONTENT_SECRET_LENGTH + WRAP_CHECK_LENGTH];
+        System.arraycopy(contentSecret, 0, wrapPlain, 0, CONTENT_SECRET_LENGTH);
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        byteArrayOutputStream.writeBytes(BROADCAST_MAGIC);
+        byteArrayOutputStream.write(sharedSecrets.size() >> 8);
+        byteArrayOutputStream.write(sharedSecrets.size());
+        for (byte[] sharedSecret: sharedSecrets) {
+            byte[] wrapped = AES.encrypt(wrapPlain, sharedSecret);
+            if (wrapped.length != WRAPPED_KEY_LENGTH) {
+                throw new IllegalStateException("Could not wrap content key for recipient.");
+            }
+            byteArrayOutputStream.writeBytes(wrapped);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    // Das übermittelte Dokument wird von einer Datei in eine Byte-Folge konvertiert.
+    static byte[] readDocument(File document, ProgressListener listener) throws IOException {
+        listener.progress(ProgressListener.Stage.READ, 0, document.length());
+        Metrics.Sample read = Metrics.start("steganography", "read-document");
         byte[] documentBytes = Files.readAllBytes(document.toPath());
-        byte[] encryptedDocumentBytes = AES.encrypt(documentBytes, sharedSecret);
+        read.stop(documentBytes.length);
+        checkCancelled(listener);
+
+        return documentBytes;
+    }
+
+    // Baut den Chiffretext aus verschlüsseltem Dokument, Dateiname und den jeweiligen Ende-Flags zusammen.
+    static byte[] buildCipher(byte[] documentBytes, String fileName, byte[] sharedSecret, ProgressListener listener) throws CryptoException {
+
+        // Das Dokument wird mittels AES direkt an seine Stelle im gesamten Chiffretext verschlüsselt, ohne
+        // Zwischenkopie. Danach folgen Flags und Dateiname:
+        // Dokument (encrypted) --> Dokument-Flag --> Dateityp (encrypted) --> Ende-Flag
+        byte[] trailer = trailer(fileName, sharedSecret);
+        byte[] cipher = new byte[AES.encryptedLength(documentBytes.length) + trailer.length];
+
+        listener.progress(ProgressListener.Stage.ENCRYPT, 0, documentBytes.length);
+        int encryptedLength = AES.encrypt(documentBytes, sharedSecret, cipher, 0);
+        listener.progress(ProgressListener.Stage.ENCRYPT, documentBytes.length, documentBytes.length);
+        checkCancelled(listener);
+
+        System.arraycopy(trailer, 0, cipher, encryptedLength, trailer.length);
+        return cipher;
+    }
+
+    /**
+     * Liefert den Teil des Chiffretextes, der auf das verschlüsselte Dokument folgt:
+     * Dokument-Flag --> Dateityp (encrypted) --> Ende-Flag
+     */
+    static byte[] trailer(String fileName, byte[] sharedSecret) throws CryptoException {
 
         // Zur wiedererkkenung des Endes der Datei sowie des Namens/Dateityps im Bild werden Flags angehängt.
         // Diese werden zur Verschleierung stets vom symmetrischen Schlüssel abgeleitet, sodass die Flags variieren.
@@ -69,126 +353,42 @@ public class Steganography {
         System.arraycopy(endPoints, 42, cipherEndFlag, 0, cipherEndFlag.length);
 
         // Extrahiert den Dateinamen als Byte-Folge. Diese wird ebenfalls mit dem gleichen Key verschlüsselt.
-        byte[] encryptedFileNameBytes = AES.encrypt(document.getName().getBytes(Charset.forName("UTF-8")), sharedSecret);
+        byte[] encryptedFileNameBytes = AES.encrypt(fileName.getBytes(Charset.forName("UTF-8")), sharedSecret);
 
-        // Fügt die Byte-Arrays zu einem gesamten Chiffretext zusammen.
-        // Dokument (encrypted) --> Dokument-Flag --> Dateityp (encrypted) --> Ende-Flag
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        byteArrayOutputStream.write(encryptedDocumentBytes);
-        byteArrayOutputStream.write(documentEndFlag);
-        byteArrayOutputStream.write(encryptedFileNameBytes);
-        byteArrayOutputStream.write(cipherEndFlag);
-        byte[] cipher = byteArrayOutputStream.toByteArray();
-        byteArrayOutputStream.close();
-
-        // Im zweiten Schritt wird der erzeugte Byte-Strom in das Bild codiert.
-        // Konvertiere die Bild-Datei hierzu in ein BufferedImage, um die ARGB-Werte zu modifizieren.
-        //
-        // Dabei wird ein Farbraum verwendet, der neben RGB-Kanälen auch einen Alpha-Kanal besitzt und diesen somit
-        // automatisch erstellt, falls das Ausgangsbild keinen besitzt.
-        BufferedImage tmp = ImageIO.read(picture);
-        BufferedImage img = new BufferedImage(tmp.getWidth(), tmp.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = img.createGraphics();
-        g.drawImage(tmp, 0, 0, null);
-        g.dispose();
-
-        // Deklaration einiger Hilfvariablen für den steganografischen Algorithmus.
-        byte[] rgbBytes = new byte[4];
-        byte insert;
-        byte into;
-        int width = img.getWidth();
-        int height = img.getHeight();
-        int rgbInt;
-        int x = -1;
-        int y = 0;
-        byte aesMask = (byte) 0b00000011;
-        byte rgbMask = (byte) 0b11111100;
-
-        // Für jedes Byte des Chiffretextes: Bits auf ARGB-Wert eines Pixels verteilen.
-        for (byte aesByte: cipher) {
+        byteArrayOutputStream.writeBytes(documentEndFlag);
+        byteArrayOutputStream.writeBytes(encryptedFileNameBytes);
+        byteArrayOutputStream.writeBytes(cipherEndFlag);
 
-            // Zunächst rückt der Lesekopf ein Pixel weiter. Zu Beginn startet er außerhalb des Bildes und rückt auf
-            // das erste Pixel. Am Ende einer Zeile wird in die nächste gesprungen. Am Ende des Bildes wird einmalig
-            // von Vorne angefangen, indem die nächsthöheren Bits der ARGB-Werte manipuliert werden. Dementsprechend
-            // wird eine Maske definiert.
-            x++;
-            if (x >= width) {
-                y++;
-                if (y >= height) {
-                    Alert alert = new Alert(Alert.AlertType.ERROR);
-                    alert.setContentText("This picture is not big enough for this File.");
-                    alert.showAndWait();
-                    return null;
-                }
-                x = 0;
-            }
+        return byteArrayOutputStream.toByteArray();
+    }
 
-            // Danach wird der ARGB-Wert des aktuellen Pixels geladen und in seine 4 Bytes aufgeteilt.
-            // Alpha --> Rot --> Grün --> Blau
-            rgbInt = img.getRGB(x, y);
-            rgbBytes[0] = (byte)((rgbInt >> 24) & 0xff);
-            rgbBytes[1] = (byte)((rgbInt >> 16) & 0xff);
-            rgbBytes[2] = (byte)((rgbInt >> 8) & 0xff);
-            rgbBytes[3] = (byte)((rgbInt) & 0xff);
+    /**
+     * Liefert die Markierung, die im sparsamen Modus vor dem Chiffretext steht (siehe {@link #hideSparse}). Sie wird
+     * wie die Ende-Flags aus dem Secret abgeleitet: Werte an den Stellen 16 - 20.
+     */
+    static byte[] sparseMarker(byte[] secret) throws CryptoException {
+        byte[] endPoints = AES.encrypt(ByteBuffer.allocate(100).array(), secret);
+        return Arrays.copyOfRange(endPoints, 16, 21);
+    }
 
-            // In vier Runden werden jeweils 2 Bits in ein Byte des ARGB-Wertes codiert.
-            //
-            // Dafür wird das Chiffre-Byte mit einer Maske so manipuliert, dass alle Bits außer den niedrigsten beiden
-            // 0 sind. Das ARGB-Byte wird im Gegensatz dazu so manipuliert, dass genau die ersten beiden Bits 0 sind.
-            // Zum Schluss werden die beiden maskierten Bytes miteinander ODER-Verknüpft, sodass die restlichen höheren
-            // Bits erhalten bleiben, wodurch der ursprüngliche Farbwert kaum abweicht.
-            for (int i = 0; i < 4; i++) {
-                insert = (byte)(aesByte & aesMask);
-                into = (byte)(rgbBytes[i] & rgbMask);
-                rgbBytes[i] = (byte)(insert | into);
-
-                aesByte = (byte)(aesByte >> 2);
-            }
+    // Codiert optional einen fortlaufenden Header und anschließend den Chiffretext in die Pixel des Bildes. Ohne
+    // scatterSecret werden die restlichen Pixel mit Zufallswerten gefüllt, mit scatterSecret wird der Chiffretext auf
+    // davon abhängig ausgewählte Pixel verteilt.
+    private static BufferedImage embed(byte[] header, byte[] cipher, BufferedImage tmp, byte[] scatterSecret, ProgressListener listener) throws CryptoException {
+        Embedder embedder = new Embedder(tmp, listener);
 
-            // Der mit den Informationen angereicherte ARGB-Wert wird nach der Codierung in das Bild geschrieben.
-            img.setRGB(x, y, ByteBuffer.wrap(rgbBytes).getInt());
+        Metrics.Sample embed = Metrics.start("steganography", "embed");
+        if (header != null) {
+            embedder.write(header, 0, header.length);
         }
-
-        // Wurden noch nicht alle Pixel manipuliert, so werden die restlichen Pixel mit zufälligen Werten beschrieben.
-        if (x != width-1 && y != height-1) {
-
-            // Dafür wird ein Byte-Array mit einer Länge gleich der Anzahl an verbleibenden Pixeln generiert und
-            // anschließend mit Zufallswertden befüllt.
-            byte[] randoms = new byte[(width-x-1) + ((height-y-1)*width)];
-            new Random().nextBytes(randoms);
-
-            // Die Codierung der Pixel erfolgt analog zum vorherigen Ablauf mit dem Chiffretext.
-            for (byte randomByte: randoms) {
-                x++;
-                if (x >= width) {
-                    y++;
-                    if (y >= height) {
-                        System.out.println("Error while encrypting: Something went wrong.");
-                        break;
-                    }
-                    x = 0;
-                }
-
-                rgbInt = img.getRGB(x, y);
-                rgbBytes[0] = (byte)((rgbInt >> 24) & 0xff);
-                rgbBytes[1] = (byte)((rgbInt >> 16) & 0xff);
-                rgbBytes[2] = (byte)((rgbInt >> 8) & 0xff);
-                rgbBytes[3] = (byte)((rgbInt) & 0xff);
-
-                for (int i = 0; i < 4; i++) {
-                    insert = (byte)(randomByte & aesMask);
-                    into = (byte)(rgbBytes[i] & rgbMask);
-                    rgbBytes[i] = (byte)(insert | into);
-
-                    randomByte = (byte)(randomByte >> 2);
-                }
-
-                img.setRGB(x, y, ByteBuffer.wrap(rgbBytes).getInt());
-            }
+        if (scatterSecret != null) {
+            embedder.scatter(scatterSecret);
         }
+        embedder.write(cipher, 0, cipher.length);
+        embed.stop(cipher.length + (header != null ? header.length : 0));
 
-        // Zum Schluss wird das manipulierte Bild zurückgegeben.
-        return img;
+        return embedder.finish();
     }
 
     /**
@@ -206,14 +406,206 @@ public class Steganography {
      * Datei vollständig wiederhergestellt werden kann. Wurde auf der zweiten Ebene auch kein Ende-Flag erfasst, so
      * bricht der Algorithmus ab, da keine versteckte Datei im PNG-Bild erfasst wurde.
      *
+     * Mit {@link #hideSparse} versteckte Dokumente werden an ihrer Markierung erkannt und ebenso extrahiert.
+     *
      * @param picture PNG-Bild, in welchem eventuell eine Datei eingebettet wurde.
      * @param sharedSecret Mit Diffie-Hellman erzeugtes symmetrisches Geheimnis zur Erzeugung eines AES-Keys.
      * @return Extrahierte Datei und deren ursprünglicher Name mit Dateityp.
      */
-    public static byte[][] extract(File picture, byte[] sharedSecret) throws Exception {
+    public static ExtractedDocument extract(File picture, byte[] sharedSecret) throws IOException, CryptoException {
+        return extract(picture, sharedSecret, ProgressListener.NONE);
+    }
+
+    /**
+     * Wie {@link #extract(File, byte[])}, meldet aber den Fortschritt an den Listener und kann über diesen
+     * abgebrochen werden.
+     *
+     * @param listener Empfänger der Fortschrittsmeldungen.
+     */
+    public static ExtractedDocument extract(File picture, byte[] sharedSecret, ProgressListener listener) throws IOException, CryptoException {
 
         // Das übermittelte Bild wird in ein BufferedImage verwandelt, um die ARGB-Werte auszulesen.
+        return extract(readPicture(picture, listener), sharedSecret, listener);
+    }
+
+    /**
+     * Wie {@link #extract(File, byte[], ProgressListener)}, verwendet aber ein bereits decodiertes Bild.
+     *
+     * @param picture Bereits decodiertes Bild, in welchem eventuell eine Datei eingebettet wurde.
+     */
+    public static ExtractedDocument extract(BufferedImage picture, byte[] sharedSecret, ProgressListener listener) throws CryptoException {
+        return extract(picture, 0, sharedSecret, listener);
+    }
+
+    /**
+     * Funktion zum Extrahieren eines Dokuments, das mit {@link #hideBroadcast} für mehrere Empfänger versteckt wurde.
+     *
+     * Zunächst wird die Empfänger-Tabelle am Anfang des Bildes gelesen. Jeder Eintrag wird mit dem eigenen
+     * Shared-Secret entschlüsselt, bis die Prüfsequenz übereinstimmt. Mit dem so gewonnenen Inhalts-Schlüssel wird der
+     * restliche Chiffretext wie bei {@link #extract(File, byte[])} ausgelesen und entschlüsselt.
+     *
+     * @param picture PNG-Bild, in welchem eventuell eine Datei eingebettet wurde.
+     * @param sharedSecret Mit Diffie-Hellman erzeugtes symmetrisches Geheimnis des Empfängers.
+     * @return Extrahierte Datei und deren ursprünglicher Name mit Dateityp.
+     */
+    public static ExtractedDocument extractBroadcast(File picture, byte[] sharedSecret) throws IOException, CryptoException {
+        return extractBroadcast(picture, sharedSecret, ProgressListener.NONE);
+    }
+
+    /**
+     * Wie {@link #extractBroadcast(File, byte[])}, meldet aber den Fortschritt an den Listener und kann über diesen
+     * abgebrochen werden.
+     *
+     * @param listener Empfänger der Fortschrittsmeldungen.
+     */
+    public static ExtractedDocument extractBroadcast(File picture, byte[] sharedSecret, ProgressListener listener) throws IOException, CryptoException {
+        return extractBroadcast(readPicture(picture, listener), sharedSecret, listener);
+    }
+
+    /**
+     * Wie {@link #extractBroadcast(File, byte[], ProgressListener)}, verwendet aber ein bereits decodiertes Bild.
+     *
+     * @param img Bereits decodiertes Bild, in welchem eventuell eine Datei eingebettet wurde.
+     */
+    public static ExtractedDocument extractBroadcast(BufferedImage img, byte[] sharedSecret, ProgressListener listener) throws CryptoException {
+        int recipients = recipients(img);
+        if (recipients == 0) {
+            throw new SteganographyException("This picture doesn't seem to contain a broadcast message.");
+        }
+
+        ExtractedDocument document = extractAddressed(img, recipients, sharedSecret, listener);
+        if (document == null) {
+            throw new SteganographyException("This message was not addressed to this contact.");
+        }
+        return document;
+    }
+
+    /**
+     * Extrahiert ein Dokument, ohne dass bekannt sein muss, ob es mit {@link #hide} oder {@link #hideBroadcast}
+     * versteckt wurde.
+     *
+     * Beginnt das Bild mit der Kennung einer Empfänger-Tabelle und enthält diese einen Eintrag für das Shared-Secret,
+     * wird wie bei {@link #extractBroadcast} extrahiert, andernfalls wie bei {@link #extract}. Die Prüfsequenz jedes
+     * Eintrags schließt eine Verwechslung praktisch aus.
+     *
+     * @param img Bereits decodiertes Bild, in welchem eventuell eine Datei eingebettet wurde.
+     * @param sharedSecret Mit Diffie-Hellman erzeugtes symmetrisches Geheimnis des Empfängers.
+     */
+    public static ExtractedDocument extractAny(BufferedImage img, byte[] sharedSecret, ProgressListener listener) throws CryptoException {
+        int recipients = recipients(img);
+        if (recipients > 0) {
+            ExtractedDocument document = extractAddressed(img, recipients, sharedSecret, listener);
+            if (document != null) {
+                return document;
+            }
+        }
+
+        return extract(img, sharedSecret, listener);
+    }
+
+    // Liest die Anzahl Empfänger hinter der Kennung. Liefert 0, falls die Kennung fehlt oder die Tabelle nicht ins Bild
+    // passt.
+    private static int recipients(BufferedImage img) {
+        int count = BROADCAST_MAGIC.length + 2;
+        if (count >= img.getWidth() * img.getHeight()) {
+            return 0;
+        }
+        for (int i = 0; i < BROADCAST_MAGIC.length; i++) {
+            if (readByte(img, i) != BROADCAST_MAGIC[i]) {
+                return 0;
+            }
+        }
+
+        int recipients = ((readByte(img, count - 2) & 0xff) << 8) | (readByte(img, count - 1) & 0xff);
+        if (broadcastHeaderSize(recipients) >= img.getWidth() * img.getHeight()) {
+            return 0;
+        }
+        return recipients;
+    }
+
+    // Sucht in der Empfänger-Tabelle nach einem Eintrag, der sich mit dem eigenen Shared-Secret entschlüsseln lässt, und
+    // extrahiert damit den restlichen Chiffretext. Liefert null, falls es keinen solchen Eintrag gibt.
+    private static ExtractedDocument extractAddressed(BufferedImage img, int recipients, byte[] sharedSecret, ProgressListener listener) throws CryptoException {
+        byte[] wrapped = new byte[WRAPPED_KEY_LENGTH];
+        for (int r = 0; r < recipients; r++) {
+            int offset = broadcastHeaderSize(r);
+            for (int i = 0; i < WRAPPED_KEY_LENGTH; i++) {
+                wrapped[i] = readByte(img, offset + i);
+            }
+
+            byte[] contentSecret = unwrapContentSecret(wrapped, sharedSecret);
+            if (contentSecret != null) {
+                return extract(img, broadcastHeaderSize(recipients), contentSecret, listener);
+            }
+        }
+
+        return null;
+    }
+
+    // Decodiert die Bild-Datei und meldet dies als Arbeitsschritt READ.
+    private static BufferedImage readPicture(File picture, ProgressListener listener) throws IOException, SteganographyException {
+        listener.progress(ProgressListener.Stage.READ, 0, picture.length());
+        Metrics.Sample read = Metrics.start("steganography", "read");
         BufferedImage img = ImageIO.read(picture);
+        if (img == null) {
+            throw new SteganographyException("This file is not a supported picture.");
+        }
+        read.stop(picture.length());
+        listener.progress(ProgressListener.Stage.READ, picture.length(), picture.length());
+        checkCancelled(listener);
+
+        return img;
+    }
+
+    // Entschlüsselt einen Eintrag der Empfänger-Tabelle. Liefert null, falls der Eintrag nicht zum Shared-Secret passt.
+    private static byte[] unwrapContentSecret(byte[] wrapped, byte[] sharedSecret) {
+        byte[] plain;
+        try {
+            plain = AES.decrypt(wrapped, sharedSecret);
+        } catch (CryptoException e) {
+            return null;
+        }
+        if (plain.length != CONTENT_SECRET_LENGTH + WRAP_CHECK_LENGTH) {
+            return null;
+        }
+
+        for (int i = CONTENT_SECRET_LENGTH; i < plain.length; i++) {
+            if (plain[i] != 0) {
+                return null;
+            }
+        }
+
+        return Arrays.copyOf(plain, CONTENT_SECRET_LENGTH);
+    }
+
+    // Liest das Byte, das im Pixel mit dem übergebenen Index codiert ist.
+    private static byte readByte(BufferedImage img, int index) {
+        int rgbInt = img.getRGB(index % img.getWidth(), index / img.getWidth());
+        int value = 0;
+
+        // Die niedrigsten beiden Bits von Alpha, Rot, Grün und Blau ergeben aufsteigend die Bits des Bytes.
+        for (int i = 0; i < 4; i++) {
+            value |= ((rgbInt >> (24 - 8 * i)) & 0b11) << (2 * i);
+        }
+
+        return (byte) value;
+    }
+
+    // Prüft, ob die ersten ausgewählten Pixel die Markierung des sparsamen Modus enthalten.
+    private static boolean hasSparseMarker(BufferedImage img, PixelSelection selection, byte[] endPoints) {
+        if (selection.size() < 5) {
+            return false;
+        }
+        for (int i = 0; i < 5; i++) {
+            if (readByte(img, (int) selection.pixel(i)) != endPoints[16 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Liest den Chiffretext ab dem übergebenen Pixel-Index aus dem Bild und entschlüsselt ihn.
+    private static ExtractedDocument extract(BufferedImage img, int offset, byte[] sharedSecret, ProgressListener listener) throws CryptoException {
 
         // Analog zur Verschlüsselung und Einbettung müssen hier die Flags berechnet werden, damit das Tool nach diesen
         // im Bild suchen kann. Die Flags werden zur Verschleierung stets vom symmetrischen Schlüssel abgeleitet, sodass
@@ -235,31 +627,56 @@ public class Steganography {
         int width = img.getWidth();
         int height = img.getHeight();
         int rgbInt;
-        int x = -1;
-        int y = 0;
+        int x = offset % width - 1;
+        int y = offset / width;
         byte aesMask = 0b00111111;
         byte rgbMask = 0b00000011;
 
-        // Extrahierte Daten werden in Outputstreams geschrieben und später entschlüsselt.
-        ByteArrayOutputStream outputDocument = new ByteArrayOutputStream();
-        ByteArrayOutputStream outputFileType = new ByteArrayOutputStream();
+        // Extrahierte Daten werden in Outputstreams geschrieben und später entschlüsselt. Deren Puffer stammen aus dem
+        // BufferPool und werden nach der Entschlüsselung zurückgegeben.
+        PooledByteStream outputDocument = new PooledByteStream(1 << 16);
+        PooledByteStream outputFileType = new PooledByteStream(256);
+
+        long totalPixels = (long) width * height;
+        long pixel = offset;
+        Metrics.Sample scan = Metrics.start("steganography", "scan");
+
+        // Wurde sparsam eingebettet (siehe hideSparse), steht in den ersten ausgewählten Pixeln die Markierung. Dann wird
+        // der Chiffretext aus den ausgewählten Pixeln gelesen, andernfalls fortlaufend.
+        PixelSelection selection = new PixelSelection(sharedSecret, offset, totalPixels - offset);
+        long scattered = 0;
+        if (hasSparseMarker(img, selection, endPoints)) {
+            scattered = 5;
+        } else {
+            selection = null;
+        }
 
         while(next) {
+            if (++pixel % PROGRESS_INTERVAL == 0) {
+                listener.progress(ProgressListener.Stage.EXTRACT, pixel, totalPixels);
+                checkCancelled(listener);
+            }
 
             // Zunächst rückt der Lesekopf ein Pixel weiter. Zu Beginn startet er außerhalb des Bildes und rückt auf
             // das erste Pixel. Am Ende einer Zeile wird in die nächste gesprungen. Am Ende des Bildes wird einmalig
             // von Vorne angefangen, indem die nächsthöheren Bits der ARGB-Werte manipuliert werden. Dementsprechend
-            // wird eine Maske definiert.
-            x++;
-            if (x >= width) {
-                y++;
-                if (y >= height) {
-                    Alert alert = new Alert(Alert.AlertType.ERROR);
-                    alert.setContentText("This picture doesn't seem to contain any hidden files.");
-                    alert.showAndWait();
-                    return null;
+            // wird eine Maske definiert. Im sparsamen Modus springt der Lesekopf auf das nächste ausgewählte Pixel.
+            if (selection != null) {
+                if (scattered >= selection.size()) {
+                    throw new SteganographyException("This picture doesn't seem to contain any hidden files.");
+                }
+                long index = selection.pixel(scattered++);
+                x = (int) (index % width);
+                y = (int) (index / width);
+            } else {
+                x++;
+                if (x >= width) {
+                    y++;
+                    if (y >= height) {
+                        throw new SteganographyException("This picture doesn't seem to contain any hidden files.");
+                    }
+                    x = 0;
                 }
-                x = 0;
             }
 
             // Danach wird der ARGB-Wert des aktuellen Pixels geladen und in seine 4 Bytes aufgeteilt.
@@ -337,32 +754,58 @@ public class Steganography {
             }
         }
 
-        // Als Ergebnis liegen zwei Outputstreams vor: Dokument und dessen Dateiname mit Typ, jeweils mit Flag am Ende
-        // Deshalb werden die Outputstreams in Byte-Arrays geschrieben. Danach werden die Flags abgeschnitten.
-        byte[] flaggedEncryptedDocumentBytes = outputDocument.toByteArray();
-        byte[] encryptedDocumentBytes = new byte[flaggedEncryptedDocumentBytes.length - 5];
-        System.arraycopy(flaggedEncryptedDocumentBytes, 0, encryptedDocumentBytes, 0, encryptedDocumentBytes.length);
-
-        byte[] flaggedEncryptedFileNameBytes = outputFileType.toByteArray();
-        byte[] encryptedFileNameBytes = new byte[flaggedEncryptedFileNameBytes.length - 5];
-        System.arraycopy(flaggedEncryptedFileNameBytes, 0, encryptedFileNameBytes, 0, encryptedFileNameBytes.length);
-
-        // Nach Entfernen der Flags wird das Dokument mit dem übergebenen Shared-Secret entschlüsselt.
-        byte[] documentBytes = AES.decrypt(encryptedDocumentBytes, sharedSecret);
+        scan.stop(pixel - offset);
+
+        // Als Ergebnis liegen zwei Outputstreams vor: Dokument und dessen Dateiname mit Typ, jeweils mit Flag am Ende.
+        // Die Flags werden beim Entschlüsseln abgeschnitten, indem nur der Bereich davor übergeben wird.
+        int encryptedDocumentLength = outputDocument.size() - 5;
+        int encryptedFileNameLength = outputFileType.size() - 5;
+
+        byte[] documentBytes;
+        String fileName = null;
+        try {
+            // Nach Entfernen der Flags wird das Dokument mit dem übergebenen Shared-Secret entschlüsselt.
+            // Schlägt die Entschlüsselung fehl, so wird eine Meldung für den Anwender erzeugt.
+            listener.progress(ProgressListener.Stage.DECRYPT, 0, encryptedDocumentLength);
+            try {
+                documentBytes = AES.decrypt(outputDocument.array(), 0, encryptedDocumentLength, sharedSecret);
+            } catch (CryptoException e) {
+                throw new SteganographyException("Wrong decryption key.", e);
+            }
+            listener.progress(ProgressListener.Stage.DECRYPT, encryptedDocumentLength, encryptedDocumentLength);
+
+            // Um die extrahierte Datei exportieren zu können wird zum Schluss auch der Dateiname/-typ entschlüsselt.
+            // Ein unlesbarer Dateiname verhindert den Export des Dokuments nicht.
+            try {
+                fileName = new String(AES.decrypt(outputFileType.array(), 0, encryptedFileNameLength, sharedSecret), StandardCharsets.UTF_8);
+            } catch (CryptoException e) {
+                // Das Dokument wird ohne ursprünglichen Dateinamen geliefert.
+            }
+        } finally {
+            outputDocument.close();
+            outputFileType.close();
+        }
 
-        // Um die extrahierte Datei exportieren zu können wird zum Schluss auch der Dateiname/-typ entschlüsselt.
-        byte[] fileNameBytes = AES.decrypt(encryptedFileNameBytes, sharedSecret);
+        return new ExtractedDocument(documentBytes, fileName);
+    }
 
-        // Schlägt die Entschlüsselung fehl, so wird eine Meldung für den Anwender erzeugt. Andernfalls werden
-        // Dokument und Dateiname/-typ zum Export als Byte-Arrays übermittelt.
-        if (documentBytes == null && fileNameBytes == null) {
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setContentText("Wrong decryption key.");
-            alert.showAndWait();
-            return null;
-        } else {
-            return new byte[][]{documentBytes, fileNameBytes};
+    /**
+     * Gibt das Bild eines abgeschlossenen Versteckens an den {@link BufferPool} zurück, z.B. nachdem es als PNG
+     * geschrieben wurde. Der nächste Job verwendet dann dessen Pixel-Speicher, anstatt ein neues bildgroßes Array
+     * anzulegen. Danach darf das Bild nicht mehr verwendet werden.
+     *
+     * @param picture Von hide, hideSparse oder hideBroadcast geliefertes Bild, nicht das Trägerbild.
+     */
+    public static void release(BufferedImage picture) {
+        if (picture.getRaster().getDataBuffer() instanceof DataBufferInt) {
+            BufferPool.release(((DataBufferInt) picture.getRaster().getDataBuffer()).getData());
         }
+    }
 
+    // Bricht die laufende Operation ab, falls dies über den Listener angefordert wurde.
+    static void checkCancelled(ProgressListener listener) {
+        if (listener.isCancelled()) {
+            throw new CancellationException();
+        }
     }
 }
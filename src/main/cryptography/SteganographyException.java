@@ -0,0 +1,17 @@
+package main.cryptography;
+
+/**
+ * Fehler beim Verstecken oder Extrahieren eines Dokuments, dessen Meldung dem Anwender angezeigt werden kann.
+ */
+public class SteganographyException extends CryptoException {
+
+    private static final long serialVersionUID = 1L;
+
+    public SteganographyException(String message) {
+        super(message);
+    }
+
+    public SteganographyException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,12 @@
+/**
+ * Kern von cryptor: Schlüsselaustausch (Diffie-Hellman), Verschlüsselung (AES) und Steganografie.
+ *
+ * Dieses Paket ist unabhängig von JavaFX und kann ohne Display z.B. in einem Server, einem Batch-Job oder einem
+ * Benchmark verwendet werden. Fehler werden nicht angezeigt oder ausgegeben, sondern als {@link
+ * main.cryptography.CryptoException} bzw. {@link main.cryptography.SteganographyException} an den Aufrufer gemeldet.
+ * Ergebnisse werden als Objekte wie {@link main.cryptography.ExtractedDocument} geliefert.
+ *
+ * Erlaubte Abhängigkeit: main.metrics. Abhängigkeiten zu main.users und zur Oberfläche (Paket main) sind in diesem
+ * Paket nicht erlaubt.
+ */
+package main.cryptography;
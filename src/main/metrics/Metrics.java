@@ -0,0 +1,145 @@
+package main.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prozessweites Register für Laufzeit-Metriken.
+ *
+ * Jeder Arbeitsschritt (z.B. "steganography.embed", "aes.encrypt") wird über {@link #start} gemessen. Pro Schritt
+ * werden Anzahl, Gesamtdauer, verarbeitete Bytes und ein Latenz-Histogramm geführt. Zusätzlich wird für jede Messung
+ * ein JFR-Event erzeugt, sodass sich einzelne langsame Vorgänge in einer Aufzeichnung nachvollziehen lassen.
+ *
+ * Alle Zähler sind nebenläufig und ohne Sperre. Ist keine JFR-Aufzeichnung aktiv, kostet das Event nahezu nichts.
+ */
+public final class Metrics {
+
+    // Histogramm-Klassen: Klasse i enthält Dauern bis 2^i Mikrosekunden, die letzte Klasse alles darüber.
+    private static final int BUCKETS = 32;
+
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Beginnt die Messung eines Arbeitsschrittes.
+     *
+     * @param component Komponente, z.B. "steganography".
+     * @param stage Arbeitsschritt, z.B. "embed".
+     * @return Laufende Messung, die mit {@link Sample#stop} abgeschlossen wird.
+     */
+    public static Sample start(String component, String stage) {
+        return new Sample(component, stage);
+    }
+
+    // Erhöht einen Zähler, z.B. für Fehler oder Cache-Treffer.
+    public static void increment(String name) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    // Setzt alle Metriken zurück.
+    public static void reset() {
+        timers.clear();
+        counters.clear();
+    }
+
+    /**
+     * Liefert alle Metriken als Text, eine Zeile pro Arbeitsschritt bzw. Zähler.
+     *
+     * Format: name count=N total_ms=T mean_us=M p50_us=.. p90_us=.. p99_us=.. max_us=.. bytes=B mb_per_s=D
+     * Die Perzentile sind Obergrenzen der jeweiligen Histogramm-Klasse, höchstens aber das Maximum.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            report.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            report.append(entry.getKey()).append(" count=").append(entry.getValue().sum()).append('\n');
+        }
+        return report.toString();
+    }
+
+    // Laufende Messung eines Arbeitsschrittes.
+    public static final class Sample {
+        private final String name;
+        private final StageEvent event = new StageEvent();
+        private final long start = System.nanoTime();
+
+        private Sample(String component, String stage) {
+            this.name = component + "." + stage;
+            event.component = component;
+            event.stage = stage;
+            event.begin();
+        }
+
+        /**
+         * Schließt die Messung ab.
+         *
+         * @param bytes Anzahl verarbeiteter Bytes bzw. Pixel, 0 falls nicht sinnvoll.
+         */
+        public void stop(long bytes) {
+            long nanos = System.nanoTime() - start;
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.bytes = bytes;
+                event.commit();
+            }
+
+            timers.computeIfAbsent(name, key -> new Timer()).record(nanos, bytes);
+        }
+    }
+
+    private static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private void record(long duration, long processed) {
+            count.increment();
+            nanos.add(duration);
+            bytes.add(processed);
+
+            long micros = duration / 1000;
+            histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+            max.accumulate(duration);
+        }
+
+        // Obergrenze der Histogramm-Klasse, in der das Perzentil liegt.
+        private long percentile(double p, long total) {
+            long threshold = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (seen >= threshold) {
+                    return i == BUCKETS - 1 ? max.get() / 1000 : Math.min(1L << i, max.get() / 1000);
+                }
+            }
+            return max.get() / 1000;
+        }
+
+        @Override
+        public String toString() {
+            long n = count.sum();
+            long totalNanos = nanos.sum();
+            long totalBytes = bytes.sum();
+            double seconds = totalNanos / 1e9;
+
+            return String.format(Locale.ROOT,
+                    "count=%d total_ms=%.1f mean_us=%.1f p50_us=%d p90_us=%d p99_us=%d max_us=%d bytes=%d mb_per_s=%.2f",
+                    n, totalNanos / 1e6, n > 0 ? totalNanos / 1e3 / n : 0.0,
+                    percentile(0.5, n), percentile(0.9, n), percentile(0.99, n), max.get() / 1000,
+                    totalBytes, seconds > 0 ? totalBytes / 1e6 / seconds : 0.0);
+        }
+    }
+}
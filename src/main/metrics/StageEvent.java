@@ -0,0 +1,31 @@
+package main.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR-Event für einen Arbeitsschritt, z.B. das Einbetten des Chiffretextes in die Pixel.
+ *
+ * Aufzeichnung z.B. mit: java -XX:StartFlightRecording=filename=cryptor.jfr ...
+ * Die Events erscheinen in JDK Mission Control unter "cryptor".
+ */
+@Name("cryptor.Stage")
+@Label("Stage")
+@Category("cryptor")
+@Description("A single stage of hiding, extracting, key exchange or contact persistence.")
+final class StageEvent extends Event {
+
+    @Label("Component")
+    String component;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
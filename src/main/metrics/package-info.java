@@ -0,0 +1,7 @@
+/**
+ * Kern von cryptor: Laufzeit-Metriken und JFR-Events für alle Arbeitsschritte.
+ *
+ * Wie main.cryptography und main.users ist dieses Paket unabhängig von JavaFX und der Oberfläche (Paket main). Es
+ * hängt von keinem anderen Paket von cryptor ab.
+ */
+package main.metrics;
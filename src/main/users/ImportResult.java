@@ -0,0 +1,52 @@
+package main.users;
+
+import java.util.List;
+
+/**
+ * Ergebnis eines Imports mit {@link UserAdministration#importUsers}: die angelegten Kontakte und die Keys, für die
+ * kein Kontakt angelegt werden konnte. Bereits bekannte oder doppelte Keys zählen nicht als Fehler.
+ */
+public final class ImportResult {
+
+    private final List<User> created;
+    private final List<Failure> failures;
+
+    ImportResult(List<User> created, List<Failure> failures) {
+        this.created = created;
+        this.failures = failures;
+    }
+
+    // Angelegte Kontakte, deren eigene Public-Keys an die jeweilige Person zurückgehen.
+    public List<User> getCreated() {
+        return created;
+    }
+
+    // Keys, die nicht importiert werden konnten, z.B. weil sie ungültig sind.
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Ein Key, der nicht importiert werden konnte.
+     */
+    public static final class Failure {
+
+        private final String name;
+        private final Throwable cause;
+
+        Failure(String name, Throwable cause) {
+            this.name = name;
+            this.cause = cause;
+        }
+
+        // Name des Kontaktes, wie er dem Import übergeben wurde.
+        public String getName() {
+            return name;
+        }
+
+        // Grund, aus dem kein Kontakt angelegt wurde.
+        public Throwable getCause() {
+            return cause;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package main.users;
+
+import main.cryptography.AES;
+import main.cryptography.CryptoException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kontaktdatei, die per Memory-Mapping gelesen und erst bei Bedarf entschlüsselt wird.
+ *
+ * Beim Start wird nur eine kleine verschlüsselte Übersicht (ID, Name, Fingerprints, Setup-Status) entschlüsselt.
+ * Die Schlüssel jedes Kontaktes liegen als einzeln verschlüsselter Datensatz in der Datei und werden erst entschlüsselt,
+ * wenn der Kontakt tatsächlich verwendet wird. Zuletzt verwendete Datensätze werden in einem begrenzten LRU-Cache
+ * gehalten. Startzeit und Speicherbedarf wachsen so nur noch mit der Übersicht, nicht mit allen Schlüsseln.
+ *
+ * Aufbau: Magic (8 Bytes) --> Anzahl Kontakte (4 Bytes) --> Länge der Übersicht (4 Bytes) --> nächste freie ID
+ * (4 Bytes) --> Übersicht (verschlüsselt) --> Index (je Kontakt Offset (8 Bytes) und Länge (4 Bytes)) --> Datensätze
+ * (jeweils einzeln verschlüsselt)
+ *
+ * Die nächste freie ID liegt über allen jemals vergebenen IDs, auch denen bereits gelöschter Kontakte.
+ *
+ * Der Index enthält ausschließlich Offsets und keinerlei Klartext.
+ *
+ * Unter Windows wird die Datei nicht gemappt, sondern in den Heap gelesen. Eine gemappte Datei lässt sich dort bis zur
+ * Freigabe des Mappings durch den Garbage Collector nicht ersetzen, sodass jede Verdichtung des Journals (siehe
+ * {@link UserJournal}) am Umbenennen des neuen Snapshots scheitern würde. Entschlüsselt wird auch dort erst bei Bedarf.
+ */
+final class MappedUserStore {
+
+    private static final byte[] MAGIC = new byte[]{'c', 'r', 'y', 'p', 't', 'o', 'r', 2};
+    private static final int HEADER = MAGIC.length + 12;
+    private static final int INDEX_ENTRY = 12;
+
+    // Anzahl entschlüsselter Datensätze, die im Speicher gehalten werden.
+    private static final int CACHE_SIZE = 256;
+
+    // Siehe oben: Unter Windows wird nicht gemappt.
+    private static final boolean MAP_FILE = !System.getProperty("os.name").startsWith("Windows");
+
+    // Inhalt der Datei, gemappt oder im Heap.
+    private final ByteBuffer mapped;
+    private final byte[] secret;
+    private final int count;
+    private final int indexOffset;
+
+    private final Map<Integer, UserKeys> cache = new LinkedHashMap<Integer, UserKeys>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, UserKeys> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private MappedUserStore(ByteBuffer mapped, byte[] secret, int count, int indexOffset) {
+        this.mapped = mapped;
+        this.secret = secret;
+        this.count = count;
+        this.indexOffset = indexOffset;
+    }
+
+    // Prüft, ob eine Datei in diesem Format vorliegt.
+    static boolean isMapped(Path file) throws IOException {
+        if (Files.size(file) < HEADER) {
+            return false;
+        }
+
+        return Arrays.equals(readHeader(file, MAGIC.length).array(), MAGIC);
+    }
+
+    // Liefert die gespeicherte nächste freie ID.
+    static int nextId(Path file) throws IOException {
+        return readHeader(file, HEADER).getInt(MAGIC.length + 8);
+    }
+
+    private static ByteBuffer readHeader(Path file, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(length);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Lesen, bis der Header vollständig ist.
+            }
+            if (header.hasRemaining()) {
+                throw new IOException("Contact store is corrupted.");
+            }
+            return header;
+        }
+    }
+
+    // Öffnet die Datei und liefert alle Kontakte. Deren Schlüssel werden erst beim ersten Zugriff entschlüsselt.
+    static List<User> open(Path file, byte[] secret) throws IOException {
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Contact store is too large to be mapped.");
+            }
+            if (MAP_FILE) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } else {
+                mapped = ByteBuffer.allocate((int) channel.size());
+                while (mapped.hasRemaining() && channel.read(mapped) >= 0) {
+                    // Lesen, bis die Datei vollständig im Puffer liegt.
+                }
+                mapped.clear();
+            }
+        }
+
+        int count = mapped.getInt(MAGIC.length);
+        int summaryLength = mapped.getInt(MAGIC.length + 4);
+        if (count < 0 || summaryLength < 0 || (long) HEADER + summaryLength + (long) count * INDEX_ENTRY > mapped.capacity()) {
+            throw new IOException("Contact store is corrupted.");
+        }
+
+        // Alle Datensätze müssen hinter dem Index und vollständig in der Datei liegen. Ein beschädigter Index fällt so
+        // schon beim Öffnen auf und nicht erst beim ersten Zugriff auf einen Kontakt.
+        int indexOffset = HEADER + summaryLength;
+        long recordsOffset = indexOffset + (long) count * INDEX_ENTRY;
+        for (int slot = 0; slot < count; slot++) {
+            long offset = mapped.getLong(indexOffset + slot * INDEX_ENTRY);
+            int length = mapped.getInt(indexOffset + slot * INDEX_ENTRY + 8);
+            if (offset < recordsOffset || length < 0 || offset + length > mapped.capacity()) {
+                throw new IOException("Contact store is corrupted.");
+            }
+        }
+
+        byte[] summary;
+        try {
+            summary = AES.decrypt(read(mapped, HEADER, summaryLength), secret);
+        } catch (CryptoException e) {
+            throw new IOException("Could not decrypt contact store.", e);
+        }
+
+        MappedUserStore store = new MappedUserStore(mapped, secret, count, indexOffset);
+
+        ByteBuffer buffer = ByteBuffer.wrap(summary);
+        List<User> users = new ArrayList<>(count);
+        for (int slot = 0; slot < count; slot++) {
+            users.add(UserCodec.decodeSummary(buffer, store, slot));
+        }
+
+        return users;
+    }
+
+    /**
+     * Schreibt alle Kontakte im Memory-Mapping-Format. Datensätze von Kontakten, die unverändert aus einer bereits
+     * gemappten Datei stammen, werden verschlüsselt übernommen und müssen dafür nicht entschlüsselt werden.
+     *
+     * @param nextId Nächste freie ID, mindestens um eins größer als jede bisher vergebene ID.
+     */
+    static void write(FileChannel out, Collection<User> users, int nextId, byte[] secret) throws IOException {
+        ByteBuffer summaryBuffer = ByteBuffer.allocate(totalSummarySize(users));
+        for (User user : users) {
+            UserCodec.encodeSummary(user, summaryBuffer);
+        }
+
+        byte[] summary;
+        try {
+            summary = AES.encrypt(summaryBuffer.array(), secret);
+        } catch (CryptoException e) {
+            throw new IOException("Could not encrypt contact store.", e);
+        }
+
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16));
+        os.write(MAGIC);
+        os.writeInt(users.size());
+        os.writeInt(summary.length);
+        os.writeInt(nextId);
+        os.write(summary);
+
+        // Die Länge eines AES-CBC-Chiffretextes mit PKCS5-Padding ist vorab bekannt, sodass der Index vor den
+        // Datensätzen geschrieben werden kann, ohne alle Datensätze im Speicher zu halten.
+        long offset = HEADER + summary.length + (long) users.size() * INDEX_ENTRY;
+        for (User user : users) {
+            int length = user.getStore() != null ? user.getStore().recordLength(user.getSlot()) : cipherLength(UserCodec.recordSize(user));
+            os.writeLong(offset);
+            os.writeInt(length);
+            offset += length;
+        }
+
+        for (User user : users) {
+            if (user.getStore() != null) {
+                os.write(user.getStore().rawRecord(user.getSlot()));
+            } else {
+                ByteBuffer record = ByteBuffer.allocate(UserCodec.recordSize(user));
+                UserCodec.encodeRecord(user, record);
+                try {
+                    os.write(AES.encrypt(record.array(), secret));
+                } catch (CryptoException e) {
+                    throw new IOException("Could not encrypt contact.", e);
+                }
+            }
+        }
+
+        os.flush();
+    }
+
+    // Liefert die entschlüsselten Schlüssel eines Kontaktes, bevorzugt aus dem Cache.
+    UserKeys keys(int slot) {
+        synchronized (cache) {
+            UserKeys keys = cache.get(slot);
+            if (keys != null) {
+                return keys;
+            }
+        }
+
+        byte[] record;
+        try {
+            record = AES.decrypt(rawRecord(slot), secret);
+        } catch (CryptoException e) {
+            throw new IllegalStateException("Could not decrypt contact record " + slot + ".", e);
+        }
+
+        User user = UserCodec.decodeRecord(ByteBuffer.wrap(record));
+        UserKeys keys = new UserKeys(user.getMyPrivKey(), user.getMyPublicKey(), user.getSharedSecret());
+
+        synchronized (cache) {
+            cache.put(slot, keys);
+        }
+
+        return keys;
+    }
+
+    private byte[] rawRecord(int slot) {
+        return read(mapped, recordOffset(slot), recordLength(slot));
+    }
+
+    private int recordOffset(int slot) {
+        checkSlot(slot);
+        return (int) mapped.getLong(indexOffset + slot * INDEX_ENTRY);
+    }
+
+    private int recordLength(int slot) {
+        checkSlot(slot);
+        return mapped.getInt(indexOffset + slot * INDEX_ENTRY + 8);
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= count) {
+            throw new IndexOutOfBoundsException("Unknown contact record " + slot + ".");
+        }
+    }
+
+    // Liest einen Bereich aus der gemappten Datei. Die Positionen des geteilten Puffers werden nicht verändert.
+    private static byte[] read(ByteBuffer mapped, int offset, int length) {
+        ByteBuffer view = mapped.duplicate();
+        view.position(offset);
+        byte[] data = new byte[length];
+        view.get(data);
+        return data;
+    }
+
+    private static int totalSummarySize(Collection<User> users) {
+        int size = 0;
+        for (User user : users) {
+            size += UserCodec.summarySize(user);
+        }
+        return size;
+    }
+
+    private static int cipherLength(int plainLength) {
+        return (plainLength / 16 + 1) * 16;
+    }
+
+    // Entschlüsselte Schlüssel eines Kontaktes.
+    static final class UserKeys {
+        final byte[] privateKey;
+        final byte[] publicKey;
+        final byte[] sharedSecret;
+
+        UserKeys(byte[] privateKey, byte[] publicKey, byte[] sharedSecret) {
+            this.privateKey = privateKey;
+            this.publicKey = publicKey;
+            this.sharedSecret = sharedSecret;
+        }
+    }
+}
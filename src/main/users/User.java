@@ -1,19 +1,54 @@
 package main.users;
 
+/**
+ * Kontakt mit den Schlüsseln für den Austausch verschlüsselter Nachrichten.
+ *
+ * Kontakte sind unveränderlich und können daher ohne Synchronisation zwischen Threads geteilt werden.
+ */
 public class User {
 
-    private int id;
-    private String name;
-    private byte[] myPrivKey;
-    private byte[] myPubKey;
-    private byte[] sharedSecret;
+    private final int id;
+    private final String name;
+    private final byte[] myPrivKey;
+    private final byte[] myPubKey;
+    private final byte[] sharedSecret;
+    private final byte[] peerFingerprint;
+    private final byte[] publicKeyFingerprint;
+    private final boolean setupCompleted;
+
+    // Kontakte aus einer gemappten Kontaktdatei halten ihre Schlüssel nicht selbst, sondern laden sie bei Bedarf.
+    private final MappedUserStore store;
+    private final int slot;
 
     public User(int id, String name, byte[] myPrivKey, byte[] myPubKey, byte[] sharedSecret) {
+        this(id, name, myPrivKey, myPubKey, sharedSecret, new byte[0]);
+    }
+
+    User(int id, String name, byte[] myPrivKey, byte[] myPubKey, byte[] sharedSecret, byte[] peerFingerprint) {
         this.id = id;
         this.name = name;
         this.myPrivKey = myPrivKey;
         this.myPubKey = myPubKey;
         this.sharedSecret = sharedSecret;
+        this.peerFingerprint = peerFingerprint;
+        this.publicKeyFingerprint = UserRegistry.fingerprint(myPubKey);
+        this.setupCompleted = sharedSecret.length > 1;
+        this.store = null;
+        this.slot = -1;
+    }
+
+    // Erzeugt einen Kontakt, dessen Schlüssel erst beim ersten Zugriff aus der Kontaktdatei entschlüsselt werden.
+    User(int id, String name, byte[] publicKeyFingerprint, byte[] peerFingerprint, boolean setupCompleted, MappedUserStore store, int slot) {
+        this.id = id;
+        this.name = name;
+        this.publicKeyFingerprint = publicKeyFingerprint;
+        this.peerFingerprint = peerFingerprint;
+        this.setupCompleted = setupCompleted;
+        this.myPrivKey = null;
+        this.myPubKey = null;
+        this.sharedSecret = null;
+        this.store = store;
+        this.slot = slot;
     }
 
     public int getId() {
@@ -25,18 +60,42 @@ public class User {
     }
 
     byte[] getMyPrivKey() {
-        return myPrivKey;
+        return store != null ? store.keys(slot).privateKey : myPrivKey;
     }
 
     public byte[] getMyPublicKey() {
-        return myPubKey;
+        return store != null ? store.keys(slot).publicKey : myPubKey;
     }
 
     public byte[] getSharedSecret() {
-        return sharedSecret;
+        return store != null ? store.keys(slot).sharedSecret : sharedSecret;
     }
 
-    void setSharedSecret(byte[] sharedSecret) {
-        this.sharedSecret = sharedSecret;
+    // Gibt an, ob der Key-Exchange abgeschlossen wurde und ein Shared-Secret vorliegt.
+    public boolean isSetupCompleted() {
+        return setupCompleted;
+    }
+
+    // Fingerprint des Public-Keys dieses Kontaktes. Leer, solange das Setup nicht abgeschlossen ist.
+    byte[] getPeerFingerprint() {
+        return peerFingerprint;
+    }
+
+    // Fingerprint des eigenen Public-Keys für diesen Kontakt.
+    byte[] getPublicKeyFingerprint() {
+        return publicKeyFingerprint;
+    }
+
+    MappedUserStore getStore() {
+        return store;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    // Liefert eine Kopie dieses Kontaktes mit abgeschlossenem Setup.
+    User withSharedSecret(byte[] sharedSecret, byte[] peerFingerprint) {
+        return new User(id, name, getMyPrivKey(), getMyPublicKey(), sharedSecret, peerFingerprint);
     }
 }
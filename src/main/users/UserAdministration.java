@@ -2,15 +2,22 @@ package main.users;
 
 import main.cryptography.DiffieHellman;
 import main.cryptography.AES;
+import main.metrics.Metrics;
 import java.io.*;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Klasse zur Verwaltung der Kontakte, mit denen Ver- und Entschlüsselt wird.
@@ -37,39 +44,82 @@ public class UserAdministration {
             (byte)0xdb
     };
 
-    private NavigableMap<Integer, User> users;
-
-    public UserAdministration() {
-        users = new TreeMap<>();
+    // Alle Kontakte mit Indizes für ID, Name, Public-Key und abgeschlossenes Setup.
+    // Lesezugriffe erfolgen ohne Sperre, Schreibzugriffe werden über writeLock serialisiert.
+    private final UserRegistry users;
+    private final Object writeLock = new Object();
+
+    // Fortlaufende ID für neue Kontakte. IDs gelöschter Kontakte werden nicht erneut vergeben, auch nicht nach einem
+    // Neustart: Snapshot und Journal speichern die nächste freie ID mit (siehe UserJournal#nextId).
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    // Snapshot und Journal, in denen jede Änderung einzeln gespeichert wird.
+    private final UserJournal journal;
+
+    // Threads für die Schlüsselerzeugung beim Import, ein Thread je Prozessorkern. Alle Importe teilen sich diese
+    // Threads. Sie werden erst beim ersten Import gestartet und beenden sich nach einer Minute ohne Arbeit wieder.
+    private final ThreadPoolExecutor importExecutor;
+
+    /**
+     * Die Kontaktverwaltung kann von mehreren Threads gleichzeitig verwendet werden. Lesende Zugriffe warten nie auf
+     * schreibende, Änderungen werden in der Reihenfolge ihres Auftretens im Journal gespeichert.
+     *
+     * @throws IOException Falls die Kontaktdatei nicht gelesen oder entschlüsselt werden kann. Sie bleibt dann
+     * unverändert, es wird keine Kontaktverwaltung mit leerem Stand erzeugt.
+     */
+    public UserAdministration() throws IOException {
+        users = new UserRegistry();
+        journal = new UserJournal(USERS_FILE, CRYPTOR_AES_SECRET, this::copyUsers, nextId::get);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        importExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "cryptor-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        importExecutor.allowCoreThreadTimeOut(true);
+
+        readUsers();
+
+        nextId.set(journal.nextId());
+    }
 
-        try {
-            readUsers();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    /**
+     * Setzt den Empfänger für Fehler, die beim Speichern im Hintergrund auftreten und keinem Aufruf zugeordnet werden
+     * können, z.B. eine fehlgeschlagene Verdichtung der Kontaktdatei. Die Änderungen selbst sind dann bereits
+     * gespeichert. Ohne Empfänger werden diese Fehler verworfen.
+     */
+    public void setErrorListener(Consumer<IOException> errorListener) {
+        journal.setErrorListener(errorListener);
     }
 
     public ArrayList<User> getUsers() {
-        ArrayList<User> userList = new ArrayList<>();
+        return new ArrayList<>(users.all());
+    }
 
-        for (Map.Entry<Integer, User> entry : users.entrySet()) {
-            userList.add(entry.getValue());
-        }
+    // Liefert alle Kontakte, die ein Shared-Secret generiert haben und somit zur Ver- und Entschlüsselung bereit sind.
+    public ArrayList<User> getCompletedUsers() {
+        return new ArrayList<>(users.completed());
+    }
+
+    public User getUser(int id) {
+        return users.get(id);
+    }
 
-        return userList;
+    // Sucht alle Kontakte, deren Name mit der Eingabe beginnt (ohne Beachtung der Groß-/Kleinschreibung).
+    public List<User> findUsers(String namePrefix) {
+        return users.findByNamePrefix(namePrefix);
     }
 
+    // Ermittelt den Kontakt, zu dem ein Public-Key gehört. Erkannt werden sowohl der eigene Public-Key als auch der
+    // bereits importierte Public-Key des Kontaktes. Liefert null, falls der Key unbekannt ist.
+    public User findUserByPublicKey(byte[] publicKeyEnc) {
+        return users.findByPublicKey(publicKeyEnc);
+    }
 
     // Generiere eine eindeutige ID an der Kontakte identifiziert werden können.
     private int generateNewID() {
-        if (users.isEmpty()) {
-            return 0;
-        } else {
-            // Die neue ID entspricht der höchsten aktuellen ID+1.
-            // Kontakte sind in der Map aufsteigend sortiert, sodass der letzte Eintrag die höchste ID hat.
-            Map.Entry<Integer, User> lastEntry = users.lastEntry();
-            return lastEntry.getValue().getId() + 1;
-        }
+        return nextId.getAndIncrement();
     }
 
     // Erstellt einen neuen Kontakt.
@@ -84,9 +134,7 @@ public class UserAdministration {
         // Der neue Kontakt besitzt eine ID, Namen, Private-Key und Public Key. Das Shared-Secret bleibt leer und wird
         // Später berechnet.
         User user = new User(id, name, alice[0], alice[1], new byte[1]);
-        users.put(id, user);
-
-        saveUsers();
+        saveUser(user, null);
 
         return user;
     }
@@ -100,115 +148,167 @@ public class UserAdministration {
         int id = generateNewID();
 
         // Der neue Kontakt besitzt eine ID, Namen, Private-Key, Public Key und Shared-Secret.
-        User user =  new User(id, name, bob[0], bob[1], bob[2]);
-        users.put(id, user);
-
-        saveUsers();
+        User user =  new User(id, name, bob[0], bob[1], bob[2], UserRegistry.fingerprint(publicKeyEnc));
+        saveUser(user, null);
 
         return user;
     }
 
+    /**
+     * Legt viele Kontakte auf einmal anhand ihrer Public-Keys an, z.B. beim Onboarding eines ganzen Teams.
+     *
+     * Die Schlüsselerzeugung (siehe {@link DiffieHellman#bob}) läuft parallel auf allen Prozessorkernen. Anschließend
+     * werden alle Kontakte gemeinsam in das Register übernommen und direkt hintereinander an das Journal angehängt,
+     * sodass sie mit wenigen fsync-Aufrufen gespeichert werden statt mit einem pro Kontakt.
+     *
+     * Bereits importierte Public-Keys und doppelte Keys innerhalb des Imports werden übersprungen. Ungültige Keys
+     * werden ebenfalls übersprungen und im Ergebnis als Fehler gemeldet. Die Methode kehrt erst zurück, wenn alle
+     * Kontakte dauerhaft gespeichert wurden.
+     *
+     * @param names Namen der neuen Kontakte.
+     * @param publicKeysEnc Public-Keys der Kontakte, in derselben Reihenfolge wie die Namen.
+     * @return Die angelegten Kontakte und die Keys, die nicht importiert werden konnten.
+     */
+    public ImportResult importUsers(List<String> names, List<byte[]> publicKeysEnc) throws IOException {
+        if (names.size() != publicKeysEnc.size()) {
+            throw new IllegalArgumentException("Number of names and public keys must be equal.");
+        }
+
+        Metrics.Sample sample = Metrics.start("users", "import");
+
+        // Bekannte und doppelte Keys werden vorab aussortiert, damit für sie keine Schlüssel erzeugt werden.
+        List<Integer> pending = new ArrayList<>();
+        Set<ByteBuffer> fingerprints = new HashSet<>();
+        for (int i = 0; i < publicKeysEnc.size(); i++) {
+            byte[] fingerprint = UserRegistry.fingerprint(publicKeysEnc.get(i));
+            if (findUserByPublicKey(publicKeysEnc.get(i)) == null && fingerprints.add(ByteBuffer.wrap(fingerprint))) {
+                pending.add(i);
+            }
+        }
+
+        List<Future<byte[][]>> keys = new ArrayList<>();
+        try {
+            for (int i : pending) {
+                byte[] publicKeyEnc = publicKeysEnc.get(i);
+                keys.add(importExecutor.submit(() -> DiffieHellman.bob(publicKeyEnc)));
+            }
+
+            List<byte[][]> generated = new ArrayList<>();
+            List<ImportResult.Failure> failures = new ArrayList<>();
+            for (int n = 0; n < pending.size(); n++) {
+                try {
+                    generated.add(keys.get(n).get());
+                } catch (ExecutionException e) {
+                    generated.add(null);
+                    failures.add(new ImportResult.Failure(names.get(pending.get(n)), e.getCause()));
+                }
+            }
+
+            // Alle Einträge liegen direkt hintereinander im Journal und werden vom Schreib-Thread gemeinsam gespeichert.
+            // Während der Schlüsselerzeugung kann derselbe Key bereits anderweitig angelegt worden sein, daher wird
+            // unter der Sperre erneut geprüft.
+            List<User> created = new ArrayList<>();
+            List<CompletableFuture<Void>> commits = new ArrayList<>();
+            synchronized (writeLock) {
+                for (int n = 0; n < pending.size(); n++) {
+                    int i = pending.get(n);
+                    byte[][] bob = generated.get(n);
+                    if (bob == null || users.findByPublicKey(publicKeysEnc.get(i)) != null) {
+                        continue;
+                    }
+
+                    User user = new User(generateNewID(), names.get(i), bob[0], bob[1], bob[2], UserRegistry.fingerprint(publicKeysEnc.get(i)));
+                    users.put(user);
+                    commits.add(journal.put(user));
+                    created.add(user);
+                }
+            }
+
+            UserJournal.await(CompletableFuture.allOf(commits.toArray(new CompletableFuture<?>[0])));
+            sample.stop(created.size());
+            return new ImportResult(created, failures);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing contacts.", e);
+        } finally {
+            // Nach einem Abbruch sollen die restlichen Schlüssel nicht mehr erzeugt werden.
+            for (Future<byte[][]> key : keys) {
+                key.cancel(true);
+            }
+        }
+    }
+
     // Mit dem Public-Key von Bob wird der Key-Exchange abgeschlossen.
-    public void finishSetup(int id, byte[] publicKeyEnc) throws NoSuchAlgorithmException, InvalidKeyException, InvalidKeySpecException, IOException {
+    // Liefert false, falls der Kontakt nicht mehr existiert oder in der Zwischenzeit verändert wurde. Das Shared-Secret
+    // wurde dann nicht gespeichert.
+    public boolean finishSetup(int id, byte[] publicKeyEnc) throws NoSuchAlgorithmException, InvalidKeyException, InvalidKeySpecException, IOException {
 
         // Über die mitgelieferte ID wird Alice ermittelt und anschließend mit ihrem Private-Key und Bob's Public-Key,
-        // das Shared-Secret zu berechnet und als Attribut des Users gesetzt.
-        for (Map.Entry<Integer, User> entry : users.entrySet()) {
-            if (entry.getValue().getId() == id) {
-                entry.getValue().setSharedSecret(DiffieHellman.aliceComplete(entry.getValue().getMyPrivKey(), publicKeyEnc));
-                break;
-            }
+        // das Shared-Secret zu berechnet. Der Kontakt wird durch eine Kopie mit Shared-Secret ersetzt - sofern er in
+        // der Zwischenzeit nicht gelöscht oder verändert wurde.
+        User user = getUser(id);
+        if (user == null) {
+            return false;
         }
 
-        saveUsers();
+        byte[] sharedSecret = DiffieHellman.aliceComplete(user.getMyPrivKey(), publicKeyEnc);
+        return saveUser(user.withSharedSecret(sharedSecret, UserRegistry.fingerprint(publicKeyEnc)), user);
     }
 
     // Löschen eines Kontaktes.
     public void deleteUser(int id) throws IOException {
-        for (Map.Entry<Integer, User> entry : users.entrySet()) {
-            if (entry.getValue().getId() == id) {
-                users.remove(entry.getKey());
-                break;
+        Metrics.Sample sample = Metrics.start("users", "delete");
+        CompletableFuture<Void> commit = null;
+
+        synchronized (writeLock) {
+            if (users.remove(id) != null) {
+                commit = journal.delete(id);
             }
         }
 
-        saveUsers();
-    }
-
-    // Speichern der Kontakte in eine verschlüsselte Datei. Die User-Objekte werden als String codiert und in eine Datei
-    // geschrieben. Der notwendige Key ist final definiert.
-    private void saveUsers() throws IOException {
-        StringBuilder encodedUsers = new StringBuilder();
-
-        // Für alle User-Objekte in der User-Map..
-        for (Map.Entry<Integer, User> entry : users.entrySet()) {
-            User user = entry.getValue();
-
-            // Codiere einen User als String und trenne seine Attribute mit ---. anze User werden mit ::: separiert.
-            // --> ID, Name, Private-Key, Public-Key und Shared-Secret
-            encodedUsers
-                    .append(user.getId())
-                    .append("---")
-                    .append(user.getName())
-                    .append("---")
-                    .append(new String(user.getMyPrivKey(), "ISO-8859-1"))
-                    .append("---")
-                    .append(new String(user.getMyPublicKey(), "ISO-8859-1"))
-                    .append("---")
-                    .append(new String(user.getSharedSecret(), "ISO-8859-1"))
-                    .append(":::");
+        if (commit != null) {
+            UserJournal.await(commit);
         }
+        sample.stop(0);
+    }
 
-        // Der codierte User-String wird mit AES verschlüsselt und ins Dateisystem geschrieben.
-        byte[] encryptedUsers = AES.encrypt(encodedUsers.toString().getBytes(Charset.forName("ISO-8859-1")), CRYPTOR_AES_SECRET);
+    // Speichern eines einzelnen Kontaktes. Die Änderung wird in der User-Map übernommen und als einzelner Eintrag an
+    // das Journal angehängt, sodass der Aufwand unabhängig von der Anzahl Kontakte ist.
+    //
+    // Ist expected gesetzt, wird nur gespeichert, wenn der Kontakt noch unverändert vorliegt. Die Sperre wird nur für
+    // Register und Reihenfolge im Journal gehalten; auf das Schreiben auf die Platte wird außerhalb gewartet.
+    // Die Methode kehrt erst zurück, wenn der Eintrag dauerhaft gespeichert wurde, und liefert false, falls wegen
+    // expected nicht gespeichert wurde.
+    private boolean saveUser(User user, User expected) throws IOException {
+        Metrics.Sample sample = Metrics.start("users", "save");
+        CompletableFuture<Void> commit;
+
+        synchronized (writeLock) {
+            if (expected != null && users.get(user.getId()) != expected) {
+                return false;
+            }
 
-        FileOutputStream fos = new FileOutputStream(USERS_FILE);
-        if (encryptedUsers != null) {
-            fos.write(encryptedUsers);
+            users.put(user);
+            commit = journal.put(user);
         }
 
-        fos.flush();
-        fos.close();
+        UserJournal.await(commit);
+        sample.stop(0);
+        return true;
     }
 
-    // Einlesen der verschlüsselten Kontaktdatei und laden der Kontakte in die interne User-Map.
+    // Liefert eine Kopie aller Kontakte für die Verdichtung des Journals.
+    private Collection<User> copyUsers() {
+        return new ArrayList<>(users.all());
+    }
+
+    // Einlesen der verschlüsselten Kontaktdatei und des Journals und laden der Kontakte in die interne User-Map.
     // Der notwendige Key ist final definiert.
     private void readUsers() throws IOException {
-        File file = new File(USERS_FILE);
-
-        if (file.exists()) {
-            // Verschlüsselte Datei einlesen und entschlüsseln.
-            byte[] encrypted = Files.readAllBytes(Paths.get(USERS_FILE));
-            byte[] encoded = AES.decrypt(encrypted, CRYPTOR_AES_SECRET);
-
-            String encodedUsers = null;
-            if (encoded != null) {
-                encodedUsers = new String(encoded, "ISO-8859-1");
-            }
-
-            // Trenne den gesamten String in alle User-Objekte.
-            String[] separatedUsers = new String[0];
-            if (encodedUsers != null) {
-                separatedUsers = encodedUsers.split(":::");
-            }
-
-            // Trenne alle Attribute jedes Users und erzeuge neue User-Objekte, die auf der User-Map abgelegt werden.
-            // --> 0=ID, 1=Name, 2=Private-Key, 3=Public-Key, 4=Shared-Secret
-            for (String userString: separatedUsers) {
-                String[] attributes = userString.split("---");
-                if (attributes.length == 5) {
-                    this.users.put(Integer.parseInt(attributes[0]),
-                            new User(Integer.parseInt(
-                                    attributes[0]),
-                                    attributes[1],
-                                    attributes[2].getBytes(Charset.forName("ISO-8859-1")),
-                                    attributes[3].getBytes(Charset.forName("ISO-8859-1")),
-                                    attributes[4].getBytes(Charset.forName("ISO-8859-1"))
-                            )
-                    );
-                }
-            }
+        Metrics.Sample sample = Metrics.start("users", "load");
+        for (User user : journal.load().values()) {
+            users.put(user);
         }
+        sample.stop(users.size());
     }
 }
-
@@ -0,0 +1,314 @@
+package main.users;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binäres Format zum Speichern der Kontakte.
+ *
+ * Die Kontakte werden direkt in einen ByteBuffer codiert, ohne Zwischen-Strings oder Trennzeichen. Dadurch können
+ * Schlüssel beliebige Bytes enthalten und beim Laden entsteht nur eine Kopie der Schlüssel.
+ *
+ * Aufbau: Magic ("CU") --> Version (1 Byte) --> Anzahl Kontakte (Varint) --> Kontakte
+ * Ganze Kontaktdateien in diesem Aufbau werden nur noch gelesen und beim Laden in das gemappte Format von
+ * {@link MappedUserStore} übernommen. Einzelne Datensätze werden weiterhin für Journal und Snapshot codiert.
+ *
+ * Kontakt: Felder als Typ (1 Byte) --> Länge (Varint) --> Daten, abgeschlossen durch den Typ {@link #FIELD_END}.
+ *
+ * Unbekannte Felder werden beim Lesen übersprungen, sodass das Format erweitert werden kann.
+ */
+final class UserCodec {
+
+    static final byte[] MAGIC = new byte[]{'C', 'U'};
+    static final byte VERSION = 1;
+
+    // Feld-Typen eines Kontakt-Datensatzes.
+    static final byte FIELD_END = 0;
+    static final byte FIELD_ID = 1;
+    static final byte FIELD_NAME = 2;
+    static final byte FIELD_PRIVATE_KEY = 3;
+    static final byte FIELD_PUBLIC_KEY = 4;
+    static final byte FIELD_SHARED_SECRET = 5;
+    static final byte FIELD_PEER_FINGERPRINT = 6;
+    static final byte FIELD_PUBLIC_KEY_FINGERPRINT = 7;
+    static final byte FIELD_SETUP_COMPLETED = 8;
+
+    private UserCodec() {
+    }
+
+    // Prüft, ob die Daten im Binärformat vorliegen. Das alte String-Format beginnt stets mit einer Ziffer.
+    static boolean isBinary(byte[] data) {
+        return data.length >= MAGIC.length + 1 && data[0] == MAGIC[0] && data[1] == MAGIC[1];
+    }
+
+    // Liest alle Kontakte aus einem Puffer im Binärformat.
+    static List<User> decode(ByteBuffer buffer) throws IllegalArgumentException {
+        try {
+            if (buffer.get() != MAGIC[0] || buffer.get() != MAGIC[1]) {
+                throw new IllegalArgumentException("Not a binary contact store.");
+            }
+
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported contact store version: " + version);
+            }
+
+            int count = getVarint(buffer);
+            List<User> users = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                users.add(decodeRecord(buffer));
+            }
+
+            return users;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Contact store is truncated.", e);
+        }
+    }
+
+    // Anzahl Bytes, die ein Kontakt im Binärformat belegt.
+    static int recordSize(User user) {
+        return fieldSize(varintSize(user.getId()))
+                + fieldSize(utf8Length(user.getName()))
+                + fieldSize(user.getMyPrivKey().length)
+                + fieldSize(user.getMyPublicKey().length)
+                + fieldSize(user.getSharedSecret().length)
+                + (user.getPeerFingerprint().length > 0 ? fieldSize(user.getPeerFingerprint().length) : 0)
+                + 1;
+    }
+
+    // Schreibt einen einzelnen Kontakt in den Puffer.
+    static void encodeRecord(User user, ByteBuffer buffer) {
+        buffer.put(FIELD_ID);
+        putVarint(buffer, varintSize(user.getId()));
+        putVarint(buffer, user.getId());
+
+        putField(buffer, FIELD_NAME, user.getName().getBytes(StandardCharsets.UTF_8));
+        putField(buffer, FIELD_PRIVATE_KEY, user.getMyPrivKey());
+        putField(buffer, FIELD_PUBLIC_KEY, user.getMyPublicKey());
+        putField(buffer, FIELD_SHARED_SECRET, user.getSharedSecret());
+        if (user.getPeerFingerprint().length > 0) {
+            putField(buffer, FIELD_PEER_FINGERPRINT, user.getPeerFingerprint());
+        }
+
+        buffer.put(FIELD_END);
+    }
+
+    // Liest einen einzelnen Kontakt aus dem Puffer.
+    static User decodeRecord(ByteBuffer buffer) {
+        int id = -1;
+        String name = null;
+        byte[] privateKey = null;
+        byte[] publicKey = null;
+        byte[] sharedSecret = null;
+        byte[] peerFingerprint = new byte[0];
+
+        byte type;
+        while ((type = buffer.get()) != FIELD_END) {
+            int length = getVarint(buffer);
+            if (length > buffer.remaining()) {
+                throw new IllegalArgumentException("Field length exceeds contact store size.");
+            }
+
+            switch (type) {
+                case FIELD_ID:
+                    id = getVarint(buffer);
+                    break;
+                case FIELD_NAME:
+                    name = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+                    buffer.position(buffer.position() + length);
+                    break;
+                case FIELD_PRIVATE_KEY:
+                    privateKey = getBytes(buffer, length);
+                    break;
+                case FIELD_PUBLIC_KEY:
+                    publicKey = getBytes(buffer, length);
+                    break;
+                case FIELD_SHARED_SECRET:
+                    sharedSecret = getBytes(buffer, length);
+                    break;
+                case FIELD_PEER_FINGERPRINT:
+                    peerFingerprint = getBytes(buffer, length);
+                    break;
+                default:
+                    // Unbekannte Felder späterer Versionen werden übersprungen.
+                    buffer.position(buffer.position() + length);
+            }
+        }
+
+        if (id < 0 || name == null || privateKey == null || publicKey == null || sharedSecret == null) {
+            throw new IllegalArgumentException("Incomplete contact record.");
+        }
+
+        return new User(id, name, privateKey, publicKey, sharedSecret, peerFingerprint);
+    }
+
+    // Anzahl Bytes, die die Übersicht eines Kontaktes (ohne Schlüssel) belegt.
+    static int summarySize(User user) {
+        return fieldSize(varintSize(user.getId()))
+                + fieldSize(utf8Length(user.getName()))
+                + fieldSize(user.getPublicKeyFingerprint().length)
+                + fieldSize(user.getPeerFingerprint().length)
+                + fieldSize(1)
+                + 1;
+    }
+
+    // Schreibt die Übersicht eines Kontaktes ohne Schlüssel. Wird für den Index der gemappten Kontaktdatei verwendet.
+    static void encodeSummary(User user, ByteBuffer buffer) {
+        buffer.put(FIELD_ID);
+        putVarint(buffer, varintSize(user.getId()));
+        putVarint(buffer, user.getId());
+
+        putField(buffer, FIELD_NAME, user.getName().getBytes(StandardCharsets.UTF_8));
+        putField(buffer, FIELD_PUBLIC_KEY_FINGERPRINT, user.getPublicKeyFingerprint());
+        putField(buffer, FIELD_PEER_FINGERPRINT, user.getPeerFingerprint());
+        putField(buffer, FIELD_SETUP_COMPLETED, new byte[]{(byte) (user.isSetupCompleted() ? 1 : 0)});
+
+        buffer.put(FIELD_END);
+    }
+
+    // Liest die Übersicht eines Kontaktes. Die Schlüssel werden später über den Store geladen.
+    static User decodeSummary(ByteBuffer buffer, MappedUserStore store, int slot) {
+        int id = -1;
+        String name = null;
+        byte[] publicKeyFingerprint = null;
+        byte[] peerFingerprint = new byte[0];
+        boolean setupCompleted = false;
+
+        byte type;
+        while ((type = buffer.get()) != FIELD_END) {
+            int length = getVarint(buffer);
+            if (length > buffer.remaining()) {
+                throw new IllegalArgumentException("Field length exceeds contact store size.");
+            }
+
+            switch (type) {
+                case FIELD_ID:
+                    id = getVarint(buffer);
+                    break;
+                case FIELD_NAME:
+                    name = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+                    buffer.position(buffer.position() + length);
+                    break;
+                case FIELD_PUBLIC_KEY_FINGERPRINT:
+                    publicKeyFingerprint = getBytes(buffer, length);
+                    break;
+                case FIELD_PEER_FINGERPRINT:
+                    peerFingerprint = getBytes(buffer, length);
+                    break;
+                case FIELD_SETUP_COMPLETED:
+                    setupCompleted = length > 0 && buffer.get() != 0;
+                    buffer.position(buffer.position() + Math.max(0, length - 1));
+                    break;
+                default:
+                    buffer.position(buffer.position() + length);
+            }
+        }
+
+        if (id < 0 || name == null || publicKeyFingerprint == null) {
+            throw new IllegalArgumentException("Incomplete contact summary.");
+        }
+
+        return new User(id, name, publicKeyFingerprint, peerFingerprint, setupCompleted, store, slot);
+    }
+
+    // Liest Kontakte aus dem alten String-Format (Attribute mit --- und Kontakte mit ::: getrennt).
+    // Wird nur noch zur Migration bestehender Kontaktdateien benötigt.
+    static List<User> decodeLegacy(byte[] data) {
+        List<User> users = new ArrayList<>();
+        String encodedUsers = new String(data, StandardCharsets.ISO_8859_1);
+
+        // --> 0=ID, 1=Name, 2=Private-Key, 3=Public-Key, 4=Shared-Secret
+        for (String userString : encodedUsers.split(":::")) {
+            String[] attributes = userString.split("---");
+            if (attributes.length == 5) {
+                users.add(new User(
+                        Integer.parseInt(attributes[0]),
+                        attributes[1],
+                        attributes[2].getBytes(StandardCharsets.ISO_8859_1),
+                        attributes[3].getBytes(StandardCharsets.ISO_8859_1),
+                        attributes[4].getBytes(StandardCharsets.ISO_8859_1)
+                ));
+            }
+        }
+
+        return users;
+    }
+
+    private static void putField(ByteBuffer buffer, byte type, byte[] data) {
+        buffer.put(type);
+        putVarint(buffer, data.length);
+        buffer.put(data);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer, int length) {
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return data;
+    }
+
+    private static int fieldSize(int length) {
+        return 1 + varintSize(length) + length;
+    }
+
+    // Zeichen außerhalb von ASCII belegen in UTF-8 mehrere Bytes, weshalb die Länge einmal berechnet wird.
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // Einzelne Surrogates werden von String.getBytes durch '?' ersetzt.
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    // Varints codieren eine nicht-negative Zahl in 7-Bit-Gruppen, das höchste Bit markiert ein Folge-Byte.
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+
+        buffer.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Negative varint.");
+                }
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+}
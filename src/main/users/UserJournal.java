@@ -0,0 +1,557 @@
+package main.users;
+
+import main.cryptography.AES;
+import main.cryptography.CryptoException;
+import main.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Persistenz der Kontakte als Snapshot plus Append-Only-Journal.
+ *
+ * Jede Änderung an einem Kontakt wird nicht mehr durch Neuschreiben der gesamten Kontaktdatei gespeichert, sondern
+ * als einzelner verschlüsselter Eintrag an das Journal angehängt. Ein Hintergrund-Thread sammelt alle gleichzeitig
+ * anstehenden Einträge, schreibt sie gemeinsam und führt nur ein fsync für die ganze Gruppe aus (Group-Commit).
+ *
+ * Wird das Journal zu groß, wird es rotiert und im Hintergrund zu einem neuen Snapshot verdichtet. Der Snapshot wird
+ * zunächst in eine temporäre Datei geschrieben und dann atomar umbenannt, sodass ein Absturz zu keinem Zeitpunkt die
+ * Kontaktdatei zerstört. Nach jeder Umbenennung wird auch das Verzeichnis synchronisiert, erst danach wird das rotierte
+ * Journal gelöscht.
+ *
+ * Schlägt das Laden fehl, wird der Schreib-Thread nicht gestartet und die Dateien bleiben unverändert. Ein Stand, der
+ * nicht vollständig geladen wurde, wird so nie als Snapshot gespeichert.
+ *
+ * Aufbau eines Journal-Eintrags: Länge (4 Bytes) --> CRC32 (4 Bytes) --> verschlüsselte Operation
+ * Ein unvollständiger Eintrag am Ende des Journals (Absturz während des Schreibens) wird beim Laden verworfen.
+ */
+final class UserJournal {
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    // Ab dieser Größe wird das Journal zu einem neuen Snapshot verdichtet.
+    private static final long COMPACTION_THRESHOLD = 4L * 1024 * 1024;
+
+    private static final int FRAME_HEADER = 8;
+
+    // Markiert in der Warteschlange das Ende, siehe close().
+    private static final Entry CLOSE = new Entry(new byte[0]);
+
+    // Windows erlaubt kein Öffnen von Verzeichnissen. Umbenennungen sind dort ohne weiteren Aufruf dauerhaft.
+    private static final boolean SYNC_DIRECTORY = !System.getProperty("os.name").startsWith("Windows");
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Path rotatedJournalFile;
+    private final byte[] secret;
+    private final Supplier<Collection<User>> state;
+    private final IntSupplier nextIdState;
+    private final long compactionThreshold;
+
+    // Nächste freie ID laut Snapshot und Journal, auch gelöschte Kontakte zählen. Wird beim Laden ermittelt.
+    private int nextId;
+
+    private final BlockingQueue<Entry> pending = new LinkedBlockingQueue<>();
+    private final Object compactionLock = new Object();
+    private FileChannel channel;
+    private Thread writer;
+    private Thread compactor;
+    private boolean compacting;
+
+    // Empfängt Fehler der Verdichtung, siehe setErrorListener().
+    private volatile Consumer<IOException> errorListener = e -> { };
+
+    // Gesetzt durch close() bzw. sobald das Journal nicht mehr sicher beschrieben werden kann. Zugriff nur mit Sperre
+    // auf pending.
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * @param snapshotFile Pfad der verschlüsselten Kontaktdatei (Snapshot).
+     * @param secret Key zur Verschlüsselung von Snapshot und Journal.
+     * @param state Liefert eine konsistente Kopie aller Kontakte für die Verdichtung.
+     * @param nextIdState Liefert die nächste freie ID für die Verdichtung.
+     */
+    UserJournal(String snapshotFile, byte[] secret, Supplier<Collection<User>> state, IntSupplier nextIdState) {
+        this(snapshotFile, secret, state, nextIdState, COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Wie oben, verdichtet aber erst ab der angegebenen Größe des Journals. Mit Long.MAX_VALUE wird nie verdichtet,
+     * z.B. damit eine Messung nicht durch eine Verdichtung im Hintergrund verfälscht wird.
+     */
+    UserJournal(String snapshotFile, byte[] secret, Supplier<Collection<User>> state, IntSupplier nextIdState,
+                long compactionThreshold) {
+        this.snapshotFile = Paths.get(snapshotFile);
+        this.journalFile = Paths.get(snapshotFile + ".journal");
+        this.rotatedJournalFile = Paths.get(snapshotFile + ".journal.1");
+        this.secret = secret;
+        this.state = state;
+        this.nextIdState = nextIdState;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    // Setzt den Empfänger für Fehler der Verdichtung im Hintergrund. Die Einträge sind in diesem Fall bereits
+    // gespeichert, die Verdichtung wird bei der nächsten Gruppe bzw. beim nächsten Laden wiederholt.
+    void setErrorListener(Consumer<IOException> errorListener) {
+        this.errorListener = errorListener;
+    }
+
+    // Lädt den Snapshot, spielt beide Journale darüber ein und startet anschließend den Schreib-Thread.
+    // Kann der Snapshot nicht gelesen oder entschlüsselt werden, wird eine IOException geworfen.
+    Map<Integer, User> load() throws IOException {
+        Map<Integer, User> users = new TreeMap<>();
+        boolean migrate = false;
+
+        if (Files.exists(snapshotFile) && MappedUserStore.isMapped(snapshotFile)) {
+            try {
+                for (User user : MappedUserStore.open(snapshotFile, secret)) {
+                    users.put(user.getId(), user);
+                }
+                nextId = MappedUserStore.nextId(snapshotFile);
+            } catch (RuntimeException e) {
+                throw new IOException("Contact store is corrupted.", e);
+            }
+        } else if (Files.exists(snapshotFile)) {
+            // Ältere Kontaktdateien bestehen aus einem einzigen verschlüsselten Block. Sie werden nach dem Laden im
+            // gemappten Format neu gespeichert.
+            // Kann die Datei nicht entschlüsselt werden, wird sie nicht migriert und bleibt unverändert erhalten.
+            byte[] encoded;
+            try {
+                encoded = AES.decrypt(Files.readAllBytes(snapshotFile), secret);
+            } catch (CryptoException e) {
+                throw new IOException("Could not decrypt contacts.", e);
+            }
+
+            List<User> loaded;
+            try {
+                if (UserCodec.isBinary(encoded)) {
+                    loaded = UserCodec.decode(ByteBuffer.wrap(encoded));
+                } else {
+                    loaded = UserCodec.decodeLegacy(encoded);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Contact store is corrupted.", e);
+            }
+
+            migrate = true;
+            for (User user : loaded) {
+                users.put(user.getId(), user);
+            }
+        }
+
+        for (int id : users.keySet()) {
+            nextId = Math.max(nextId, id + 1);
+        }
+
+        replay(rotatedJournalFile, users);
+        long validLength = replay(journalFile, users);
+
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        syncDirectory();
+
+        writer = new Thread(this::writeLoop, "cryptor-user-journal");
+        writer.setDaemon(true);
+        writer.start();
+
+        // Eine noch nicht abgeschlossene Verdichtung wird direkt nachgeholt.
+        if (migrate || Files.exists(rotatedJournalFile)) {
+            writeSnapshot(users.values(), nextId);
+            Files.deleteIfExists(rotatedJournalFile);
+        }
+
+        return users;
+    }
+
+    // Nächste freie ID nach dem Laden. IDs gelöschter Kontakte werden so auch nach einem Neustart nicht erneut vergeben.
+    int nextId() {
+        return nextId;
+    }
+
+    // Hängt das Speichern eines Kontaktes an das Journal an. Der Kontakt wird sofort codiert, sodass spätere
+    // Änderungen am Objekt den Eintrag nicht mehr beeinflussen.
+    CompletableFuture<Void> put(User user) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + UserCodec.recordSize(user));
+        buffer.put(OP_PUT);
+        UserCodec.encodeRecord(user, buffer);
+        return enqueue(buffer.array());
+    }
+
+    // Hängt das Löschen eines Kontaktes an das Journal an.
+    CompletableFuture<Void> delete(int id) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + UserCodec.varintSize(id));
+        buffer.put(OP_DELETE);
+        UserCodec.putVarint(buffer, id);
+        return enqueue(buffer.array());
+    }
+
+    // Wartet, bis ein Eintrag dauerhaft gespeichert wurde.
+    static void await(CompletableFuture<Void> commit) throws IOException {
+        try {
+            commit.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while saving contacts.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error while saving contacts.", e.getCause());
+        }
+    }
+
+    /**
+     * Speichert alle bereits angehängten Einträge, beendet den Schreib-Thread, wartet auf eine laufende Verdichtung und
+     * schließt das Journal. Danach angehängte Einträge schlagen sofort mit einer IOException fehl.
+     */
+    void close() throws IOException {
+        synchronized (pending) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.add(CLOSE);
+        }
+        if (writer != null) {
+            join(writer);
+        }
+
+        Thread running;
+        synchronized (compactionLock) {
+            running = compactor;
+        }
+        if (running != null) {
+            join(running);
+        }
+
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private static void join(Thread thread) throws IOException {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing contacts.", e);
+        }
+    }
+
+    // Die Prüfung auf close() und das Anhängen erfolgen unter derselben Sperre, damit kein Eintrag hinter dem Ende in
+    // der Warteschlange landet und nie abgeschlossen wird.
+    private CompletableFuture<Void> enqueue(byte[] operation) {
+        Entry entry = new Entry(operation);
+        synchronized (pending) {
+            if (failure != null) {
+                entry.commit.completeExceptionally(failure);
+            } else if (closed) {
+                entry.commit.completeExceptionally(new IOException("Contact store is closed."));
+            } else {
+                pending.add(entry);
+            }
+        }
+        return entry.commit;
+    }
+
+    // Schreib-Thread: Alle anstehenden Einträge werden verschlüsselt, gemeinsam geschrieben und mit einem einzigen
+    // fsync gesichert. Erst danach werden die wartenden Aufrufer benachrichtigt.
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch);
+
+            boolean closing = batch.remove(CLOSE);
+            if (!batch.isEmpty()) {
+                commit(batch);
+            }
+            batch.clear();
+
+            if (closing) {
+                return;
+            }
+        }
+    }
+
+    // Schreibt eine Gruppe von Einträgen und schließt deren Futures ab, bei einem Fehler mit diesem.
+    private void commit(List<Entry> batch) {
+        IOException failed;
+        synchronized (pending) {
+            failed = failure;
+        }
+        if (failed != null) {
+            fail(batch, failed);
+            return;
+        }
+
+        long start = -1;
+        try {
+            List<byte[]> frames = new ArrayList<>(batch.size());
+            int size = 0;
+            for (Entry entry : batch) {
+                byte[] encrypted;
+                try {
+                    encrypted = AES.encrypt(entry.operation, secret);
+                } catch (CryptoException e) {
+                    throw new IOException("Could not encrypt journal entry.", e);
+                }
+                frames.add(encrypted);
+                size += FRAME_HEADER + encrypted.length;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            CRC32 crc = new CRC32();
+            for (byte[] frame : frames) {
+                crc.reset();
+                crc.update(frame);
+                buffer.putInt(frame.length);
+                buffer.putInt((int) crc.getValue());
+                buffer.put(frame);
+            }
+            buffer.flip();
+
+            Metrics.Sample sample = Metrics.start("users", "commit");
+            start = channel.position();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            sample.stop(size);
+        } catch (IOException e) {
+            if (start >= 0) {
+                discard(start, e);
+            }
+            fail(batch, e);
+            return;
+        }
+
+        for (Entry entry : batch) {
+            entry.commit.complete(null);
+        }
+
+        try {
+            if (channel.size() > compactionThreshold) {
+                rotate();
+            }
+        } catch (IOException e) {
+            // Die Einträge sind bereits gespeichert. Ohne Verdichtung wächst nur das Journal weiter.
+            errorListener.accept(e);
+        }
+    }
+
+    // Schneidet einen teilweise geschriebenen Batch ab, z.B. nach einer vollen Festplatte. Spätere Einträge lägen sonst
+    // hinter einem defekten Eintrag und würden beim nächsten Laden mit diesem verworfen, obwohl ihr Speichern bestätigt
+    // wurde. Gelingt das Abschneiden nicht, nimmt das Journal keine Einträge mehr an.
+    private void discard(long start, IOException cause) {
+        try {
+            channel.truncate(start);
+            channel.position(start);
+            channel.force(false);
+        } catch (IOException e) {
+            e.addSuppressed(cause);
+            failPermanently(e);
+        }
+    }
+
+    private void failPermanently(IOException cause) {
+        synchronized (pending) {
+            if (failure == null) {
+                failure = new IOException("Contact journal can no longer be written safely.", cause);
+            }
+        }
+    }
+
+    private static void fail(List<Entry> batch, IOException e) {
+        for (Entry entry : batch) {
+            entry.commit.completeExceptionally(e);
+        }
+    }
+
+    // Rotiert das Journal und verdichtet den bisherigen Stand im Hintergrund zu einem neuen Snapshot.
+    // Die Kopie der Kontakte wird erst nach der Rotation erstellt und enthält damit alle rotierten Einträge.
+    // Scheitert der synchrone Teil, wird compacting zurückgesetzt, damit die nächste Gruppe es erneut versucht.
+    private void rotate() throws IOException {
+        synchronized (compactionLock) {
+            if (compacting) {
+                return;
+            }
+            compacting = true;
+        }
+
+        Collection<User> snapshot;
+        int snapshotNextId;
+        try {
+            // Existiert noch ein rotiertes Journal einer fehlgeschlagenen Verdichtung, wird nicht erneut rotiert. Der
+            // aktuelle Stand enthält ohnehin beide Journale.
+            if (!Files.exists(rotatedJournalFile)) {
+                channel.close();
+                try {
+                    Files.move(journalFile, rotatedJournalFile, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    reopen();
+                }
+                syncDirectory();
+            }
+
+            // Die nächste freie ID wird erst nach der Kopie gelesen. Sie liegt damit über allen IDs der Kopie und des
+            // rotierten Journals.
+            snapshot = state.get();
+            snapshotNextId = nextIdState.getAsInt();
+        } catch (IOException | RuntimeException e) {
+            synchronized (compactionLock) {
+                compacting = false;
+            }
+            throw e;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                writeSnapshot(snapshot, snapshotNextId);
+                Files.deleteIfExists(rotatedJournalFile);
+            } catch (IOException e) {
+                errorListener.accept(e);
+            } finally {
+                synchronized (compactionLock) {
+                    compacting = false;
+                }
+            }
+        }, "cryptor-user-compaction");
+        thread.setDaemon(true);
+        synchronized (compactionLock) {
+            compactor = thread;
+        }
+        thread.start();
+    }
+
+    // Öffnet das Journal nach der Rotation neu. Gelingt das nicht, bliebe der Schreib-Thread mit einem geschlossenen
+    // Kanal zurück, das Journal nimmt dann keine Einträge mehr an.
+    private void reopen() throws IOException {
+        try {
+            channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        } catch (IOException e) {
+            failPermanently(e);
+            throw e;
+        }
+    }
+
+    // Schreibt alle Kontakte in eine temporäre Datei, synchronisiert sie und ersetzt den Snapshot atomar. Erst wenn
+    // auch das Verzeichnis synchronisiert ist, darf das rotierte Journal gelöscht werden.
+    // Der Snapshot wird im gemappten Format geschrieben, siehe MappedUserStore.
+    private void writeSnapshot(Collection<User> users, int nextId) throws IOException {
+        Metrics.Sample sample = Metrics.start("users", "snapshot");
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedUserStore.write(out, users, nextId, secret);
+            out.force(true);
+        }
+
+        Files.move(tmp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+        sample.stop(Files.size(snapshotFile));
+    }
+
+    // Synchronisiert das Verzeichnis der Kontaktdatei, sodass Umbenennungen und neu angelegte Dateien einen Absturz
+    // überstehen.
+    private void syncDirectory() throws IOException {
+        if (!SYNC_DIRECTORY) {
+            return;
+        }
+        try (FileChannel directory = FileChannel.open(snapshotFile.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    // Spielt alle gültigen Einträge eines Journals ein und liefert die Länge des gültigen Teils.
+    private long replay(Path file, Map<Integer, User> users) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        CRC32 crc = new CRC32();
+
+        while (buffer.remaining() >= FRAME_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return start;
+            }
+
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                return start;
+            }
+
+            byte[] frame = new byte[length];
+            buffer.get(frame);
+            byte[] operation;
+            try {
+                operation = AES.decrypt(frame, secret);
+            } catch (CryptoException e) {
+                return start;
+            }
+            if (operation.length == 0) {
+                return start;
+            }
+
+            ByteBuffer op = ByteBuffer.wrap(operation);
+            switch (op.get()) {
+                case OP_PUT:
+                    User user = UserCodec.decodeRecord(op);
+                    users.put(user.getId(), user);
+                    nextId = Math.max(nextId, user.getId() + 1);
+                    break;
+                case OP_DELETE:
+                    int id = UserCodec.getVarint(op);
+                    users.remove(id);
+                    nextId = Math.max(nextId, id + 1);
+                    break;
+                default:
+                    return start;
+            }
+        }
+
+        return buffer.position();
+    }
+
+    private static final class Entry {
+        private final byte[] operation;
+        private final CompletableFuture<Void> commit = new CompletableFuture<>();
+
+        private Entry(byte[] operation) {
+            this.operation = operation;
+        }
+    }
+}
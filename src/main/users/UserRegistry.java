@@ -0,0 +1,121 @@
+package main.users;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Register aller Kontakte mit Indizes für die häufigsten Zugriffe.
+ *
+ * Neben dem Zugriff über die ID (O(1)) werden folgende Indizes bei jeder Änderung mitgeführt:
+ * - Namens-Index für die Suche nach einem Namensanfang (ohne Beachtung der Groß-/Kleinschreibung).
+ * - Fingerprint-Index über den eigenen Public-Key und den Public-Key des Kontaktes, um eingehende .pubKey-Dateien
+ *   einem Kontakt zuzuordnen.
+ * - Sicht auf alle Kontakte mit abgeschlossenem Setup (Shared-Secret vorhanden).
+ *
+ * Kontakte werden nicht verändert, sondern bei Änderungen durch ein neues Objekt ersetzt, damit die Indizes stets zum
+ * gespeicherten Stand passen.
+ *
+ * Alle Indizes sind nebenläufige Collections, sodass Lesezugriffe ohne Sperre auskommen und nie auf Schreibzugriffe
+ * warten. Schreibzugriffe ({@link #put}, {@link #remove}) müssen vom Aufrufer serialisiert werden.
+ */
+class UserRegistry {
+
+    private final Map<Integer, User> byId = new ConcurrentHashMap<>();
+    private final NavigableMap<Integer, User> ordered = new ConcurrentSkipListMap<>();
+    private final NavigableMap<String, User> byName = new ConcurrentSkipListMap<>();
+    private final Map<ByteBuffer, User> byFingerprint = new ConcurrentHashMap<>();
+    private final NavigableMap<Integer, User> completed = new ConcurrentSkipListMap<>();
+
+    User get(int id) {
+        return byId.get(id);
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    // Alle Kontakte, aufsteigend nach ID sortiert.
+    Collection<User> all() {
+        return Collections.unmodifiableCollection(ordered.values());
+    }
+
+    // Alle Kontakte mit abgeschlossenem Setup, aufsteigend nach ID sortiert.
+    Collection<User> completed() {
+        return Collections.unmodifiableCollection(completed.values());
+    }
+
+    // Alle Kontakte, deren Name mit dem übergebenen Präfix beginnt.
+    List<User> findByNamePrefix(String prefix) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        return new ArrayList<>(byName.subMap(key, true, key + Character.MAX_VALUE, false).values());
+    }
+
+    // Kontakt, dem der übergebene Public-Key gehört - egal ob eigener Key oder Key des Kontaktes.
+    User findByPublicKey(byte[] publicKeyEnc) {
+        return byFingerprint.get(ByteBuffer.wrap(fingerprint(publicKeyEnc)));
+    }
+
+    // Bestehende Einträge werden überschrieben statt entfernt, sodass ein Kontakt für Leser nie kurzzeitig fehlt.
+    void put(User user) {
+        User old = byId.put(user.getId(), user);
+        if (old != null) {
+            byName.remove(nameKey(old), old);
+            byFingerprint.remove(ByteBuffer.wrap(old.getPublicKeyFingerprint()), old);
+            byFingerprint.remove(ByteBuffer.wrap(old.getPeerFingerprint()), old);
+        }
+
+        ordered.put(user.getId(), user);
+        byName.put(nameKey(user), user);
+        byFingerprint.put(ByteBuffer.wrap(user.getPublicKeyFingerprint()), user);
+        if (user.getPeerFingerprint().length > 0) {
+            byFingerprint.put(ByteBuffer.wrap(user.getPeerFingerprint()), user);
+        }
+        if (user.isSetupCompleted()) {
+            completed.put(user.getId(), user);
+        } else {
+            completed.remove(user.getId());
+        }
+    }
+
+    User remove(int id) {
+        User old = byId.remove(id);
+        if (old != null) {
+            ordered.remove(id);
+            byName.remove(nameKey(old), old);
+            byFingerprint.remove(ByteBuffer.wrap(old.getPublicKeyFingerprint()), old);
+            byFingerprint.remove(ByteBuffer.wrap(old.getPeerFingerprint()), old);
+            completed.remove(id);
+        }
+
+        return old;
+    }
+
+    // Namen sind nicht eindeutig, weshalb die ID an den Schlüssel angehängt wird.
+    private static String nameKey(User user) {
+        return user.getName().toLowerCase(Locale.ROOT) + '\u0000' + user.getId();
+    }
+
+    /**
+     * Berechnet den Fingerprint (SHA-256) eines codierten Public-Keys.
+     *
+     * @param publicKeyEnc Public-Key, als Byte-Array codiert.
+     * @return Fingerprint, als Byte-Array codiert.
+     */
+    static byte[] fingerprint(byte[] publicKeyEnc) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(publicKeyEnc);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * Kern von cryptor: Verwaltung und Persistenz der Kontakte.
+ *
+ * Wie main.cryptography ist dieses Paket unabhängig von JavaFX und der Oberfläche (Paket main) und kann ohne
+ * Display verwendet werden. Fehler beim Laden und Speichern werden als IOException gemeldet.
+ *
+ * Erlaubte Abhängigkeiten: main.cryptography und main.metrics.
+ */
+package main.users;
@@ -0,0 +1,197 @@
+package main.cryptography;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Tests für den bandweise codierten PNG-Strom von {@link CarrierTemplate} und das Fortschreiben seiner
+ * Adler-32-Prüfsumme.
+ *
+ * Aufruf: CarrierTemplateTest, beendet sich bei einem Fehler mit Exit-Code 1.
+ */
+public final class CarrierTemplateTest {
+
+    // Höhe ohne Vielfaches von BAND_ROWS, damit das letzte Band kürzer ist.
+    private static final int WIDTH = 97;
+    private static final int HEIGHT = 83;
+
+    private CarrierTemplateTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        try {
+            replaceMatchesAdler32();
+            unchangedTemplate();
+            hideRoundTrip();
+        } catch (AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("CarrierTemplateTest passed");
+    }
+
+    // Die fortgeschriebene Prüfsumme stimmt mit einer vollständig neu berechneten überein, auch für Abschnitte am
+    // Anfang und Ende und für Ströme über 65521 Bytes.
+    private static void replaceMatchesAdler32() {
+        Random random = new Random(46);
+        for (int n = 0; n < 500; n++) {
+            int total = 1 + random.nextInt(n % 2 == 0 ? 1000 : 300000);
+            byte[] data = new byte[total];
+            random.nextBytes(data);
+
+            int offset;
+            int length;
+            switch (n % 5) {
+                case 0: offset = 0; length = 1 + random.nextInt(total); break;
+                case 1: length = 1 + random.nextInt(total); offset = total - length; break;
+                default: offset = random.nextInt(total); length = 1 + random.nextInt(total - offset);
+            }
+
+            long before = adler(data, 0, total);
+            long oldSection = adler(data, offset, length);
+            byte[] section = new byte[length];
+            random.nextBytes(section);
+            System.arraycopy(section, 0, data, offset, length);
+            long newSection = adler(data, offset, length);
+
+            long expected = adler(data, 0, total);
+            long actual = CarrierTemplate.replace(before, total, offset, length, oldSection, newSection);
+            check(actual == expected, "replace for total=" + total + " offset=" + offset + " length=" + length);
+        }
+    }
+
+    // Ohne Nachricht wird die Vorlage so geschrieben, dass sie exakt das Trägerbild ergibt.
+    private static void unchangedTemplate() throws Exception {
+        BufferedImage carrier = carrier(new Random(1));
+        CarrierTemplate template = new CarrierTemplate(carrier);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.write(new byte[0], new byte[0], out, ProgressListener.NONE);
+        byte[] png = out.toByteArray();
+
+        checkChunks(png);
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(png));
+        check(read != null, "unchanged template is not a readable PNG");
+        check(Arrays.equals(pixels(read), pixels(carrier)), "unchanged template differs from the carrier");
+    }
+
+    // Nachrichten über ein, mehrere und alle Bänder: Das PNG ist gültig, die Nachricht lässt sich extrahieren und alle
+    // Zeilen hinter dem Chiffretext sind unverändert.
+    private static void hideRoundTrip() throws Exception {
+        Random random = new Random(2);
+        BufferedImage carrier = carrier(random);
+        CarrierTemplate template = new CarrierTemplate(carrier);
+        int[] original = pixels(carrier);
+        byte[] secret = new byte[32];
+        random.nextBytes(secret);
+
+        for (int size : new int[]{0, 10, WIDTH * CarrierTemplate.BAND_ROWS, 3000, WIDTH * HEIGHT - 200}) {
+            byte[] document = new byte[size];
+            random.nextBytes(document);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            template.hide(document, "document.bin", secret, out, ProgressListener.NONE);
+            byte[] png = out.toByteArray();
+            checkChunks(png);
+
+            BufferedImage read = ImageIO.read(new ByteArrayInputStream(png));
+            check(read != null, "template output with " + size + " bytes is not a readable PNG");
+            ExtractedDocument extracted = Steganography.extract(read, secret, ProgressListener.NONE);
+            check(Arrays.equals(extracted.getContent(), document), "extracted document with " + size + " bytes");
+            check("document.bin".equals(extracted.getFileName()), "file name with " + size + " bytes");
+
+            int[] written = pixels(read);
+            int cipherLength = Steganography.buildCipher(document, "document.bin", secret, ProgressListener.NONE).length;
+            int firstUnchangedRow = (cipherLength + WIDTH - 1) / WIDTH;
+            for (int i = firstUnchangedRow * WIDTH; i < written.length; i++) {
+                check(written[i] == original[i], "pixel " + i + " changed with " + size + " bytes");
+            }
+        }
+    }
+
+    // Prüft die CRC aller Chunks und entpackt den zlib-Strom aller IDAT-Chunks. Der Inflater prüft dabei die
+    // Adler-32-Prüfsumme am Ende des Stroms.
+    private static void checkChunks(byte[] png) {
+        check(Arrays.equals(Arrays.copyOf(png, 8), CarrierTemplate.PNG_SIGNATURE), "PNG signature");
+
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.wrap(png, 8, png.length - 8);
+        while (buffer.hasRemaining()) {
+            int length = buffer.getInt();
+            byte[] typeAndData = new byte[4 + length];
+            buffer.get(typeAndData);
+            CRC32 crc = new CRC32();
+            crc.update(typeAndData);
+            String type = new String(typeAndData, 0, 4, StandardCharsets.US_ASCII);
+            check((int) crc.getValue() == buffer.getInt(), "CRC of " + type + " chunk");
+            if (type.equals("IDAT")) {
+                idat.write(typeAndData, 4, length);
+            }
+        }
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(idat.toByteArray());
+        byte[] raw = new byte[HEIGHT * (4 * WIDTH + 1)];
+        int inflated = 0;
+        try {
+            while (!inflater.finished() && inflated < raw.length) {
+                int n = inflater.inflate(raw, inflated, raw.length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (!inflater.finished()) {
+                inflater.inflate(new byte[1]);
+            }
+        } catch (DataFormatException e) {
+            throw new AssertionError("zlib stream is damaged: " + e.getMessage(), e);
+        }
+        check(inflater.finished(), "zlib stream is not complete");
+        check(inflated == raw.length, "zlib stream has " + inflated + " instead of " + raw.length + " bytes");
+        inflater.end();
+    }
+
+    // Trägerbild mit Verlauf, Rauschen und teiltransparenten Pixeln.
+    private static BufferedImage carrier(Random random) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int v = (x + y) * 255 / (WIDTH + HEIGHT);
+                int alpha = 128 + random.nextInt(128);
+                image.setRGB(x, y, alpha << 24 | v << 16 | random.nextInt(256) << 8 | (255 - v));
+            }
+        }
+        return image;
+    }
+
+    private static int[] pixels(BufferedImage image) throws IOException {
+        if (image.getWidth() != WIDTH || image.getHeight() != HEIGHT) {
+            throw new IOException("Unexpected picture size " + image.getWidth() + "x" + image.getHeight() + ".");
+        }
+        return image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+
+    private static long adler(byte[] data, int offset, int length) {
+        Adler32 adler = new Adler32();
+        adler.update(data, offset, length);
+        return adler.getValue();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
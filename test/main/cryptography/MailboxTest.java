@@ -0,0 +1,225 @@
+package main.cryptography;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Tests für das Anhängen an ein {@link Mailbox}-Postfach: Nach jedem Anhängen ist die Datei ein gültiges PNG, das
+ * ImageIO lesen kann, und alle Nachrichten lassen sich nach erneutem Öffnen abrufen.
+ *
+ * Aufruf: MailboxTest, beendet sich bei einem Fehler mit Exit-Code 1.
+ */
+public final class MailboxTest {
+
+    // Der Index belegt die ersten beiden Bänder, die Höhe ist kein Vielfaches von BAND_ROWS.
+    private static final int WIDTH = 150;
+    private static final int HEIGHT = 101;
+
+    private MailboxTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        try {
+            appendAndFetch();
+            fullMailbox();
+            wrongSecret();
+        } catch (AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("MailboxTest passed");
+    }
+
+    // Nachrichten in einem, über mehrere und ohne Bänder: Nach jedem Anhängen ist das PNG gültig, nur die Bänder des
+    // Index und der neuen Nachricht haben sich geändert und alle bisherigen Nachrichten lassen sich abrufen.
+    private static void appendAndFetch() throws Exception {
+        Random random = new Random(50);
+        byte[] secret = secret(random);
+        File file = File.createTempFile("cryptor-mailbox", ".png");
+        try {
+            Mailbox.create(carrier(random), secret, file, ProgressListener.NONE);
+            checkPicture(file);
+            check(new Mailbox(file, secret).getMessages().isEmpty(), "new mailbox is not empty");
+
+            List<byte[]> documents = new ArrayList<>();
+            for (int size : new int[]{10, 4000, 0, 1}) {
+                byte[] document = new byte[size];
+                random.nextBytes(document);
+                int[] before = checkPicture(file);
+
+                Mailbox mailbox = new Mailbox(file, secret);
+                Mailbox.Message message = mailbox.append(document, "message" + documents.size() + ".bin", ProgressListener.NONE);
+                documents.add(document);
+                check(message.getNumber() == documents.size() - 1, "number of message with " + size + " bytes");
+
+                // Bänder vor der neuen Nachricht bis auf die des Index sowie alle Bänder dahinter bleiben unverändert.
+                int[] after = checkPicture(file);
+                int bandPixels = CarrierTemplate.BAND_ROWS * WIDTH;
+                int indexBands = 2;
+                int offset = end(mailbox) - message.getSize();
+                int firstBand = offset / bandPixels;
+                int lastBand = message.getSize() == 0 ? firstBand : (offset + message.getSize() - 1) / bandPixels;
+                for (int i = 0; i < after.length; i++) {
+                    int band = i / bandPixels;
+                    if (band >= indexBands && (band < firstBand || band > lastBand)) {
+                        check(after[i] == before[i], "pixel " + i + " changed while appending " + size + " bytes");
+                    }
+                }
+
+                Mailbox reopened = new Mailbox(file, secret);
+                check(reopened.getMessages().size() == documents.size(), "message count after appending " + size + " bytes");
+                for (int number = 0; number < documents.size(); number++) {
+                    ExtractedDocument fetched = reopened.fetch(number, ProgressListener.NONE);
+                    check(Arrays.equals(fetched.getContent(), documents.get(number)), "content of message " + number);
+                    check(("message" + number + ".bin").equals(fetched.getFileName()), "file name of message " + number);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    // Nach MAX_MESSAGES Nachrichten wird jede weitere abgelehnt, die Datei bleibt dabei unverändert.
+    private static void fullMailbox() throws Exception {
+        Random random = new Random(51);
+        byte[] secret = secret(random);
+        File file = File.createTempFile("cryptor-mailbox", ".png");
+        try {
+            Mailbox.create(carrier(random), secret, file, ProgressListener.NONE);
+            Mailbox mailbox = new Mailbox(file, secret);
+            for (int number = 0; number < Mailbox.MAX_MESSAGES; number++) {
+                mailbox.append(new byte[]{(byte) number}, "m", ProgressListener.NONE);
+            }
+
+            byte[] full = Files.readAllBytes(file.toPath());
+            try {
+                mailbox.append(new byte[1], "m", ProgressListener.NONE);
+                check(false, "mailbox accepted more than " + Mailbox.MAX_MESSAGES + " messages");
+            } catch (SteganographyException e) {
+                check(e.getMessage().equals("This mailbox is full."), "message for full mailbox");
+            }
+            check(Arrays.equals(Files.readAllBytes(file.toPath()), full), "full mailbox was changed");
+
+            checkPicture(file);
+            ExtractedDocument last = new Mailbox(file, secret).fetch(Mailbox.MAX_MESSAGES - 1, ProgressListener.NONE);
+            check(Arrays.equals(last.getContent(), new byte[]{(byte) (Mailbox.MAX_MESSAGES - 1)}), "content of last message");
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    // Mit einem anderen Shared-Secret lässt sich das Postfach nicht öffnen.
+    private static void wrongSecret() throws Exception {
+        Random random = new Random(52);
+        byte[] secret = secret(random);
+        File file = File.createTempFile("cryptor-mailbox", ".png");
+        try {
+            Mailbox.create(carrier(random), secret, file, ProgressListener.NONE);
+            new Mailbox(file, secret).append(new byte[100], "secret.bin", ProgressListener.NONE);
+            try {
+                new Mailbox(file, secret(random));
+                check(false, "mailbox was opened with another shared secret");
+            } catch (SteganographyException e) {
+                // erwartet
+            }
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    // Liest das Postfach mit ImageIO und prüft dabei Chunks und zlib-Strom, liefert die Pixel.
+    private static int[] checkPicture(File file) throws IOException {
+        checkChunks(Files.readAllBytes(file.toPath()));
+        BufferedImage read = ImageIO.read(file);
+        check(read != null, "mailbox is not a readable PNG");
+        check(read.getWidth() == WIDTH && read.getHeight() == HEIGHT,
+                "mailbox has size " + read.getWidth() + "x" + read.getHeight());
+        return read.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+
+    // Prüft die CRC aller Chunks und entpackt den zlib-Strom aller IDAT-Chunks. Der Inflater prüft dabei die
+    // Adler-32-Prüfsumme am Ende des Stroms.
+    private static void checkChunks(byte[] png) {
+        check(Arrays.equals(Arrays.copyOf(png, 8), CarrierTemplate.PNG_SIGNATURE), "PNG signature");
+
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.wrap(png, 8, png.length - 8);
+        while (buffer.hasRemaining()) {
+            int length = buffer.getInt();
+            byte[] typeAndData = new byte[4 + length];
+            buffer.get(typeAndData);
+            CRC32 crc = new CRC32();
+            crc.update(typeAndData);
+            String type = new String(typeAndData, 0, 4, StandardCharsets.US_ASCII);
+            check((int) crc.getValue() == buffer.getInt(), "CRC of " + type + " chunk");
+            if (type.equals("IDAT")) {
+                idat.write(typeAndData, 4, length);
+            }
+        }
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(idat.toByteArray());
+        byte[] raw = new byte[HEIGHT * (4 * WIDTH + 1)];
+        int inflated = 0;
+        try {
+            while (!inflater.finished() && inflated < raw.length) {
+                int n = inflater.inflate(raw, inflated, raw.length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (!inflater.finished()) {
+                inflater.inflate(new byte[1]);
+            }
+        } catch (DataFormatException e) {
+            throw new AssertionError("zlib stream is damaged: " + e.getMessage(), e);
+        }
+        check(inflater.finished(), "zlib stream is not complete");
+        check(inflated == raw.length, "zlib stream has " + inflated + " instead of " + raw.length + " bytes");
+        inflater.end();
+    }
+
+    // Erstes freies Pixel hinter allen Nachrichten, ermittelt aus dem freien Platz.
+    private static int end(Mailbox mailbox) {
+        return (int) ((long) WIDTH * HEIGHT - mailbox.getFree());
+    }
+
+    private static byte[] secret(Random random) {
+        byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        return secret;
+    }
+
+    // Trägerbild mit Verlauf, Rauschen und teiltransparenten Pixeln.
+    private static BufferedImage carrier(Random random) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int v = (x + y) * 255 / (WIDTH + HEIGHT);
+                int alpha = 128 + random.nextInt(128);
+                image.setRGB(x, y, alpha << 24 | v << 16 | random.nextInt(256) << 8 | (255 - v));
+            }
+        }
+        return image;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
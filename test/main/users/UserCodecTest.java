@@ -0,0 +1,123 @@
+package main.users;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Tests für die Varint-Codierung des Binärformats der Kontakte (siehe {@link UserCodec}).
+ *
+ * Aufruf: UserCodecTest, beendet sich bei einem Fehler mit Exit-Code 1.
+ */
+public final class UserCodecTest {
+
+    // Grenzen der 7-Bit-Gruppen, an denen sich die Länge eines Varints ändert.
+    private static final int[] VALUES = {
+            0, 1, 127, 128, 255, 300, 16383, 16384, 2097151, 2097152, 268435455, 268435456, Integer.MAX_VALUE
+    };
+    private static final int[] SIZES = {1, 1, 1, 2, 2, 2, 2, 3, 3, 4, 4, 5, 5};
+
+    private UserCodecTest() {
+    }
+
+    public static void main(String[] args) {
+        try {
+            roundTrip();
+            consecutive();
+            rejectsNegative();
+            rejectsOverlong();
+            recordRoundTrip();
+        } catch (AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("UserCodecTest passed");
+    }
+
+    // Jeder Wert wird mit genau varintSize() Bytes geschrieben und unverändert gelesen.
+    private static void roundTrip() {
+        for (int i = 0; i < VALUES.length; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            UserCodec.putVarint(buffer, VALUES[i]);
+            check(buffer.position() == SIZES[i], "size of " + VALUES[i] + " is " + buffer.position());
+            check(UserCodec.varintSize(VALUES[i]) == SIZES[i], "varintSize of " + VALUES[i]);
+
+            buffer.flip();
+            check(UserCodec.getVarint(buffer) == VALUES[i], "decoded value of " + VALUES[i]);
+            check(!buffer.hasRemaining(), "bytes left after " + VALUES[i]);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        UserCodec.putVarint(buffer, 300);
+        check(Arrays.equals(buffer.array(), new byte[]{(byte) 0xac, 0x02}), "encoding of 300");
+    }
+
+    // Aufeinanderfolgende Varints werden ohne Trennzeichen gelesen.
+    private static void consecutive() {
+        int size = 0;
+        for (int value : VALUES) {
+            size += UserCodec.varintSize(value);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int value : VALUES) {
+            UserCodec.putVarint(buffer, value);
+        }
+        buffer.flip();
+        for (int value : VALUES) {
+            check(UserCodec.getVarint(buffer) == value, "consecutive value " + value);
+        }
+    }
+
+    // Ein Wert mit gesetztem Vorzeichen-Bit ist keine gültige Länge oder ID.
+    private static void rejectsNegative() {
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        UserCodec.putVarint(buffer, -1);
+        buffer.flip();
+        try {
+            UserCodec.getVarint(buffer);
+            check(false, "negative varint was accepted");
+        } catch (IllegalArgumentException e) {
+            check(e.getMessage().equals("Negative varint."), "message for negative varint");
+        }
+    }
+
+    // Mehr als fünf Bytes mit Folge-Bit können keine int-Zahl sein.
+    private static void rejectsOverlong() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01});
+        try {
+            UserCodec.getVarint(buffer);
+            check(false, "overlong varint was accepted");
+        } catch (IllegalArgumentException e) {
+            check(e.getMessage().equals("Malformed varint."), "message for overlong varint");
+        }
+    }
+
+    // Ein Datensatz mit großer ID und Feldern über 127 Bytes, deren Längen mehrere Varint-Bytes belegen.
+    private static void recordRoundTrip() {
+        byte[] privateKey = new byte[300];
+        byte[] publicKey = new byte[200];
+        byte[] sharedSecret = new byte[32];
+        Arrays.fill(privateKey, (byte) 1);
+        Arrays.fill(publicKey, (byte) 2);
+        Arrays.fill(sharedSecret, (byte) 3);
+        User user = new User(Integer.MAX_VALUE, "Zoë", privateKey, publicKey, sharedSecret);
+
+        ByteBuffer buffer = ByteBuffer.allocate(UserCodec.recordSize(user));
+        UserCodec.encodeRecord(user, buffer);
+        check(!buffer.hasRemaining(), "recordSize does not match the encoded record");
+
+        buffer.flip();
+        User decoded = UserCodec.decodeRecord(buffer);
+        check(decoded.getId() == user.getId(), "id");
+        check(decoded.getName().equals(user.getName()), "name");
+        check(Arrays.equals(decoded.getMyPrivKey(), privateKey), "private key");
+        check(Arrays.equals(decoded.getMyPublicKey(), publicKey), "public key");
+        check(Arrays.equals(decoded.getSharedSecret(), sharedSecret), "shared secret");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package main.users;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Tests für das Einspielen des Journals nach einem Absturz während des Schreibens (siehe {@link UserJournal}).
+ *
+ * Aufruf: UserJournalTest, beendet sich bei einem Fehler mit Exit-Code 1.
+ */
+public final class UserJournalTest {
+
+    private static final byte[] SECRET = new byte[32];
+
+    private UserJournalTest() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        try {
+            tornTail();
+            corruptLastFrame();
+        } catch (AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("UserJournalTest passed");
+    }
+
+    // Ein unvollständiger letzter Eintrag wird verworfen und abgeschnitten, sodass danach angehängte Einträge beim
+    // nächsten Laden nicht mit ihm verloren gehen.
+    private static void tornTail() throws IOException {
+        Path directory = Files.createTempDirectory("cryptor-journal");
+        try {
+            String snapshot = directory.resolve("users.cryptor").toString();
+            Path journalFile = Paths.get(snapshot + ".journal");
+            write(snapshot, 0, 10);
+            long validLength = Files.size(journalFile);
+
+            // Kopf eines Eintrags mit 100 Bytes, von denen nur 10 geschrieben wurden.
+            append(journalFile, ByteBuffer.allocate(18).putInt(100).putInt(0x12345678).array());
+
+            Map<Integer, User> users = load(snapshot);
+            check(users.size() == 10, "torn tail: expected 10 contacts, got " + users.size());
+            check(Files.size(journalFile) == validLength, "torn tail was not truncated");
+
+            write(snapshot, 10, 5);
+            users = load(snapshot);
+            check(users.size() == 15, "after torn tail: expected 15 contacts, got " + users.size());
+            check(users.get(14).getName().equals("user14"), "contact appended after torn tail");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // Ein Eintrag mit falscher Prüfsumme beendet das Einspielen, alle Einträge davor bleiben erhalten.
+    private static void corruptLastFrame() throws IOException {
+        Path directory = Files.createTempDirectory("cryptor-journal");
+        try {
+            String snapshot = directory.resolve("users.cryptor").toString();
+            Path journalFile = Paths.get(snapshot + ".journal");
+            write(snapshot, 0, 3);
+            long validLength = Files.size(journalFile);
+            write(snapshot, 3, 1);
+
+            // Letztes Byte des letzten Eintrags kippen.
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, channel.size() - 1);
+                last.put(0, (byte) ~last.get(0));
+                last.rewind();
+                channel.write(last, channel.size() - 1);
+            }
+
+            Map<Integer, User> users = load(snapshot);
+            check(users.size() == 3, "corrupt frame: expected 3 contacts, got " + users.size());
+            check(!users.containsKey(3), "contact with corrupt frame was loaded");
+            check(Files.size(journalFile) == validLength, "corrupt frame was not truncated");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // Lädt den Stand, hängt count neue Kontakte ab der angegebenen ID an und schließt das Journal.
+    private static void write(String snapshot, int firstId, int count) throws IOException {
+        List<User> state = new ArrayList<>();
+        UserJournal journal = journal(snapshot, state);
+        try {
+            state.addAll(journal.load().values());
+            for (int id = firstId; id < firstId + count; id++) {
+                User user = new User(id, "user" + id, new byte[]{1, 2, 3}, new byte[]{4, 5, 6}, new byte[32]);
+                state.add(user);
+                UserJournal.await(journal.put(user));
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    private static Map<Integer, User> load(String snapshot) throws IOException {
+        UserJournal journal = journal(snapshot, new ArrayList<>());
+        try {
+            return journal.load();
+        } finally {
+            journal.close();
+        }
+    }
+
+    // Ohne Verdichtung, damit alle Einträge im Journal bleiben.
+    private static UserJournal journal(String snapshot, List<User> state) {
+        return new UserJournal(snapshot, SECRET, () -> new ArrayList<>(state), state::size, Long.MAX_VALUE);
+    }
+
+    private static void append(Path file, byte[] data) throws IOException {
+        Files.write(file, data, StandardOpenOption.APPEND);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}